@@ -0,0 +1,210 @@
+package nl.vpro.api.client.utils;
+
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A circuit breaker for calls to a remote service. After {@code failureThreshold} consecutive failures the breaker opens, and calls fail fast with a {@link CircuitBreakerOpenException}, rather than loading the service (and the calling threads) even more.
+ * <p>
+ * Calls which succeed, but take longer than {@code slowCallThreshold} (if set) are counted as failures too, since a service which is very slow is as harmful to its callers as one that fails.
+ * <p>
+ * After {@code openDuration} the breaker becomes half open, and lets through {@code halfOpenProbes} calls. If those succeed the breaker closes again, if one of them fails it opens again.
+ *
+ * @author Michiel Meeuwissen
+ * @since 8.15
+ */
+@Slf4j
+public class CircuitBreaker {
+
+    public enum State {
+        CLOSED,
+        OPEN,
+        HALF_OPEN
+    }
+
+    @Getter
+    private final String name;
+    @Getter
+    private final int failureThreshold;
+    @Getter
+    private final Duration openDuration;
+    @Getter
+    private final int halfOpenProbes;
+    @Getter
+    private final Duration slowCallThreshold;
+    private final Clock clock;
+
+    private State state = State.CLOSED;
+    private int consecutiveFailures = 0;
+    private int probesInFlight = 0;
+    private int probesSucceeded = 0;
+    private Instant openUntil = Instant.MIN;
+
+    private final AtomicLong opened = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong slowCalls = new AtomicLong();
+
+    @lombok.Builder
+    private CircuitBreaker(
+        String name,
+        Integer failureThreshold,
+        Duration openDuration,
+        Integer halfOpenProbes,
+        Duration slowCallThreshold,
+        Clock clock) {
+        this.name = name == null ? "circuit-breaker" : name;
+        this.failureThreshold = failureThreshold == null ? 5 : failureThreshold;
+        this.openDuration = openDuration == null ? Duration.ofSeconds(30) : openDuration;
+        this.halfOpenProbes = halfOpenProbes == null ? 1 : halfOpenProbes;
+        this.slowCallThreshold = slowCallThreshold;
+        this.clock = clock == null ? Clock.systemUTC() : clock;
+    }
+
+    /**
+     * Checks whether a call may be done now.
+     * @throws CircuitBreakerOpenException if the breaker is open (or half open, and enough probes are in flight already)
+     */
+    public void acquire() {
+        if (!tryAcquire()) {
+            rejected.incrementAndGet();
+            throw new CircuitBreakerOpenException(name, getRetryAfter());
+        }
+    }
+
+    /**
+     * Like {@link #acquire()}, but returns {@code false} rather than throwing an exception
+     */
+    public synchronized boolean tryAcquire() {
+        switch (state) {
+            case CLOSED:
+                return true;
+            case OPEN:
+                if (clock.instant().isBefore(openUntil)) {
+                    return false;
+                }
+                log.info("{}: half open, probing", name);
+                state = State.HALF_OPEN;
+                probesInFlight = 0;
+                probesSucceeded = 0;
+                // fall through
+            case HALF_OPEN:
+            default:
+                if (probesInFlight + probesSucceeded < halfOpenProbes) {
+                    probesInFlight++;
+                    return true;
+                }
+                return false;
+        }
+    }
+
+    /**
+     * Signals a successful call, which took the given time. If that is longer than {@link #getSlowCallThreshold()}, it is counted as a failure.
+     */
+    public void onSuccess(Duration duration) {
+        if (slowCallThreshold != null && duration.compareTo(slowCallThreshold) > 0) {
+            slowCalls.incrementAndGet();
+            log.debug("{}: slow call ({} > {})", name, duration, slowCallThreshold);
+            onFailure();
+        } else {
+            onSuccess();
+        }
+    }
+
+    public synchronized void onSuccess() {
+        consecutiveFailures = 0;
+        if (state == State.HALF_OPEN) {
+            probesInFlight = Math.max(0, probesInFlight - 1);
+            if (++probesSucceeded >= halfOpenProbes) {
+                log.info("{}: closed", name);
+                state = State.CLOSED;
+            }
+        }
+    }
+
+    public synchronized void onFailure() {
+        consecutiveFailures++;
+        if (state == State.HALF_OPEN || (state == State.CLOSED && consecutiveFailures >= failureThreshold)) {
+            open();
+        }
+    }
+
+    /**
+     * Signals that a call which was let through was not done after all (e.g. because some other limiter rejected it). It is counted as neither a success nor a failure, but it frees its probe if the breaker is half open.
+     */
+    public synchronized void onCancel() {
+        if (state == State.HALF_OPEN) {
+            probesInFlight = Math.max(0, probesInFlight - 1);
+        }
+    }
+
+    /**
+     * Forgets all failures, and closes the breaker
+     */
+    public synchronized void reset() {
+        state = State.CLOSED;
+        consecutiveFailures = 0;
+        probesInFlight = 0;
+        probesSucceeded = 0;
+    }
+
+    public synchronized State getState() {
+        if (state == State.OPEN && !clock.instant().isBefore(openUntil)) {
+            // would become half open on the next call
+            return State.HALF_OPEN;
+        }
+        return state;
+    }
+
+    /**
+     * If the breaker is open, the time until it will let through probes again. Otherwise {@link Duration#ZERO}
+     */
+    public synchronized Duration getRetryAfter() {
+        if (state != State.OPEN) {
+            return Duration.ZERO;
+        }
+        final Duration remaining = Duration.between(clock.instant(), openUntil);
+        return remaining.isNegative() ? Duration.ZERO : remaining;
+    }
+
+    public synchronized int getConsecutiveFailures() {
+        return consecutiveFailures;
+    }
+
+    /**
+     * The number of times the breaker opened
+     */
+    public long getOpenedCount() {
+        return opened.get();
+    }
+
+    /**
+     * The number of calls which were refused because the breaker was open
+     */
+    public long getRejectedCount() {
+        return rejected.get();
+    }
+
+    /**
+     * The number of calls which succeeded, but were counted as failure because they took longer than {@link #getSlowCallThreshold()}
+     */
+    public long getSlowCallCount() {
+        return slowCalls.get();
+    }
+
+    private void open() {
+        state = State.OPEN;
+        openUntil = clock.instant().plus(openDuration);
+        opened.incrementAndGet();
+        log.warn("{}: opened after {} consecutive failures, until {}", name, consecutiveFailures, openUntil);
+    }
+
+    @Override
+    public String toString() {
+        return name + " " + getState();
+    }
+}
@@ -0,0 +1,25 @@
+package nl.vpro.api.client.utils;
+
+import lombok.Getter;
+
+import java.time.Duration;
+
+/**
+ * Thrown by {@link CircuitBreaker#acquire()} if the breaker is open, so the call was not even tried.
+ *
+ * @author Michiel Meeuwissen
+ * @since 8.15
+ */
+public class CircuitBreakerOpenException extends RuntimeException {
+
+    @Getter
+    private final String breaker;
+    @Getter
+    private final Duration retryAfter;
+
+    public CircuitBreakerOpenException(String breaker, Duration retryAfter) {
+        super("Circuit breaker " + breaker + " is open (retry after " + retryAfter + ")");
+        this.breaker = breaker;
+        this.retryAfter = retryAfter;
+    }
+}
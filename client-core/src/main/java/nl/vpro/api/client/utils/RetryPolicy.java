@@ -0,0 +1,232 @@
+package nl.vpro.api.client.utils;
+
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+
+import java.time.Duration;
+import java.util.Optional;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+
+import jakarta.ws.rs.WebApplicationException;
+import jakarta.ws.rs.core.HttpHeaders;
+
+/**
+ * Determines whether and when a failed call is retried.
+ * <ul>
+ *     <li>The delay grows exponentially, from {@code initialDelay} to at most {@code maxDelay}, with some random jitter, so that clients which failed at the same moment don't retry at the same moment too.</li>
+ *     <li>If the server sent a {@code Retry-After} header, the delay is at least that.</li>
+ *     <li>A call is retried at most {@code maxAttempts} times</li>
+ *     <li>Retries are limited by a budget: every call adds {@code budgetRatio} to it, and every retry takes one, so retries can't add more than that fraction of load to a service that is already failing. The budget is capped at {@code maxBudget}, which allows for some retries after a quiet period.</li>
+ * </ul>
+ * Synchronous callers can wait for {@link #nextDelay(int, Throwable)} themselves, asynchronous ones can use {@link #executeAsync(Supplier, Predicate, ScheduledExecutorService)}, which schedules the retries without blocking a thread.
+ *
+ * @author Michiel Meeuwissen
+ * @since 8.15
+ */
+@Slf4j
+public class RetryPolicy {
+
+    @Getter
+    private final Duration initialDelay;
+    @Getter
+    private final Duration maxDelay;
+    @Getter
+    private final double multiplier;
+    @Getter
+    private final double jitter;
+    @Getter
+    private final int maxAttempts;
+    @Getter
+    private final double budgetRatio;
+    @Getter
+    private final double maxBudget;
+
+    private double budget;
+
+    private final AtomicLong retries = new AtomicLong();
+    private final AtomicLong budgetExhausted = new AtomicLong();
+    private final AtomicLong givenUp = new AtomicLong();
+
+    @lombok.Builder
+    private RetryPolicy(
+        Duration initialDelay,
+        Duration maxDelay,
+        Double multiplier,
+        Double jitter,
+        Integer maxAttempts,
+        Double budgetRatio,
+        Double maxBudget) {
+        this.initialDelay = initialDelay == null ? Duration.ofSeconds(1) : initialDelay;
+        this.maxDelay = maxDelay == null ? Duration.ofSeconds(60) : maxDelay;
+        this.multiplier = multiplier == null ? 2.0 : multiplier;
+        this.jitter = jitter == null ? 0.2 : jitter;
+        this.maxAttempts = maxAttempts == null ? 10 : maxAttempts;
+        this.budgetRatio = budgetRatio == null ? 0.2 : budgetRatio;
+        this.maxBudget = maxBudget == null ? 10 : maxBudget;
+        this.budget = this.maxBudget;
+    }
+
+    /**
+     * Registers a (first) call, which adds to the retry budget
+     */
+    public synchronized void onCall() {
+        budget = Math.min(maxBudget, budget + budgetRatio);
+    }
+
+    /**
+     * @param attempt The number of the retry (so 1 for the first retry)
+     * @param cause   The exception which made the call fail. If it contains a {@code Retry-After} header, that is honoured.
+     * @return The delay after which the call should be retried, or empty if it should not be retried
+     */
+    public Optional<Duration> nextDelay(int attempt, Throwable cause) {
+        if (attempt > maxAttempts) {
+            givenUp.incrementAndGet();
+            return Optional.empty();
+        }
+        synchronized (this) {
+            if (budget < 1) {
+                budgetExhausted.incrementAndGet();
+                return Optional.empty();
+            }
+            budget -= 1;
+        }
+        retries.incrementAndGet();
+        final Duration backoff = backoff(attempt);
+        final Duration retryAfter = retryAfter(cause);
+        return Optional.of(retryAfter != null && retryAfter.compareTo(backoff) > 0 ? retryAfter : backoff);
+    }
+
+    /**
+     * The delay for the given attempt, without taking into account the budget or {@code Retry-After}
+     */
+    Duration backoff(int attempt) {
+        final double base = Math.min(
+            maxDelay.toMillis(),
+            initialDelay.toMillis() * Math.pow(multiplier, Math.max(0, attempt - 1))
+        );
+        final double factor = 1 + jitter * (2 * ThreadLocalRandom.current().nextDouble() - 1);
+        return Duration.ofMillis(Math.round(base * factor));
+    }
+
+    /**
+     * Performs the call, and if it fails with a retryable exception, schedules a retry on the given scheduler. No thread is blocked meanwhile.
+     */
+    public <T> CompletableFuture<T> executeAsync(
+        Supplier<? extends CompletionStage<T>> call,
+        Predicate<Throwable> retryable,
+        ScheduledExecutorService scheduler) {
+        onCall();
+        final CompletableFuture<T> result = new CompletableFuture<>();
+        attemptAsync(call, retryable, scheduler, 0, result);
+        return result;
+    }
+
+    private <T> void attemptAsync(
+        Supplier<? extends CompletionStage<T>> call,
+        Predicate<Throwable> retryable,
+        ScheduledExecutorService scheduler,
+        int attempt,
+        CompletableFuture<T> result) {
+        final CompletionStage<T> stage;
+        try {
+            stage = call.get();
+        } catch (RuntimeException e) {
+            retryOrFail(call, retryable, scheduler, attempt, result, e);
+            return;
+        }
+        stage.whenComplete((value, throwable) -> {
+            if (throwable == null) {
+                result.complete(value);
+            } else {
+                retryOrFail(call, retryable, scheduler, attempt, result, unwrap(throwable));
+            }
+        });
+    }
+
+    private <T> void retryOrFail(
+        Supplier<? extends CompletionStage<T>> call,
+        Predicate<Throwable> retryable,
+        ScheduledExecutorService scheduler,
+        int attempt,
+        CompletableFuture<T> result,
+        Throwable throwable) {
+        final Optional<Duration> delay = retryable.test(throwable) ? nextDelay(attempt + 1, throwable) : Optional.empty();
+        if (delay.isEmpty()) {
+            result.completeExceptionally(throwable);
+            return;
+        }
+        log.debug("Retrying after {} ({}: {})", delay.get(), throwable.getClass().getSimpleName(), throwable.getMessage());
+        try {
+            scheduler.schedule(
+                () -> attemptAsync(call, retryable, scheduler, attempt + 1, result),
+                delay.get().toMillis(), TimeUnit.MILLISECONDS
+            );
+        } catch (RejectedExecutionException ree) {
+            result.completeExceptionally(throwable);
+        }
+    }
+
+    /**
+     * The number of retries that were allowed
+     */
+    public long getRetries() {
+        return retries.get();
+    }
+
+    /**
+     * The number of retries that were refused because the budget was exhausted
+     */
+    public long getBudgetExhausted() {
+        return budgetExhausted.get();
+    }
+
+    /**
+     * The number of calls that were given up because they failed {@code maxAttempts} times
+     */
+    public long getGivenUp() {
+        return givenUp.get();
+    }
+
+    public synchronized double getBudget() {
+        return budget;
+    }
+
+    /**
+     * The value of the {@code Retry-After} header of the response of the exception (if it is a {@link WebApplicationException}), or the time until an open {@link CircuitBreaker} will let calls through again. Otherwise {@code null}
+     */
+    public static Duration retryAfter(Throwable throwable) {
+        if (throwable instanceof CircuitBreakerOpenException cboe) {
+            return cboe.getRetryAfter();
+        }
+        if (throwable instanceof WebApplicationException wae && wae.getResponse() != null) {
+            return retryAfter(wae.getResponse().getHeaderString(HttpHeaders.RETRY_AFTER));
+        }
+        return null;
+    }
+
+    /**
+     * Parses the value of a {@code Retry-After} header, in the 'delay-seconds' format. (The HTTP-date format is not used by the NPO API)
+     */
+    public static Duration retryAfter(String header) {
+        if (header == null) {
+            return null;
+        }
+        try {
+            return Duration.ofSeconds(Long.parseLong(header.trim()));
+        } catch (NumberFormatException nfe) {
+            return null;
+        }
+    }
+
+    private static Throwable unwrap(Throwable throwable) {
+        return throwable instanceof CompletionException && throwable.getCause() != null ? throwable.getCause() : throwable;
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + " (initial delay: " + initialDelay + ", max delay: " + maxDelay + ", max attempts: " + maxAttempts + ")";
+    }
+}
@@ -0,0 +1,110 @@
+package nl.vpro.api.client.utils;
+
+import java.time.*;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class CircuitBreakerTest {
+
+    private Instant now = Instant.parse("2026-10-18T10:00:00Z");
+
+    private final Clock clock = new Clock() {
+        @Override
+        public ZoneId getZone() {
+            return ZoneOffset.UTC;
+        }
+
+        @Override
+        public Clock withZone(ZoneId zone) {
+            return this;
+        }
+
+        @Override
+        public Instant instant() {
+            return now;
+        }
+    };
+
+    private final CircuitBreaker breaker = CircuitBreaker.builder()
+        .name("test")
+        .failureThreshold(3)
+        .openDuration(Duration.ofSeconds(10))
+        .clock(clock)
+        .build();
+
+    @Test
+    void opensAfterConsecutiveFailures() {
+        breaker.acquire();
+        breaker.onFailure();
+        breaker.acquire();
+        breaker.onFailure();
+        breaker.acquire();
+        breaker.onSuccess();
+        assertThat(breaker.getConsecutiveFailures()).isZero();
+        for (int i = 0; i < 3; i++) {
+            breaker.acquire();
+            breaker.onFailure();
+        }
+        assertThat(breaker.getState()).isEqualTo(CircuitBreaker.State.OPEN);
+        assertThatThrownBy(breaker::acquire)
+            .isInstanceOf(CircuitBreakerOpenException.class)
+            .extracting(e -> ((CircuitBreakerOpenException) e).getRetryAfter())
+            .isEqualTo(Duration.ofSeconds(10));
+        assertThat(breaker.getOpenedCount()).isEqualTo(1);
+        assertThat(breaker.getRejectedCount()).isEqualTo(1);
+    }
+
+    @Test
+    void halfOpenProbe() {
+        for (int i = 0; i < 3; i++) {
+            breaker.onFailure();
+        }
+        now = now.plusSeconds(10);
+        assertThat(breaker.getState()).isEqualTo(CircuitBreaker.State.HALF_OPEN);
+        assertThat(breaker.tryAcquire()).isTrue();
+        // only one probe at the time
+        assertThat(breaker.tryAcquire()).isFalse();
+        breaker.onFailure();
+        assertThat(breaker.getState()).isEqualTo(CircuitBreaker.State.OPEN);
+
+        now = now.plusSeconds(10);
+        assertThat(breaker.tryAcquire()).isTrue();
+        breaker.onSuccess();
+        assertThat(breaker.getState()).isEqualTo(CircuitBreaker.State.CLOSED);
+        assertThat(breaker.tryAcquire()).isTrue();
+        assertThat(breaker.tryAcquire()).isTrue();
+    }
+
+    @Test
+    void cancelledProbe() {
+        for (int i = 0; i < 3; i++) {
+            breaker.onFailure();
+        }
+        now = now.plusSeconds(10);
+        assertThat(breaker.tryAcquire()).isTrue();
+        assertThat(breaker.tryAcquire()).isFalse();
+        breaker.onCancel();
+        assertThat(breaker.getState()).isEqualTo(CircuitBreaker.State.HALF_OPEN);
+        assertThat(breaker.getConsecutiveFailures()).isEqualTo(3);
+        // the probe may be done by another call
+        assertThat(breaker.tryAcquire()).isTrue();
+    }
+
+    @Test
+    void slowCallsCountAsFailures() {
+        CircuitBreaker slow = CircuitBreaker.builder()
+            .failureThreshold(2)
+            .slowCallThreshold(Duration.ofSeconds(1))
+            .clock(clock)
+            .build();
+        slow.onSuccess(Duration.ofMillis(500));
+        slow.onSuccess(Duration.ofSeconds(2));
+        assertThat(slow.getState()).isEqualTo(CircuitBreaker.State.CLOSED);
+        slow.onSuccess(Duration.ofSeconds(3));
+        assertThat(slow.getState()).isEqualTo(CircuitBreaker.State.OPEN);
+        assertThat(slow.getSlowCallCount()).isEqualTo(2);
+    }
+}
@@ -0,0 +1,96 @@
+package nl.vpro.api.client.utils;
+
+import java.time.Duration;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import jakarta.ws.rs.ServiceUnavailableException;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class RetryPolicyTest {
+
+    @Test
+    void exponentialBackoff() {
+        RetryPolicy policy = RetryPolicy.builder()
+            .initialDelay(Duration.ofMillis(100))
+            .maxDelay(Duration.ofSeconds(1))
+            .jitter(0.0)
+            .build();
+        assertThat(policy.backoff(1)).isEqualTo(Duration.ofMillis(100));
+        assertThat(policy.backoff(2)).isEqualTo(Duration.ofMillis(200));
+        assertThat(policy.backoff(4)).isEqualTo(Duration.ofMillis(800));
+        assertThat(policy.backoff(10)).isEqualTo(Duration.ofSeconds(1));
+    }
+
+    @Test
+    void jitter() {
+        RetryPolicy policy = RetryPolicy.builder()
+            .initialDelay(Duration.ofMillis(1000))
+            .jitter(0.2)
+            .build();
+        for (int i = 0; i < 100; i++) {
+            assertThat(policy.backoff(1)).isBetween(Duration.ofMillis(800), Duration.ofMillis(1200));
+        }
+    }
+
+    @Test
+    void maxAttemptsAndBudget() {
+        RetryPolicy policy = RetryPolicy.builder()
+            .maxAttempts(2)
+            .maxBudget(3.0)
+            .budgetRatio(0.5)
+            .build();
+        assertThat(policy.nextDelay(1, null)).isPresent();
+        assertThat(policy.nextDelay(2, null)).isPresent();
+        assertThat(policy.nextDelay(3, null)).isEmpty();
+        assertThat(policy.getGivenUp()).isEqualTo(1);
+
+        assertThat(policy.nextDelay(1, null)).isPresent();
+        assertThat(policy.nextDelay(1, null)).isEmpty();
+        assertThat(policy.getBudgetExhausted()).isEqualTo(1);
+        policy.onCall();
+        policy.onCall();
+        assertThat(policy.nextDelay(1, null)).isPresent();
+        assertThat(policy.getRetries()).isEqualTo(4);
+    }
+
+    @Test
+    void honoursRetryAfter() {
+        RetryPolicy policy = RetryPolicy.builder()
+            .initialDelay(Duration.ofMillis(100))
+            .build();
+        assertThat(policy.nextDelay(1, new ServiceUnavailableException(5L))).contains(Duration.ofSeconds(5));
+        assertThat(RetryPolicy.retryAfter(new CircuitBreakerOpenException("test", Duration.ofSeconds(3)))).isEqualTo(Duration.ofSeconds(3));
+        assertThat(RetryPolicy.retryAfter("7")).isEqualTo(Duration.ofSeconds(7));
+        assertThat(RetryPolicy.retryAfter("Wed, 21 Oct 2015 07:28:00 GMT")).isNull();
+    }
+
+    @Test
+    void executeAsync() throws Exception {
+        ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+        try {
+            RetryPolicy policy = RetryPolicy.builder()
+                .initialDelay(Duration.ofMillis(10))
+                .build();
+            AtomicInteger calls = new AtomicInteger();
+            CompletableFuture<String> result = policy.executeAsync(() -> {
+                if (calls.incrementAndGet() < 3) {
+                    return CompletableFuture.failedFuture(new ServiceUnavailableException());
+                }
+                return CompletableFuture.completedFuture("ok");
+            }, t -> t instanceof ServiceUnavailableException, scheduler);
+            assertThat(result.get(5, TimeUnit.SECONDS)).isEqualTo("ok");
+            assertThat(calls.get()).isEqualTo(3);
+
+            CompletableFuture<String> failed = policy.executeAsync(
+                () -> CompletableFuture.failedFuture(new IllegalArgumentException()),
+                t -> t instanceof ServiceUnavailableException, scheduler);
+            assertThat(failed).failsWithin(Duration.ofSeconds(5));
+        } finally {
+            scheduler.shutdown();
+        }
+    }
+}
@@ -1,18 +1,35 @@
 package nl.vpro.api.client.utils;
 
+import jakarta.ws.rs.WebApplicationException;
+import jakarta.ws.rs.core.HttpHeaders;
 import lombok.Getter;
+import lombok.Setter;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.checkerframework.checker.index.qual.Positive;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import com.google.common.util.concurrent.RateLimiter;
+import nl.vpro.api.client.frontend.CallPriority;
 
 /**
+ * Client side rate limiting, which adapts to the responses of the server (AIMD).
+ * <ul>
+ * <li>Successes increase the rate additively, by a fraction of the base rate ({@link #getIncreaseFraction()})</li>
+ * <li>If the ratio of errors over the last {@link #getWindowSize()} calls exceeds {@link #getErrorRatioThreshold()}, the rate is multiplied by {@link #getDecreaseFactor()}</li>
+ * <li>If a latency threshold is set, and the 95th percentile of the latencies in the window exceeds it, the rate is lowered slightly too</li>
+ * <li>Responses which explicitly ask to back off (429, 503, with {@code Retry-After}) decrease the rate immediately</li>
+ * </ul>
+ * Callers with {@link CallPriority#BACKGROUND} give way to interactive callers (see {@link #acquire(CallPriority)}).
+ * <p>
+ * Permits are handed out like guava's {@code RateLimiter} does (which this used before): every permit reserves the next free slot, so callers are served in order, and idle time is saved up to at most one second worth of permits.
  * @author Michiel Meeuwissen
  * @since 1.1
  */
-@SuppressWarnings("UnstableApiUsage")
 public class AbstractRateLimiter {
 
     protected final Logger LOG = LoggerFactory.getLogger(getClass());
@@ -22,7 +39,49 @@ public class AbstractRateLimiter {
     @Getter
     private double minRate = 0.01;
 
-    private final RateLimiter limiter = RateLimiter.create(baseRate);
+    private final Slots limiter = new Slots(baseRate);
+
+    /**
+     * The rate is increased with this fraction of the base rate after a success
+     */
+    @Getter
+    @Setter
+    private double increaseFraction = 0.05;
+
+    /**
+     * The factor the rate is multiplied with if too many errors occur
+     */
+    @Getter
+    @Setter
+    private double decreaseFactor = 0.7;
+
+    /**
+     * The ratio of errors in the window, above which the rate is decreased
+     */
+    @Getter
+    @Setter
+    private double errorRatioThreshold = 0.1;
+
+    /**
+     * The minimal number of errors in the window before the rate is decreased. This avoids a single hiccup to have effect.
+     */
+    @Getter
+    @Setter
+    private int minErrors = 3;
+
+    /**
+     * If set, and the 95th percentile of the latencies in the window is higher, the rate is decreased a bit (and not increased)
+     */
+    @Getter
+    @Setter
+    private Duration latencyThreshold = null;
+
+    private OutcomeWindow window = new OutcomeWindow(50);
+
+    /**
+     * The number of interactive callers waiting for their slot, during which background callers hold off
+     */
+    private final AtomicInteger interactiveWaiting = new AtomicInteger();
 
     /**
      * Sets the rate in requests per second. The maximal number of request which are done.
@@ -42,15 +101,140 @@ public class AbstractRateLimiter {
     }
 
     protected void acquire() {
-        limiter.acquire();
+        acquire(CallPriority.INTERACTIVE);
     }
 
+    /**
+     * Acquires a permit. Interactive callers reserve the next free slot right away. Background callers only take a slot when it is due and no interactive callers are waiting, so they never hold slots an interactive caller could use.
+     * @since 8.15
+     */
+    protected void acquire(CallPriority priority) {
+        if (priority != CallPriority.BACKGROUND) {
+            interactiveWaiting.incrementAndGet();
+            try {
+                sleep(limiter.reserve());
+            } finally {
+                interactiveWaiting.decrementAndGet();
+            }
+            return;
+        }
+        while (true) {
+            final long wait = interactiveWaiting.get() > 0 ? -1 : limiter.reserveIfDue();
+            if (wait == 0) {
+                return;
+            }
+            sleep(wait > 0 ? wait : Math.min(limiter.getIntervalNanos(), TimeUnit.MILLISECONDS.toNanos(100)));
+        }
+    }
+
+    private static void sleep(long nanos) {
+        if (nanos > 0) {
+            try {
+                TimeUnit.NANOSECONDS.sleep(nanos);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while waiting for a permit", e);
+            }
+        }
+    }
+
+    /**
+     * The number of recent calls on which the decisions are based
+     */
+    public int getWindowSize() {
+        return window.size();
+    }
+
+    public synchronized void setWindowSize(int windowSize) {
+        window = new OutcomeWindow(windowSize);
+    }
+
+    /**
+     * The current rate in requests per second
+     */
+    public double getRate() {
+        return limiter.getRate();
+    }
+
+    /**
+     * Signals a success, of unknown latency
+     */
     protected void upRate() {
-        setRate(limiter.getRate() * 2);
+        upRate(null);
+    }
+
+    /**
+     * Signals a success.
+     * @param latency The time the call took, or {@code null} if not known
+     * @since 8.15
+     */
+    protected synchronized void upRate(Duration latency) {
+        window.add(true, latency);
+        final Duration threshold = latencyThreshold;
+        if (threshold != null) {
+            final Duration p95 = window.percentile(0.95);
+            if (p95 != null && p95.compareTo(threshold) > 0) {
+                // the server is getting slow, lower the rate a bit, and wait for new evidence
+                LOG.debug("p95 latency {} > {}", p95, threshold);
+                setRate(limiter.getRate() * Math.sqrt(decreaseFactor));
+                window.clear();
+                return;
+            }
+        }
+        if (window.errorRatio() <= errorRatioThreshold) {
+            setRate(limiter.getRate() + baseRate * increaseFraction);
+        }
+    }
+
+    /**
+     * Signals a failure.
+     */
+    protected synchronized void downRate() {
+        window.add(false, null);
+        if (window.errors() >= minErrors && window.errorRatio() > errorRatioThreshold) {
+            LOG.debug("Error ratio {} > {}", window.errorRatio(), errorRatioThreshold);
+            setRate(limiter.getRate() * decreaseFactor);
+            // only decrease again on new evidence
+            window.clear();
+        }
+    }
+
+    /**
+     * Signals that the server explicitly asked to back off (e.g. 429 or 503). This is a stronger signal than {@link #downRate()}: the rate is decreased immediately.
+     * @param retryAfter If the server indicated when to retry, the rate is lowered such that the next permit is not available earlier.
+     * @since 8.15
+     */
+    protected synchronized void backOff(Duration retryAfter) {
+        window.add(false, null);
+        double rate = limiter.getRate() * decreaseFactor * decreaseFactor;
+        if (retryAfter != null && retryAfter.isPositive()) {
+            rate = Math.min(rate, 1000d / retryAfter.toMillis());
+        }
+        LOG.debug("Backing off (retry after {})", retryAfter);
+        setRate(rate);
+        window.clear();
+    }
+
+    /**
+     * Signals a failure, with the exception that occurred. Exceptions which are a response of the server asking to back off (429/503) are handled by {@link #backOff(Duration)}, others by {@link #downRate()}.
+     * @since 8.15
+     */
+    protected void downRate(Throwable throwable) {
+        if (throwable instanceof WebApplicationException wae && wae.getResponse() != null) {
+            final int status = wae.getResponse().getStatus();
+            if (status == 429 || status == 503) {
+                backOff(retryAfter(wae.getResponse().getHeaderString(HttpHeaders.RETRY_AFTER)));
+                return;
+            }
+        }
+        downRate();
     }
 
-    protected void downRate() {
-        setRate(limiter.getRate() / 2);
+    /**
+     * @see RetryPolicy#retryAfter(String)
+     */
+    static Duration retryAfter(String header) {
+        return RetryPolicy.retryAfter(header);
     }
 
     public void setCurrentRateToMinRate() {
@@ -67,7 +251,7 @@ public class AbstractRateLimiter {
         }
         boolean changed = r != limiter.getRate();
         if (changed) {
-            LOG.info("Rate {} -> {} /s", limiter.getRate(), r);
+            LOG.debug("Rate {} -> {} /s", limiter.getRate(), r);
             limiter.setRate(r);
         } else if (r == minRate) {
             LOG.debug("Rate {} / s", limiter.getRate());
@@ -75,5 +259,119 @@ public class AbstractRateLimiter {
         return changed;
     }
 
+    /**
+     * The outcomes and latencies of the last calls
+     */
+    private static class OutcomeWindow {
+        private final boolean[] successes;
+        private final long[] latencies;
+        private int count = 0;
+        private int next = 0;
+
+        OutcomeWindow(int size) {
+            successes = new boolean[size];
+            latencies = new long[size];
+        }
+
+        int size() {
+            return successes.length;
+        }
+
+        void add(boolean success, Duration latency) {
+            successes[next] = success;
+            latencies[next] = latency == null ? -1 : latency.toNanos();
+            next = (next + 1) % successes.length;
+            count = Math.min(count + 1, successes.length);
+        }
 
+        int errors() {
+            int errors = 0;
+            for (int i = 0; i < count; i++) {
+                if (!successes[i]) {
+                    errors++;
+                }
+            }
+            return errors;
+        }
+
+        double errorRatio() {
+            return count == 0 ? 0 : (double) errors() / count;
+        }
+
+        /**
+         * @return The percentile of the known latencies, or {@code null} if there are too few
+         */
+        Duration percentile(double percentile) {
+            final long[] known = Arrays.stream(latencies, 0, count).filter(l -> l >= 0).sorted().toArray();
+            if (known.length < 10) {
+                return null;
+            }
+            return Duration.ofNanos(known[(int) Math.min(known.length - 1, Math.ceil(percentile * known.length) - 1)]);
+        }
+
+        void clear() {
+            count = 0;
+            next = 0;
+        }
+    }
+
+    /**
+     * Hands out slots at a certain rate. Like the {@code SmoothBursty} implementation of guava's {@code RateLimiter}, but a slot can be reserved without waiting for it, and it can be taken only if it is due (see {@link #acquire(CallPriority)}).
+     */
+    static class Slots {
+        /**
+         * At most this much idle time is saved up for bursts
+         */
+        private static final long MAX_BURST_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+        private double rate;
+        private long intervalNanos;
+        private long nextFree;
+
+        Slots(double rate) {
+            setRate(rate);
+            this.nextFree = System.nanoTime();
+        }
+
+        synchronized double getRate() {
+            return rate;
+        }
+
+        synchronized long getIntervalNanos() {
+            return intervalNanos;
+        }
+
+        /**
+         * Changes the rate. Slots that were already reserved are not affected.
+         */
+        synchronized void setRate(double rate) {
+            this.rate = rate;
+            this.intervalNanos = (long) (TimeUnit.SECONDS.toNanos(1) / rate);
+        }
+
+        /**
+         * Reserves the next free slot
+         * @return The number of nanoseconds until it is due
+         */
+        synchronized long reserve() {
+            final long now = System.nanoTime();
+            final long slot = Math.max(nextFree, now - MAX_BURST_NANOS);
+            nextFree = slot + intervalNanos;
+            return Math.max(0, slot - now);
+        }
+
+        /**
+         * Reserves the next free slot, if it is due now
+         * @return {@code 0} if reserved, otherwise the number of nanoseconds until it is due
+         */
+        synchronized long reserveIfDue() {
+            final long now = System.nanoTime();
+            final long slot = Math.max(nextFree, now - MAX_BURST_NANOS);
+            if (slot <= now) {
+                nextFree = slot + intervalNanos;
+                return 0;
+            }
+            return slot - now;
+        }
+    }
 }
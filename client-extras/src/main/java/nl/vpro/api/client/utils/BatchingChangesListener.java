@@ -0,0 +1,180 @@
+package nl.vpro.api.client.utils;
+
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.function.BiConsumer;
+
+import nl.vpro.domain.api.MediaChange;
+import nl.vpro.domain.api.MediaSince;
+
+/**
+ * Collects the changes it receives into batches, which are delivered to a delegate listener in a separate thread. The hand-off is a bounded queue, so if the delegate can't keep up, the producer (normally the thread parsing the changes feed) is blocked.
+ * <p>
+ * A batch is delivered when it reaches {@code batchSize}, or when its first change is older than {@code maxAge}. Together with a batch the position of its last change is given, which can be used as checkpoint. Tail changes (which only signal the current position of the feed) are not added to batches.
+ * <p>
+ * If the delegate fails, the same batch is delivered again (after {@code retryDelay}, which doubles every attempt), so the next batches, and hence their positions, are not delivered before it. After {@code maxAttempts} failures the listener gives up: {@link #getFailure()} is set, and {@link #accept(MediaSince, MediaChange)} throws an exception from then on. {@link #getDelivered()} is the position up to which all changes were delivered.
+ *
+ * @author Michiel Meeuwissen
+ * @since 8.15
+ * @see NpoApiMediaUtil#subscribeInBatches(ChangesFeedParameters, java.util.function.BooleanSupplier, int, Duration, BiConsumer)
+ */
+@Slf4j
+public class BatchingChangesListener implements BiConsumer<MediaSince, MediaChange>, AutoCloseable {
+
+    private record Entry(MediaSince since, MediaChange change) {
+    }
+
+    private static final Entry END = new Entry(null, null);
+
+    private final BiConsumer<MediaSince, List<MediaChange>> delegate;
+    @Getter
+    private final int batchSize;
+    @Getter
+    private final Duration maxAge;
+    @Getter
+    private final int maxAttempts;
+    @Getter
+    private final Duration retryDelay;
+    private final BlockingQueue<Entry> queue;
+    private final Thread consumer;
+
+    private volatile boolean closed = false;
+
+    /**
+     * The position of the last change that was delivered (or of the last tail change received while no changes were pending). {@code null} if nothing was delivered yet.
+     */
+    @Getter
+    private volatile MediaSince delivered;
+
+    /**
+     * If the delegate failed {@link #getMaxAttempts()} times for the same batch, the last exception it threw. Nothing is delivered anymore then.
+     */
+    @Getter
+    private volatile Exception failure;
+
+    @lombok.Builder
+    private BatchingChangesListener(
+        BiConsumer<MediaSince, List<MediaChange>> delegate,
+        Integer batchSize,
+        Duration maxAge,
+        Integer queueCapacity,
+        Integer maxAttempts,
+        Duration retryDelay) {
+        this.delegate = delegate;
+        this.batchSize = batchSize == null ? 100 : batchSize;
+        this.maxAge = maxAge == null ? Duration.ofSeconds(1) : maxAge;
+        this.maxAttempts = maxAttempts == null ? 5 : maxAttempts;
+        this.retryDelay = retryDelay == null ? Duration.ofSeconds(1) : retryDelay;
+        this.queue = new ArrayBlockingQueue<>(queueCapacity == null ? 4 * this.batchSize : queueCapacity);
+        this.consumer = Thread.ofVirtual()
+            .name("npo-api-changes-batches")
+            .start(this::consume);
+    }
+
+    @Override
+    public void accept(MediaSince since, MediaChange change) {
+        if (failure != null) {
+            throw new IllegalStateException(this + " failed: " + failure.getMessage(), failure);
+        }
+        if (closed) {
+            throw new IllegalStateException(this + " is closed");
+        }
+        try {
+            queue.put(new Entry(since, change));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Delivers the remaining changes, and waits until that is done.
+     */
+    @Override
+    public void close() throws InterruptedException {
+        if (!closed) {
+            closed = true;
+            // if the consumer gave up, it does not take from the queue anymore
+            while (consumer.isAlive() && !queue.offer(END, 100, TimeUnit.MILLISECONDS)) {
+                log.debug("Waiting for room to close {}", this);
+            }
+        }
+        consumer.join();
+    }
+
+    private void consume() {
+        final List<MediaChange> batch = new ArrayList<>(batchSize);
+        MediaSince since = null;
+        long deadline = Long.MAX_VALUE;
+        try {
+            while (true) {
+                final long timeout = deadline - System.nanoTime();
+                final Entry entry = batch.isEmpty() ? queue.take() : queue.poll(timeout, TimeUnit.NANOSECONDS);
+                if (entry == END) {
+                    break;
+                }
+                if (entry != null) {
+                    since = entry.since();
+                    if (entry.change().isTail()) {
+                        if (batch.isEmpty()) {
+                            delivered = since;
+                        }
+                    } else {
+                        if (batch.isEmpty()) {
+                            deadline = System.nanoTime() + maxAge.toNanos();
+                        }
+                        batch.add(entry.change());
+                    }
+                }
+                if (batch.size() >= batchSize || (!batch.isEmpty() && System.nanoTime() >= deadline)) {
+                    if (!deliver(since, batch)) {
+                        return;
+                    }
+                }
+            }
+            if (!batch.isEmpty()) {
+                deliver(since, batch);
+            }
+        } catch (InterruptedException e) {
+            log.info("Interrupted");
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Delivers the batch, retrying if the delegate fails.
+     * @return Whether the batch was delivered. If not, {@link #failure} is set, and the queue is cleared, so that producers waiting for room are released.
+     */
+    private boolean deliver(MediaSince since, List<MediaChange> batch) throws InterruptedException {
+        final List<MediaChange> copy = List.copyOf(batch);
+        Duration delay = retryDelay;
+        for (int attempt = 1; ; attempt++) {
+            try {
+                delegate.accept(since, copy);
+                delivered = since;
+                batch.clear();
+                return true;
+            } catch (Exception e) {
+                if (attempt >= maxAttempts) {
+                    log.error("Giving up delivering batch of {} changes until {} after {} attempts: {} {}", copy.size(), since, attempt, e.getClass().getName(), e.getMessage(), e);
+                    failure = e;
+                    queue.clear();
+                    return false;
+                }
+                log.warn("Error delivering batch of {} changes until {} (attempt {}), retrying after {}: {} {}", copy.size(), since, attempt, delay, e.getClass().getName(), e.getMessage());
+                Thread.sleep(delay.toMillis());
+                delay = delay.multipliedBy(2);
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + " (batch size: " + batchSize + ", max age: " + maxAge + ", queued: " + queue.size() + ")";
+    }
+}
@@ -0,0 +1,23 @@
+package nl.vpro.api.client.utils;
+
+/**
+ * How {@link NpoApiMediaUtil} keeps its cache coherent with the API, besides expiry of entries.
+ *
+ * @author Michiel Meeuwissen
+ * @since 8.15
+ * @see NpoApiMediaUtil#setCacheCoherence(CacheCoherence)
+ */
+public enum CacheCoherence {
+    /**
+     * Cached objects are only renewed after expiry
+     */
+    NONE,
+    /**
+     * Cached objects that appear in the changes feed are evicted, so they are loaded again on the next request
+     */
+    EVICT,
+    /**
+     * Cached objects that appear in the changes feed are reloaded in the background. Deleted objects are evicted.
+     */
+    REFRESH
+}
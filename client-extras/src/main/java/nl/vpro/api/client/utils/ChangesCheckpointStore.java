@@ -0,0 +1,24 @@
+package nl.vpro.api.client.utils;
+
+import java.util.Optional;
+
+import nl.vpro.domain.api.MediaSince;
+
+/**
+ * Persists the position of a subscription on the changes feed, so that after a restart, it can resume where it was.
+ *
+ * @author Michiel Meeuwissen
+ * @since 8.15
+ * @see ChangesCheckpointer
+ * @see FileChangesCheckpointStore
+ */
+public interface ChangesCheckpointStore {
+
+    /**
+     * @return The last stored position, or empty if nothing was stored yet
+     */
+    Optional<MediaSince> load();
+
+    void store(MediaSince since);
+
+}
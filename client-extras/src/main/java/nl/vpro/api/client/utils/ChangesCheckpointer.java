@@ -0,0 +1,84 @@
+package nl.vpro.api.client.utils;
+
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Objects;
+import java.util.Optional;
+
+import nl.vpro.domain.api.MediaSince;
+
+/**
+ * Writes positions in the changes feed to a {@link ChangesCheckpointStore}, but not every one of them. Only every {@code everyChanges} changes, or if the last write was {@code everyDuration} ago.
+ *
+ * @author Michiel Meeuwissen
+ * @since 8.15
+ */
+@Slf4j
+public class ChangesCheckpointer implements AutoCloseable {
+
+    @Getter
+    private final ChangesCheckpointStore store;
+    private final long everyChanges;
+    private final Duration everyDuration;
+
+    private MediaSince pending;
+    private long pendingCount = 0;
+    private Instant lastWrite = Instant.now();
+
+    @Getter
+    private MediaSince stored;
+
+    @lombok.Builder
+    private ChangesCheckpointer(ChangesCheckpointStore store, Long everyChanges, Duration everyDuration) {
+        this.store = Objects.requireNonNull(store);
+        this.everyChanges = everyChanges == null ? 1000 : everyChanges;
+        this.everyDuration = everyDuration == null ? Duration.ofSeconds(10) : everyDuration;
+    }
+
+    public Optional<MediaSince> load() {
+        return store.load();
+    }
+
+    /**
+     * Marks the given position as processed. It is stored if it is due.
+     */
+    public void checkpoint(MediaSince since) {
+        checkpoint(since, 1);
+    }
+
+    /**
+     * Marks the given position as processed, which was reached after {@code count} changes.
+     */
+    public synchronized void checkpoint(MediaSince since, long count) {
+        pending = since;
+        pendingCount += count;
+        if (pendingCount >= everyChanges || !Instant.now().isBefore(lastWrite.plus(everyDuration))) {
+            flush();
+        }
+    }
+
+    /**
+     * Stores the last position given to {@link #checkpoint(MediaSince)} if that didn't happen yet.
+     */
+    public synchronized void flush() {
+        if (pending != null && !pending.equals(stored)) {
+            store.store(pending);
+            stored = pending;
+        }
+        pendingCount = 0;
+        lastWrite = Instant.now();
+    }
+
+    @Override
+    public void close() {
+        flush();
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + " " + store + " " + stored;
+    }
+}
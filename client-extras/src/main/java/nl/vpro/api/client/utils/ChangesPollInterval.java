@@ -0,0 +1,74 @@
+package nl.vpro.api.client.utils;
+
+import lombok.Getter;
+
+import java.time.Duration;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Determines how long a subscription on the changes feed waits before polling again.
+ * <ul>
+ * <li>If the previous poll produced changes, there are probably more, so it polls again immediately</li>
+ * <li>If it was empty, it waits the base interval, which is doubled for every next empty poll, until the maximum.</li>
+ * <li>After errors it backs off exponentially too, but jittered, to avoid that many clients retry at the same moment</li>
+ * </ul>
+ * @author Michiel Meeuwissen
+ * @since 8.15
+ */
+public class ChangesPollInterval {
+
+    @Getter
+    private final Duration base;
+    @Getter
+    private final Duration max;
+
+    private int emptyPolls = 0;
+    private int errors = 0;
+
+    @Getter
+    private volatile Duration current = Duration.ZERO;
+
+    public ChangesPollInterval(Duration base, Duration max) {
+        this.base = base;
+        this.max = max.compareTo(base) < 0 ? base : max;
+    }
+
+    /**
+     * @param count The number of (non tail) changes the last poll produced
+     * @return The time to wait before the next poll
+     */
+    public synchronized Duration afterPoll(long count) {
+        errors = 0;
+        if (count > 0) {
+            emptyPolls = 0;
+            current = Duration.ZERO;
+        } else {
+            current = backoff(emptyPolls++);
+        }
+        return current;
+    }
+
+    /**
+     * @return The time to wait before the next poll, after the last poll failed
+     */
+    public synchronized Duration afterError() {
+        emptyPolls = 0;
+        Duration backoff = backoff(errors++);
+        long millis = backoff.toMillis();
+        current = Duration.ofMillis(millis / 2 + ThreadLocalRandom.current().nextLong(millis / 2 + 1));
+        return current;
+    }
+
+    private Duration backoff(int exponent) {
+        if (exponent >= 30) {
+            return max;
+        }
+        Duration result = base.multipliedBy(1L << exponent);
+        return result.compareTo(max) > 0 ? max : result;
+    }
+
+    @Override
+    public String toString() {
+        return "poll interval " + current + " (" + base + " - " + max + ")";
+    }
+}
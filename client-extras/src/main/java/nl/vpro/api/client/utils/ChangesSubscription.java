@@ -0,0 +1,209 @@
+package nl.vpro.api.client.utils;
+
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BooleanSupplier;
+import java.util.function.Supplier;
+
+import nl.vpro.domain.api.MediaSince;
+
+/**
+ * Handle to a running subscription on the changes feed (see {@link NpoApiMediaUtil#subscribe(ChangesFeedParameters, BooleanSupplier, java.util.function.BiConsumer)}). It can be used to inspect, pause, resume and stop it.
+ *
+ * @author Michiel Meeuwissen
+ * @since 8.15
+ */
+@Slf4j
+public class ChangesSubscription {
+
+    public enum State {
+        SCHEDULED,
+        RUNNING,
+        PAUSED,
+        STOPPING,
+        STOPPED
+    }
+
+    @Getter
+    private final ChangesFeedParameters parameters;
+
+    @Getter
+    private final Instant created = Instant.now();
+
+    @Getter
+    private final CompletableFuture<MediaSince> future = new CompletableFuture<>();
+
+    @Getter
+    private final ChangesPollInterval pollInterval;
+
+    private final Object monitor;
+    private final AtomicLong count = new AtomicLong();
+
+    private volatile boolean started = false;
+    private volatile boolean paused = false;
+    private volatile boolean stopRequested = false;
+    private volatile MediaSince mediaSince;
+    private volatile Supplier<MediaSince> committed;
+    private volatile Duration lag;
+
+    /**
+     * @param monitor The object on which the subscription waits between polls. Notifying it, wakes up the subscription.
+     */
+    ChangesSubscription(ChangesFeedParameters parameters, Object monitor, ChangesPollInterval pollInterval) {
+        this.parameters = parameters;
+        this.monitor = monitor;
+        this.pollInterval = pollInterval;
+        this.mediaSince = parameters.getMediaSince();
+        this.future.whenComplete((r, t) -> {
+            if (future.isCancelled()) {
+                stop();
+            }
+        });
+    }
+
+    /**
+     * Requests the subscription to stop. It will stop after the change it is currently handling.
+     */
+    public void stop() {
+        stopRequested = true;
+        wakeUp();
+    }
+
+    /**
+     * Pauses the subscription after the change it is currently handling. The connection to the changes feed is closed meanwhile.
+     */
+    public void pause() {
+        paused = true;
+    }
+
+    public void resume() {
+        paused = false;
+        wakeUp();
+    }
+
+    /**
+     * If the subscription is waiting for the next poll, make it poll now.
+     */
+    public void wakeUp() {
+        synchronized (monitor) {
+            monitor.notifyAll();
+        }
+    }
+
+    public boolean isPaused() {
+        return paused && !future.isDone();
+    }
+
+    public boolean isStopped() {
+        return future.isDone();
+    }
+
+    public State getState() {
+        if (future.isDone()) {
+            return State.STOPPED;
+        }
+        if (stopRequested) {
+            return State.STOPPING;
+        }
+        if (paused) {
+            return State.PAUSED;
+        }
+        return started ? State.RUNNING : State.SCHEDULED;
+    }
+
+    /**
+     * The position up to which all changes were handled. For subscriptions that hand the changes over to other threads (like {@link NpoApiMediaUtil#subscribeInBatches(ChangesFeedParameters, BooleanSupplier, int, Duration, java.util.function.BiConsumer)} and {@link NpoApiMediaUtil#subscribeInParallel(ChangesFeedParameters, BooleanSupplier, int, java.util.function.BiConsumer, ChangesCheckpointer)}), this may be behind {@link #getReceived()}.
+     */
+    public MediaSince getMediaSince() {
+        final Supplier<MediaSince> c = committed;
+        if (c == null) {
+            return mediaSince;
+        }
+        final MediaSince result = c.get();
+        return result == null ? parameters.getMediaSince() : result;
+    }
+
+    /**
+     * The position of the last change that was received from the feed
+     */
+    public MediaSince getReceived() {
+        return mediaSince;
+    }
+
+    /**
+     * The time between the publication of the last handled change, and the moment it was handled. {@code null} if no change was handled yet.
+     */
+    public Duration getLag() {
+        return lag;
+    }
+
+    /**
+     * The time the subscription currently waits between polls of the feed
+     */
+    public Duration getCurrentPollInterval() {
+        return pollInterval.getCurrent();
+    }
+
+    /**
+     * The number of changes that were received
+     */
+    public long getCount() {
+        return count.get();
+    }
+
+    boolean shouldContinue(BooleanSupplier doWhile) {
+        return !stopRequested && !Thread.currentThread().isInterrupted() && doWhile.getAsBoolean();
+    }
+
+    boolean shouldInterruptFeed() {
+        return stopRequested || paused || Thread.currentThread().isInterrupted();
+    }
+
+    /**
+     * Makes {@link #getMediaSince()} report the position given by the supplier (if it is not {@code null}), rather than the position of the last received change
+     */
+    void committedBy(Supplier<MediaSince> committed) {
+        this.committed = committed;
+    }
+
+    void started() {
+        started = true;
+    }
+
+    void handled(MediaSince since) {
+        mediaSince = since;
+        if (since.getInstant() != null) {
+            lag = Duration.between(since.getInstant(), Instant.now());
+        }
+        count.incrementAndGet();
+    }
+
+    void awaitResumed() throws InterruptedException {
+        synchronized (monitor) {
+            while (paused && !stopRequested) {
+                log.debug("{} paused", this);
+                monitor.wait(1000);
+            }
+        }
+    }
+
+    void await(Duration duration) throws InterruptedException {
+        long millis = duration.toMillis();
+        if (millis <= 0 || stopRequested) {
+            return;
+        }
+        synchronized (monitor) {
+            monitor.wait(millis);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "subscription " + (parameters.getProfile() == null ? "" : parameters.getProfile() + " ") + getState() + " " + mediaSince + " (" + count + ", lag: " + lag + ")";
+    }
+}
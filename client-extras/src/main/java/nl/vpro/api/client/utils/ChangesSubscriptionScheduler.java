@@ -0,0 +1,75 @@
+package nl.vpro.api.client.utils;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.Function;
+
+import nl.vpro.domain.api.MediaSince;
+
+/**
+ * Runs subscriptions on the changes feed. By default every subscription gets its own virtual thread, so any number of subscriptions can run concurrently without occupying a platform thread each.
+ *
+ * @author Michiel Meeuwissen
+ * @since 8.15
+ */
+@Slf4j
+public class ChangesSubscriptionScheduler implements AutoCloseable {
+
+    private final ExecutorService executor;
+
+    private final Set<ChangesSubscription> subscriptions = ConcurrentHashMap.newKeySet();
+
+    public ChangesSubscriptionScheduler() {
+        this(Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("npo-api-changes-", 0).factory()));
+    }
+
+    /**
+     * @param executor The executor to run the subscriptions in. Note that a subscription occupies a thread of it as long as it runs.
+     */
+    public ChangesSubscriptionScheduler(ExecutorService executor) {
+        this.executor = executor;
+    }
+
+    /**
+     * Schedules the given loop for the subscription. The result of the loop completes {@link ChangesSubscription#getFuture()}.
+     */
+    ChangesSubscription schedule(ChangesSubscription subscription, Function<ChangesSubscription, MediaSince> loop) {
+        subscriptions.add(subscription);
+        executor.execute(() -> {
+            subscription.started();
+            try {
+                subscription.getFuture().complete(loop.apply(subscription));
+            } catch (Throwable t) {
+                log.warn("{}: {} {}", subscription, t.getClass().getName(), t.getMessage());
+                subscription.getFuture().completeExceptionally(t);
+            } finally {
+                subscriptions.remove(subscription);
+            }
+        });
+        return subscription;
+    }
+
+    /**
+     * The currently active subscriptions
+     */
+    public Collection<ChangesSubscription> getSubscriptions() {
+        return Collections.unmodifiableCollection(new ArrayList<>(subscriptions));
+    }
+
+    public void stopAll() {
+        subscriptions.forEach(ChangesSubscription::stop);
+    }
+
+    @Override
+    public void close() {
+        stopAll();
+        executor.shutdown();
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + " " + subscriptions;
+    }
+}
@@ -0,0 +1,206 @@
+package nl.vpro.api.client.utils;
+
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import nl.vpro.domain.media.MediaObject;
+
+/**
+ * Collects concurrent requests for single media objects, and loads them in one call (e.g. via {@link MediaRestClientUtils#load(nl.vpro.api.rs.v3.media.MediaRestService, String...)}).
+ * <p>
+ * A batch is sent when the first request in it is older than {@link #getWindow() window}, or when it contains {@link #getMaxBatchSize() maxBatchSize} mids, whatever happens first. Requests for a mid which is already in flight are joined with the existing request.
+ *
+ * @author Michiel Meeuwissen
+ * @since 8.15
+ */
+@Slf4j
+public class CoalescingMediaLoader implements AutoCloseable {
+
+    private static final ScheduledExecutorService TIMER = Executors.newSingleThreadScheduledExecutor(
+        new ThreadFactoryBuilder()
+            .setNameFormat("npo-api-coalescing-timer-%d")
+            .setDaemon(true)
+            .build()
+    );
+
+    private final Function<String[], MediaObject[]> batchLoader;
+
+    @Getter
+    private final Duration window;
+    @Getter
+    private final int maxBatchSize;
+
+    private final ExecutorService executor;
+
+    private final Object lock = new Object();
+    private final Map<String, CompletableFuture<Optional<MediaObject>>> inFlight = new HashMap<>();
+    private Map<String, CompletableFuture<Optional<MediaObject>>> pending = new LinkedHashMap<>();
+    private ScheduledFuture<?> scheduledFlush;
+    private boolean closed = false;
+
+    private final AtomicLong requestCount = new AtomicLong();
+    private final AtomicLong deduplicatedCount = new AtomicLong();
+    private final AtomicLong batchCount = new AtomicLong();
+
+    @lombok.Builder
+    private CoalescingMediaLoader(
+        Function<String[], MediaObject[]> batchLoader,
+        Duration window,
+        Integer maxBatchSize,
+        ExecutorService executor) {
+        this.batchLoader = Objects.requireNonNull(batchLoader);
+        this.window = window == null ? Duration.ofMillis(10) : window;
+        this.maxBatchSize = maxBatchSize == null ? 240 : maxBatchSize;
+        this.executor = executor == null ? Executors.newVirtualThreadPerTaskExecutor() : executor;
+    }
+
+    /**
+     * Requests the media object with given mid. The returned future completes when the batch containing it is loaded.
+     * <p>
+     * If the loader is {@link #close() closed} already, the object is loaded directly (in the current thread).
+     */
+    public CompletableFuture<Optional<MediaObject>> submit(String mid) {
+        requestCount.incrementAndGet();
+        final Map<String, CompletableFuture<Optional<MediaObject>>> full;
+        final CompletableFuture<Optional<MediaObject>> future;
+        synchronized (lock) {
+            if (closed) {
+                full = null;
+                future = null;
+            } else {
+                CompletableFuture<Optional<MediaObject>> existing = inFlight.get(mid);
+                if (existing != null) {
+                    deduplicatedCount.incrementAndGet();
+                    log.debug("Joining in flight request for {}", mid);
+                    return existing;
+                }
+                future = new CompletableFuture<>();
+                inFlight.put(mid, future);
+                pending.put(mid, future);
+                if (pending.size() >= maxBatchSize) {
+                    full = takePending();
+                } else {
+                    full = null;
+                    if (scheduledFlush == null) {
+                        scheduledFlush = TIMER.schedule(this::flush, window.toNanos(), TimeUnit.NANOSECONDS);
+                    }
+                }
+            }
+        }
+        if (future == null) {
+            // e.g. the loader was replaced while this call was starting
+            log.debug("{} is closed, loading {} directly", this, mid);
+            return loadDirectly(mid);
+        }
+        if (full != null) {
+            execute(full);
+        }
+        return future;
+    }
+
+    /**
+     * Like {@link #submit(String)}, but waits for the result.
+     */
+    public Optional<MediaObject> get(String mid) throws ExecutionException, InterruptedException {
+        return submit(mid).get();
+    }
+
+    /**
+     * Sends the currently pending requests, without waiting for the window to pass.
+     */
+    public void flush() {
+        final Map<String, CompletableFuture<Optional<MediaObject>>> batch;
+        synchronized (lock) {
+            batch = takePending();
+        }
+        if (!batch.isEmpty()) {
+            execute(batch);
+        }
+    }
+
+    public long getRequestCount() {
+        return requestCount.get();
+    }
+
+    public long getDeduplicatedCount() {
+        return deduplicatedCount.get();
+    }
+
+    public long getBatchCount() {
+        return batchCount.get();
+    }
+
+    /**
+     * Sends the pending requests, and stops coalescing. Requests which are submitted after this are loaded directly.
+     */
+    @Override
+    public void close() {
+        synchronized (lock) {
+            closed = true;
+        }
+        flush();
+        executor.shutdown();
+    }
+
+    private Map<String, CompletableFuture<Optional<MediaObject>>> takePending() {
+        Map<String, CompletableFuture<Optional<MediaObject>>> result = pending;
+        pending = new LinkedHashMap<>();
+        if (scheduledFlush != null) {
+            scheduledFlush.cancel(false);
+            scheduledFlush = null;
+        }
+        return result;
+    }
+
+    private void execute(Map<String, CompletableFuture<Optional<MediaObject>>> batch) {
+        try {
+            executor.execute(() -> load(batch));
+        } catch (RejectedExecutionException ree) {
+            log.warn("Could not load {} coalesced mids: {}", batch.size(), ree.getMessage());
+            synchronized (lock) {
+                batch.forEach(inFlight::remove);
+            }
+            batch.values().forEach(f -> f.completeExceptionally(ree));
+        }
+    }
+
+    private CompletableFuture<Optional<MediaObject>> loadDirectly(String mid) {
+        try {
+            final MediaObject[] result = batchLoader.apply(new String[] {mid});
+            return CompletableFuture.completedFuture(Optional.ofNullable(result.length > 0 ? result[0] : null));
+        } catch (Throwable t) {
+            return CompletableFuture.failedFuture(t);
+        }
+    }
+
+    private void load(Map<String, CompletableFuture<Optional<MediaObject>>> batch) {
+        final String[] mids = batch.keySet().toArray(new String[0]);
+        batchCount.incrementAndGet();
+        log.debug("Loading {} coalesced mids", mids.length);
+        try {
+            MediaObject[] result = batchLoader.apply(mids);
+            for (int i = 0; i < mids.length; i++) {
+                batch.get(mids[i]).complete(Optional.ofNullable(i < result.length ? result[i] : null));
+            }
+        } catch (Throwable t) {
+            batch.values().forEach(f -> f.completeExceptionally(t));
+        } finally {
+            synchronized (lock) {
+                batch.forEach(inFlight::remove);
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "coalescing loader (window: " + window + ", max batch size: " + maxBatchSize + ")";
+    }
+}
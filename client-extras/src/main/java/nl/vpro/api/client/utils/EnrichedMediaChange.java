@@ -0,0 +1,17 @@
+package nl.vpro.api.client.utils;
+
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+import nl.vpro.domain.api.MediaChange;
+import nl.vpro.domain.media.MediaObject;
+
+/**
+ * A {@link MediaChange} together with the current version of the {@link MediaObject} it is about.
+ *
+ * @param mediaObject The media object, or {@code null} if the change is a deletion or a tail, or if the object could not be found (anymore)
+ * @author Michiel Meeuwissen
+ * @since 8.15
+ * @see EnrichingChangesIterator
+ */
+public record EnrichedMediaChange(MediaChange change, @Nullable MediaObject mediaObject) {
+}
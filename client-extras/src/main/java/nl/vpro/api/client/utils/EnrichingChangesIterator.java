@@ -0,0 +1,124 @@
+package nl.vpro.api.client.utils;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.*;
+import java.util.function.Function;
+
+import org.checkerframework.checker.nullness.qual.NonNull;
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+import nl.vpro.domain.api.MediaChange;
+import nl.vpro.domain.media.MediaObject;
+import nl.vpro.util.CountedIterator;
+
+/**
+ * Wraps an iterator of {@link MediaChange}s, and adds the current {@link MediaObject} to every change. Instead of loading the objects one by one, the upcoming changes are read ahead in windows of {@code batchSize}, and the media objects of all of them are loaded with one call.
+ * <p>
+ * Deletions and tail changes are not loaded.
+ *
+ * @author Michiel Meeuwissen
+ * @since 8.15
+ * @see NpoApiMediaUtil#enrich(Iterator)
+ */
+@Slf4j
+public class EnrichingChangesIterator implements CountedIterator<EnrichedMediaChange> {
+
+    private final Iterator<MediaChange> changes;
+    private final Function<String[], MediaObject[]> loader;
+    private final int batchSize;
+
+    private final Deque<EnrichedMediaChange> window = new ArrayDeque<>();
+    private long count = 0;
+    private long batches = 0;
+
+    /**
+     * @param loader Loads the media objects for the given mids, in the same order (like {@link NpoApiMediaUtil#load(String...)})
+     */
+    @lombok.Builder
+    private EnrichingChangesIterator(
+        @NonNull Iterator<MediaChange> changes,
+        @NonNull Function<String[], MediaObject[]> loader,
+        @Nullable Integer batchSize) {
+        this.changes = changes;
+        this.loader = loader;
+        this.batchSize = batchSize == null ? 240 : batchSize;
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (window.isEmpty()) {
+            fill();
+        }
+        return !window.isEmpty();
+    }
+
+    @Override
+    public EnrichedMediaChange next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        count++;
+        return window.removeFirst();
+    }
+
+    @Override
+    public @NonNull Long getCount() {
+        return count;
+    }
+
+    @Override
+    public Optional<Long> getTotalSize() {
+        return changes instanceof CountedIterator<?> counted ? counted.getTotalSize() : Optional.empty();
+    }
+
+    /**
+     * The number of calls that were done to load media objects
+     */
+    public long getBatches() {
+        return batches;
+    }
+
+    @Override
+    public void close() throws Exception {
+        if (changes instanceof AutoCloseable closeable) {
+            closeable.close();
+        }
+    }
+
+    private void fill() {
+        final List<MediaChange> read = new ArrayList<>(batchSize);
+        final Set<String> mids = new LinkedHashSet<>();
+        while (read.size() < batchSize && changes.hasNext()) {
+            final MediaChange change = changes.next();
+            read.add(change);
+            if (needsLoad(change)) {
+                mids.add(change.getMid());
+            }
+        }
+        final Map<String, MediaObject> loaded = new HashMap<>();
+        if (!mids.isEmpty()) {
+            final String[] array = mids.toArray(new String[0]);
+            final MediaObject[] objects = loader.apply(array);
+            batches++;
+            for (int i = 0; i < array.length; i++) {
+                if (objects[i] != null) {
+                    loaded.put(array[i], objects[i]);
+                }
+            }
+            log.debug("Loaded {} media objects for {} changes", array.length, read.size());
+        }
+        for (MediaChange change : read) {
+            window.addLast(new EnrichedMediaChange(change, needsLoad(change) ? loaded.get(change.getMid()) : null));
+        }
+    }
+
+    private static boolean needsLoad(MediaChange change) {
+        return !change.isTail() && change.getMid() != null && !Boolean.TRUE.equals(change.isDeleted());
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + " (batch size: " + batchSize + ", count: " + count + ", batches: " + batches + ")";
+    }
+}
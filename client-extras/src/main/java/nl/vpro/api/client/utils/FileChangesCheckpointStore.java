@@ -0,0 +1,90 @@
+package nl.vpro.api.client.utils;
+
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.*;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.time.Instant;
+import java.util.Optional;
+import java.util.Properties;
+
+import nl.vpro.domain.api.MediaSince;
+
+/**
+ * {@link ChangesCheckpointStore} in a local (properties) file. The new contents are synced to disk, and then the file is replaced atomically, so that a crash while writing leaves the previous checkpoint intact.
+ *
+ * @author Michiel Meeuwissen
+ * @since 8.15
+ */
+@Slf4j
+public class FileChangesCheckpointStore implements ChangesCheckpointStore {
+
+    private static final String SINCE = "since";
+    private static final String MID = "mid";
+
+    @Getter
+    private final Path path;
+
+    public FileChangesCheckpointStore(Path path) {
+        this.path = path;
+    }
+
+    @Override
+    public Optional<MediaSince> load() {
+        if (!Files.isRegularFile(path)) {
+            log.info("No checkpoint found at {}", path);
+            return Optional.empty();
+        }
+        final Properties properties = new Properties();
+        try (InputStream inputStream = Files.newInputStream(path)) {
+            properties.load(inputStream);
+        } catch (IOException ioe) {
+            throw new UncheckedIOException(ioe);
+        }
+        final String since = properties.getProperty(SINCE);
+        if (since == null) {
+            log.warn("No {} found in {}", SINCE, path);
+            return Optional.empty();
+        }
+        final MediaSince result = MediaSince.of(Instant.parse(since), properties.getProperty(MID));
+        log.info("Found checkpoint {} at {}", result, path);
+        return Optional.of(result);
+    }
+
+    @Override
+    public void store(MediaSince since) {
+        final Properties properties = new Properties();
+        if (since.getInstant() != null) {
+            properties.setProperty(SINCE, since.getInstant().toString());
+        }
+        if (since.getMid() != null) {
+            properties.setProperty(MID, since.getMid());
+        }
+        try {
+            final Path parent = path.toAbsolutePath().getParent();
+            Files.createDirectories(parent);
+            final Path temp = Files.createTempFile(parent, path.getFileName().toString(), ".tmp");
+            try {
+                try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                    properties.store(Channels.newOutputStream(channel), "checkpoint of changes feed");
+                    // the contents must be on disk before the rename is, otherwise a crash may leave an empty checkpoint
+                    channel.force(true);
+                }
+                Files.move(temp, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } finally {
+                Files.deleteIfExists(temp);
+            }
+            log.debug("Stored {} to {}", since, path);
+        } catch (IOException ioe) {
+            throw new UncheckedIOException(ioe);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + " " + path;
+    }
+}
@@ -0,0 +1,105 @@
+package nl.vpro.api.client.utils;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.time.Instant;
+import java.util.*;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+
+import nl.vpro.domain.api.MediaSince;
+import nl.vpro.domain.media.MediaObject;
+import nl.vpro.jackson2.Jackson2Mapper;
+
+/**
+ * A snapshot of the cache of {@link NpoApiMediaUtil}, which can be written to a file on shutdown, and used to warm up the cache on startup.
+ * <p>
+ * The file is a gzipped text file. The first line contains the position in the changes feed from which on changes are not reflected in the snapshot. Every next line contains a mid, optionally followed by a tab and the JSON of the media object.
+ *
+ * @param since   Changes after this position are not reflected in the snapshot
+ * @param entries The cached mids, with their media object if the snapshot contains values (otherwise {@code null})
+ * @author Michiel Meeuwissen
+ * @since 8.15
+ * @see NpoApiMediaUtil#saveSnapshot(Path, boolean)
+ * @see NpoApiMediaUtil#loadSnapshot(Path)
+ */
+@Slf4j
+public record MediaCacheSnapshot(MediaSince since, Map<String, @Nullable MediaObject> entries) {
+
+    private static final ObjectWriter WRITER = Jackson2Mapper.getInstance().writerFor(MediaObject.class);
+    private static final ObjectReader READER = Jackson2Mapper.getInstance().readerFor(MediaObject.class);
+
+    public void write(Path file) throws IOException {
+        final Path parent = file.toAbsolutePath().getParent();
+        Files.createDirectories(parent);
+        final Path temp = Files.createTempFile(parent, file.getFileName().toString(), ".tmp");
+        try {
+            try (Writer writer = new BufferedWriter(new OutputStreamWriter(new GZIPOutputStream(Files.newOutputStream(temp)), StandardCharsets.UTF_8))) {
+                writer.write(since.getInstant() == null ? "" : since.getInstant().toString());
+                if (since.getMid() != null) {
+                    writer.write('\t');
+                    writer.write(since.getMid());
+                }
+                writer.write('\n');
+                for (Map.Entry<String, MediaObject> e : entries.entrySet()) {
+                    writer.write(e.getKey());
+                    if (e.getValue() != null) {
+                        writer.write('\t');
+                        // the JSON of jackson contains no new lines (those in strings are escaped)
+                        writer.write(WRITER.writeValueAsString(e.getValue()));
+                    }
+                    writer.write('\n');
+                }
+            }
+            Files.move(temp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+        log.info("Wrote {} entries to {}", entries.size(), file);
+    }
+
+    public static Optional<MediaCacheSnapshot> read(Path file) throws IOException {
+        if (!Files.isRegularFile(file)) {
+            log.info("No cache snapshot at {}", file);
+            return Optional.empty();
+        }
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(new GZIPInputStream(Files.newInputStream(file)), StandardCharsets.UTF_8))) {
+            final String header = reader.readLine();
+            if (header == null) {
+                return Optional.empty();
+            }
+            final String[] since = header.split("\t", 2);
+            final MediaSince mediaSince = MediaSince.of(
+                since[0].isEmpty() ? null : Instant.parse(since[0]),
+                since.length > 1 ? since[1] : null
+            );
+            final Map<String, MediaObject> entries = new LinkedHashMap<>();
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.isEmpty()) {
+                    continue;
+                }
+                final String[] split = line.split("\t", 2);
+                MediaObject value = null;
+                if (split.length > 1) {
+                    try {
+                        value = READER.readValue(split[1]);
+                    } catch (IOException e) {
+                        log.warn("Could not parse {} from {}: {}", split[0], file, e.getMessage());
+                    }
+                }
+                entries.put(split[0], value);
+            }
+            log.info("Read {} entries (since {}) from {}", entries.size(), mediaSince, file);
+            return Optional.of(new MediaCacheSnapshot(mediaSince, entries));
+        }
+    }
+}
@@ -0,0 +1,141 @@
+package nl.vpro.api.client.utils;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.checkerframework.checker.nullness.qual.NonNull;
+
+import com.google.common.cache.*;
+import com.google.common.io.ByteStreams;
+import com.google.common.io.CountingOutputStream;
+
+import nl.vpro.domain.media.MediaObject;
+import nl.vpro.jackson2.Jackson2Mapper;
+
+/**
+ * Estimates the memory used by cached {@link MediaObject}s, so that a cache can be bounded in bytes rather than in number of entries.
+ * <p>
+ * The estimate is based on the size of the JSON representation, which is roughly proportional to the retained size of the object graph. Serializing every object that is put in the cache would be too expensive though, so only a sample of the objects is measured (all of the first {@link #SAMPLE_WARMUP}, and after that one in every {@code sampleInterval}). The other objects are weighed by the average of the measured ones. That makes the weight of a single entry less accurate, but the total weight of a large cache is still a good estimate.
+ * <p>
+ * Since guava does not expose the total weight of a cache, it is kept track of here too. For that this must also be registered as {@link RemovalListener} of the cache. Weights are tracked per key, guava notifies removals of the values of one key in the order in which they were weighed.
+ *
+ * @author Michiel Meeuwissen
+ * @since 8.15
+ */
+@Slf4j
+public class MediaObjectWeigher implements Weigher<String, Optional<? extends MediaObject>>, RemovalListener<String, Optional<? extends MediaObject>> {
+
+    /**
+     * Java objects (mostly strings in UTF-16, plus object headers and references) take more memory than their JSON. This is a rough factor between the two.
+     */
+    static final int HEAP_FACTOR = 2;
+
+    /**
+     * The weight of a cached miss (the key, and the empty optional)
+     */
+    static final int EMPTY_WEIGHT = 64;
+
+    /**
+     * The number of objects that are all measured, before starting to sample.
+     */
+    static final int SAMPLE_WARMUP = 100;
+
+    static final int DEFAULT_SAMPLE_INTERVAL = 16;
+
+    private final int sampleInterval;
+    private final AtomicLong weighed = new AtomicLong();
+    private final AtomicLong sampledWeight = new AtomicLong();
+    private final AtomicLong sampled = new AtomicLong();
+
+    private final Map<String, Deque<Integer>> weights = new ConcurrentHashMap<>();
+    private final AtomicLong totalWeight = new AtomicLong();
+
+    public MediaObjectWeigher() {
+        this(DEFAULT_SAMPLE_INTERVAL);
+    }
+
+    /**
+     * @param sampleInterval After the warmup only one in this many objects is measured. {@code 1} measures every object.
+     */
+    public MediaObjectWeigher(int sampleInterval) {
+        if (sampleInterval < 1) {
+            throw new IllegalArgumentException("Sample interval must be positive, but is " + sampleInterval);
+        }
+        this.sampleInterval = sampleInterval;
+    }
+
+    @Override
+    public int weigh(@NonNull String key, @NonNull Optional<? extends MediaObject> value) {
+        final int weight = value.isEmpty() ? EMPTY_WEIGHT : weigh(value.get());
+        weights.compute(key, (k, queue) -> {
+            final Deque<Integer> result = queue == null ? new ArrayDeque<>(2) : queue;
+            result.addLast(weight);
+            return result;
+        });
+        totalWeight.addAndGet(weight);
+        return weight;
+    }
+
+    @Override
+    public void onRemoval(@NonNull RemovalNotification<String, Optional<? extends MediaObject>> notification) {
+        final String key = notification.getKey();
+        if (key == null) {
+            return;
+        }
+        weights.computeIfPresent(key, (k, queue) -> {
+            final Integer weight = queue.pollFirst();
+            if (weight != null) {
+                totalWeight.addAndGet(-weight);
+            }
+            return queue.isEmpty() ? null : queue;
+        });
+    }
+
+    private int weigh(MediaObject mediaObject) {
+        final long count = weighed.getAndIncrement();
+        if (count < SAMPLE_WARMUP || count % sampleInterval == 0) {
+            final int weight = estimate(mediaObject);
+            sampledWeight.addAndGet(weight);
+            sampled.incrementAndGet();
+            return weight;
+        }
+        return getAverageWeight();
+    }
+
+    /**
+     * The average weight of the objects that were measured.
+     */
+    public int getAverageWeight() {
+        final long count = sampled.get();
+        return count == 0 ? EMPTY_WEIGHT : (int) (sampledWeight.get() / count);
+    }
+
+    /**
+     * The sum of the weights of the entries currently in the cache
+     */
+    public long getTotalWeight() {
+        return totalWeight.get();
+    }
+
+    /**
+     * Estimates the number of bytes the given media object occupies on the heap. This serializes the object, so is relatively expensive.
+     */
+    public static int estimate(MediaObject mediaObject) {
+        try (CountingOutputStream counting = new CountingOutputStream(ByteStreams.nullOutputStream())) {
+            Jackson2Mapper.getInstance().writer().writeValue(counting, mediaObject);
+            return (int) Math.min(Integer.MAX_VALUE, HEAP_FACTOR * counting.getCount());
+        } catch (IOException e) {
+            log.warn("Could not estimate size of {}: {} {}", mediaObject, e.getClass().getName(), e.getMessage());
+            return EMPTY_WEIGHT;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + " (total weight: " + getTotalWeight() + ")";
+    }
+}
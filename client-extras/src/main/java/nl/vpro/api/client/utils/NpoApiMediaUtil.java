@@ -10,18 +10,32 @@ import lombok.Setter;
 import lombok.extern.slf4j.Slf4j;
 
 import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.management.ManagementFactory;
 import java.net.ConnectException;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.time.Duration;
 import java.time.Instant;
 import java.util.*;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.*;
 
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
 import org.checkerframework.checker.nullness.qual.NonNull;
 import org.checkerframework.checker.nullness.qual.Nullable;
 import org.meeuw.functional.Consumers;
 
 import com.google.common.cache.*;
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListenableFutureTask;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.google.common.util.concurrent.UncheckedExecutionException;
 
 import nl.vpro.api.client.frontend.NpoApiClients;
@@ -52,11 +66,13 @@ import static nl.vpro.domain.api.Result.Total.equalsTo;
  */
 @Named
 @Slf4j
-public class NpoApiMediaUtil implements MediaProvider {
-
-
-    protected static ExecutorService EXECUTOR_SERVICE = Executors.newFixedThreadPool(1);
+public class NpoApiMediaUtil implements MediaProvider, NpoApiMediaUtilMXBean, AutoCloseable {
 
+    /**
+     * @deprecated Not used anymore. Subscriptions on the changes feed are run by the {@link #getSubscriptionScheduler() subscription scheduler}, which can be constructed with any executor (see {@link ChangesSubscriptionScheduler#ChangesSubscriptionScheduler(ExecutorService)}). This is now just the common pool, so no thread pool is created for it.
+     */
+    @Deprecated(since = "8.15", forRemoval = true)
+    protected static final ExecutorService EXECUTOR_SERVICE = ForkJoinPool.commonPool();
 
     final NpoApiClients clients;
     final NpoApiRateLimiter limiter;
@@ -64,17 +80,113 @@ public class NpoApiMediaUtil implements MediaProvider {
     // TODO arrange caching via ehcache (ehcache4guice or something)
 
     private int cacheSize = 500;
+    /**
+     * If positive, the cache is bounded by the estimated number of bytes of the cached objects, rather than by {@link #cacheSize}
+     */
+    private long cacheMaxWeight = -1;
+    private MediaObjectWeigher weigher = null;
     private Duration cacheTTL = Duration.ofMinutes(5);
 
 
     private boolean iterateLogProgress = true;
 
+    /**
+     * If set, the cache is saved to this file on {@link #close()}, and warmed up from it when it is set (see {@link #saveSnapshot(Path, boolean)})
+     */
+    @Getter
+    private Path snapshotFile = null;
+
+    /**
+     * Whether the snapshot file contains the cached objects too, or only their mids
+     */
+    @Getter
+    @Setter
+    private boolean snapshotValues = true;
+
+    /**
+     * If set, cache misses of {@link #loadOrNull(String)} are collected during this time, and loaded in one call
+     */
+    @Getter
+    private Duration coalescingWindow = null;
+    @Getter
+    private int coalescingMaxBatchSize = 240;
+
+    private CoalescingMediaLoader coalescingLoader = null;
+
+    /**
+     * If set, cache entries older than this are still served, but reloaded in the background (by {@link #refreshExecutor}). Should be shorter than the cache expiry, which then is the maximal age of served entries. If reloading fails (e.g. because the API is down), the old entry stays available until that expiry. If the refresh executor is saturated, the refresh is skipped, and the old entry is served for another period of this duration (see {@link #getCacheRefreshesRejected()}).
+     */
+    @Getter
+    private Duration cacheRefreshAfter = null;
+
+    /**
+     * Optional second level cache, behind {@link #cache}, storing serialized objects off heap (see {@link #setSecondLevelCacheMegabytes(int)})
+     */
+    @Getter
+    private OffHeapCache<MediaObject> secondLevelCache = null;
+
+    private final ThreadPoolExecutor refreshExecutor = createRefreshExecutor(2, 1000);
+
+    /**
+     * Whether {@link #cache} reloads entries in {@link #refreshExecutor} itself
+     */
+    private boolean asyncReloading = false;
+
     LoadingCache<String, Optional<? extends MediaObject>> cache = buildCache();
 
+    private int negativeCacheSize = 10000;
+    private Duration negativeCacheTTL = Duration.ofMinutes(1);
+
+    /**
+     * Mids that were not found. These are kept separately, with a shorter expiry, so that lots of requests for non-existing objects (e.g. by crawlers) don't evict the existing objects from {@link #cache}.
+     */
+    Cache<String, Boolean> negativeCache = buildNegativeCache();
+
     private static long maxWindow = 10000;
 
+    /**
+     * The number of results requested per page when unpaging (see {@link #unPage(BiFunction, Predicate, int)}). Defaults to the maximum the API accepts.
+     */
+    @Getter
+    @Setter
+    private int unPageBatchSize = Constants.MAX_RESULTS;
+
+    /**
+     * The maximal number of pages requested concurrently when unpaging. Defaults to {@code 1}, meaning that pages are requested one after another.
+     */
+    @Getter
+    private int unPageParallelism = 1;
+
+    /**
+     * Whether the lazy unpaging iterators (like {@link #iterateDescendants(String, Order, Predicate, long)}) request the next page already while the current one is consumed.
+     */
+    @Getter
+    @Setter
+    private boolean unPagePrefetch = false;
+
+    private final ExecutorService defaultExecutor = Executors.newVirtualThreadPerTaskExecutor();
+
+    /**
+     * Executor used for requests that are done concurrently, and by the asynchronous methods (like {@link #loadAsync(String...)}). Defaults to virtual threads, so a request in flight does not occupy a platform thread. The default executor is shut down on {@link #close()}, an executor which is set explicitly is not.
+     */
+    @Setter
+    private ExecutorService executor = defaultExecutor;
+
     private Instant loggedAboutConnect = Instant.EPOCH;
 
+    /**
+     * How the cache is kept coherent with the API, besides its expiry (see {@link #setCacheCoherence(CacheCoherence)})
+     */
+    @Getter
+    private CacheCoherence cacheCoherence = CacheCoherence.NONE;
+
+    private ChangesSubscription cacheCoherenceSubscription;
+
+    private final AtomicLong cacheInvalidations = new AtomicLong();
+
+    private final AtomicLong refreshesRejected = new AtomicLong();
+
+
     @Inject
     public NpoApiMediaUtil(@NotNull NpoApiClients clients, @NotNull NpoApiRateLimiter limiter) {
         this.clients = clients;
@@ -88,21 +200,86 @@ public class NpoApiMediaUtil implements MediaProvider {
         @Nullable NpoApiRateLimiter limiter,
         boolean iterateLogProgress,
         int cacheSize,
-        Duration cacheTTL
+        Duration cacheTTL,
+        Long cacheMaxWeight,
+        Long secondLevelCacheMaxBytes,
+        Duration cacheRefreshAfter,
+        Duration coalescingWindow,
+        Integer coalescingMaxBatchSize,
+        Integer unPageBatchSize,
+        Integer unPageParallelism,
+        boolean unPagePrefetch,
+        Duration waitBetweenChangeListening,
+        Duration maxWaitBetweenChangeListening,
+        ExecutorService executor,
+        ChangesSubscriptionScheduler subscriptionScheduler,
+        CacheCoherence cacheCoherence,
+        boolean registerMBean,
+        Path snapshotFile,
+        Boolean snapshotValues
         ) {
         this.clients = clients;
         this.limiter = limiter == null ? new NpoApiRateLimiter() : limiter;
-        this.cacheTTL = cacheTTL;
-        this.cacheSize = cacheSize;
+        if (cacheTTL != null) {
+            this.cacheTTL = cacheTTL;
+        }
+        if (cacheSize > 0) {
+            this.cacheSize = cacheSize;
+        }
+        if (cacheMaxWeight != null) {
+            this.cacheMaxWeight = cacheMaxWeight;
+        }
+        this.cacheRefreshAfter = cacheRefreshAfter;
         this.iterateLogProgress = iterateLogProgress;
+        if (coalescingMaxBatchSize != null) {
+            this.coalescingMaxBatchSize = coalescingMaxBatchSize;
+        }
+        this.coalescingWindow = coalescingWindow;
+        this.coalescingLoader = buildCoalescingLoader();
+        if (unPageBatchSize != null) {
+            this.unPageBatchSize = unPageBatchSize;
+        }
+        if (unPageParallelism != null) {
+            this.unPageParallelism = unPageParallelism;
+        }
+        this.unPagePrefetch = unPagePrefetch;
+        if (waitBetweenChangeListening != null) {
+            this.waitBetweenChangeListening = waitBetweenChangeListening;
+        }
+        if (maxWaitBetweenChangeListening != null) {
+            this.maxWaitBetweenChangeListening = maxWaitBetweenChangeListening;
+        }
+        if (executor != null) {
+            this.executor = executor;
+        }
+        if (subscriptionScheduler != null) {
+            setSubscriptionScheduler(subscriptionScheduler);
+        }
+        if (snapshotValues != null) {
+            this.snapshotValues = snapshotValues;
+        }
+        this.cache = buildCache();
+        if (secondLevelCacheMaxBytes != null) {
+            setSecondLevelCacheMaxBytes(secondLevelCacheMaxBytes);
+        }
+        if (cacheCoherence != null) {
+            setCacheCoherence(cacheCoherence);
+        }
+        if (registerMBean) {
+            registerMBean();
+        }
+        if (snapshotFile != null) {
+            setSnapshotFile(snapshotFile);
+        }
     }
 
     public NpoApiMediaUtil(NpoApiClients clients) {
         this(clients, new NpoApiRateLimiter());
     }
 
+    @Override
     public void clearCache() {
-        cache.invalidateAll();
+        invalidateCache();
         clients.clearBrowserCache();
 
     }
@@ -112,40 +289,587 @@ public class NpoApiMediaUtil implements MediaProvider {
         cache = buildCache();
     }
 
+    /**
+     * Bounds the cache by the estimated memory usage of the cached objects (see {@link MediaObjectWeigher}), rather than by number of entries.
+     * @param megabytes The maximal size in megabytes. {@code 0} or negative to bound by number of entries (see {@link #setCacheSize(int)})
+     */
+    @Named("npo-api-mediautil.cacheMaxMegabytes")
+    public void setCacheMaxMegabytes(int megabytes) {
+        setCacheMaxWeight(megabytes * 1024L * 1024L);
+    }
+
+    public void setCacheMaxWeight(long bytes) {
+        cacheMaxWeight = bytes;
+        cache = buildCache();
+    }
+
+    @Override
+    public long getCacheMaxWeight() {
+        return cacheMaxWeight > 0 ? cacheMaxWeight : -1;
+    }
+
+    /**
+     * Enables a second level cache, which stores the objects serialized and off heap, so that it can be much larger. It is written through: every object loaded from the API is stored in both levels, so that objects evicted from the (first level) cache can be restored without calling the API again. Entries expire after the same time as the first level cache (see {@link #setCacheExpiry(String)}).
+     * @param megabytes The size of the second level cache. {@code 0} disables it.
+     */
+    @Named("npo-api-mediautil.secondLevelCacheMegabytes")
+    public void setSecondLevelCacheMegabytes(int megabytes) {
+        setSecondLevelCacheMaxBytes(megabytes * 1024L * 1024L);
+    }
+
+    public void setSecondLevelCacheMaxBytes(long maxBytes) {
+        final OffHeapCache<MediaObject> previous = secondLevelCache;
+        if (previous != null) {
+            previous.close();
+        }
+        if (maxBytes <= 0) {
+            secondLevelCache = null;
+        } else {
+            secondLevelCache = OffHeapCache.<MediaObject>builder()
+                .type(MediaObject.class)
+                .maxBytes(maxBytes)
+                .ttl(cacheTTL)
+                .build();
+        }
+    }
+
+    @Named("npo-api-mediautil.snapshotFile")
+    public void setSnapshotFile(String file) {
+        setSnapshotFile(file == null || file.isBlank() ? null : Path.of(file));
+    }
+
+    /**
+     * Sets the file to save the cache to on {@link #close()}. If it exists, the cache is warmed up from it in the background.
+     */
+    public void setSnapshotFile(Path file) {
+        this.snapshotFile = file;
+        if (file != null && Files.isRegularFile(file)) {
+            executor.execute(() -> {
+                try {
+                    loadSnapshot(file);
+                } catch (Exception e) {
+                    log.warn("Could not load cache snapshot from {}: {} {}", file, e.getClass().getName(), e.getMessage());
+                }
+            });
+        }
+    }
+
+    /**
+     * Writes the currently cached mids (and if {@code withValues} their objects too) to a file.
+     * @see MediaCacheSnapshot
+     * @since 8.15
+     */
+    public void saveSnapshot(Path file, boolean withValues) throws IOException {
+        // if the cache is kept coherent, changes up to the position of that are reflected, otherwise, just take a margin
+        final ChangesSubscription coherence = cacheCoherenceSubscription;
+        final MediaSince since = coherence != null && coherence.getMediaSince() != null ?
+            coherence.getMediaSince() :
+            MediaSince.of(Instant.now().minus(cacheTTL));
+        final Map<String, MediaObject> entries = new LinkedHashMap<>();
+        cache.asMap().forEach((mid, value) ->
+            value.ifPresent(o -> entries.put(mid, withValues ? o : null))
+        );
+        new MediaCacheSnapshot(since, entries).write(file);
+    }
+
+    /**
+     * Warms up the cache from a file written by {@link #saveSnapshot(Path, boolean)}. Objects which changed since the snapshot was made (according to the changes feed), or of which the snapshot only contains the mid, are loaded from the API (in batches).
+     * @return The number of objects put in the cache
+     * @since 8.15
+     */
+    public int loadSnapshot(Path file) throws Exception {
+        final Optional<MediaCacheSnapshot> optionalSnapshot = MediaCacheSnapshot.read(file);
+        if (optionalSnapshot.isEmpty()) {
+            return 0;
+        }
+        final MediaCacheSnapshot snapshot = optionalSnapshot.get();
+        // first determine what changed, so that no stale values are served meanwhile
+        final Set<String> changed = changedSince(snapshot.since(), snapshot.entries().keySet());
+        final Set<String> toLoad = new LinkedHashSet<>(changed);
+        snapshot.entries().forEach((mid, object) -> {
+            if (object == null) {
+                toLoad.add(mid);
+            } else if (!changed.contains(mid)) {
+                // values that were loaded in the mean time are newer
+                cache.asMap().putIfAbsent(mid, Optional.of(object));
+            }
+        });
+        for (List<String> batch : Lists.partition(new ArrayList<>(toLoad), Constants.MAX_RESULTS)) {
+            load(batch.toArray(new String[0]));
+        }
+        log.info("Warmed up cache with {} objects from {} ({} changed, {} loaded)", snapshot.entries().size(), file, changed.size(), toLoad.size());
+        return snapshot.entries().size();
+    }
+
+    /**
+     * Consumes the changes feed from the given position until it is exhausted, and collects which of the given mids changed.
+     */
+    private Set<String> changedSince(MediaSince since, Set<String> mids) throws Exception {
+        final Set<String> result = new HashSet<>();
+        final ChangesFeedParameters parameters = changesParameters()
+            .profile(clients.getProfile())
+            .mediaSince(since)
+            .build();
+        MediaSince current = since;
+        long count;
+        do {
+            count = 0;
+            try (CountedIterator<MediaChange> changes = changes(parameters.withMediaSince(current))) {
+                while (changes.hasNext()) {
+                    final MediaChange change = changes.next();
+                    current = change.asSince();
+                    if (!change.isTail()) {
+                        count++;
+                        if (mids.contains(change.getMid())) {
+                            result.add(change.getMid());
+                        }
+                    }
+                }
+            }
+        } while (count > 0);
+        return result;
+    }
+
+    /**
+     * Saves the cache to {@link #getSnapshotFile()} if that is set, and stops background tasks and the subscriptions on the changes feed.
+     */
+    @Override
+    public void close() {
+        if (snapshotFile != null) {
+            try {
+                saveSnapshot(snapshotFile, snapshotValues);
+            } catch (IOException e) {
+                log.warn("Could not save cache snapshot to {}: {} {}", snapshotFile, e.getClass().getName(), e.getMessage());
+            }
+        }
+        if (cacheCoherence != CacheCoherence.NONE) {
+            setCacheCoherence(CacheCoherence.NONE);
+        }
+        if (ownSubscriptionScheduler) {
+            subscriptionScheduler.close();
+        } else {
+            subscriptions.forEach(ChangesSubscription::stop);
+        }
+        if (coalescingLoader != null) {
+            coalescingLoader.close();
+        }
+        refreshExecutor.shutdown();
+        defaultExecutor.shutdown();
+        final OffHeapCache<MediaObject> l2 = secondLevelCache;
+        if (l2 != null) {
+            l2.close();
+        }
+    }
+
     @Named("npo-api-mediautil.cacheExpiry")
     public void setCacheExpiry(String ttl) {
         this.cacheTTL = TimeUtils.parseDuration(ttl).orElse(Duration.ofMinutes(5));
         cache = buildCache();
+        final OffHeapCache<MediaObject> l2 = secondLevelCache;
+        if (l2 != null) {
+            l2.setTtl(cacheTTL);
+        }
+    }
+
+    /**
+     * The maximal number of mids that are remembered as not existing. {@code 0} disables the negative cache, in which case misses are cached in the normal cache.
+     */
+    @Named("npo-api-mediautil.negativeCacheSize")
+    public void setNegativeCacheSize(int size) {
+        negativeCacheSize = size;
+        negativeCache = buildNegativeCache();
+    }
+
+    @Named("npo-api-mediautil.negativeCacheExpiry")
+    public void setNegativeCacheExpiry(String ttl) {
+        this.negativeCacheTTL = TimeUtils.parseDuration(ttl).orElse(Duration.ofMinutes(1));
+        negativeCache = buildNegativeCache();
+    }
+
+    @Named("npo-api-mediautil.cacheRefreshAfter")
+    public void setCacheRefreshAfter(String refreshAfter) {
+        setCacheRefreshAfter(TimeUtils.parseDuration(refreshAfter).orElse(null));
+    }
+
+    public void setCacheRefreshAfter(Duration refreshAfter) {
+        this.cacheRefreshAfter = refreshAfter;
+        cache = buildCache();
+    }
+
+    /**
+     * The maximal number of threads reloading entries in the background (see {@link #setCacheRefreshAfter(Duration)})
+     */
+    @Named("npo-api-mediautil.cacheRefreshThreads")
+    public void setCacheRefreshThreads(int threads) {
+        if (threads > refreshExecutor.getMaximumPoolSize()) {
+            refreshExecutor.setMaximumPoolSize(threads);
+            refreshExecutor.setCorePoolSize(threads);
+        } else {
+            refreshExecutor.setCorePoolSize(threads);
+            refreshExecutor.setMaximumPoolSize(threads);
+        }
+    }
+
+    @Named("npo-api-mediautil.cacheCoherence")
+    public void setCacheCoherence(String cacheCoherence) {
+        setCacheCoherence(CacheCoherence.valueOf(cacheCoherence.trim().toUpperCase()));
+    }
+
+    /**
+     * If not {@link CacheCoherence#NONE}, a subscription on the changes feed (of the profile of the clients) is started, which evicts or refreshes the cached objects that changed. The cache expiry can then be set much longer.
+     */
+    public synchronized void setCacheCoherence(CacheCoherence cacheCoherence) {
+        this.cacheCoherence = cacheCoherence;
+        if (cacheCoherence == CacheCoherence.NONE) {
+            if (cacheCoherenceSubscription != null) {
+                cacheCoherenceSubscription.stop();
+                cacheCoherenceSubscription = null;
+            }
+        } else if (cacheCoherenceSubscription == null || cacheCoherenceSubscription.isStopped()) {
+            cacheCoherenceSubscription = subscribe(
+                changesParameters()
+                    .profile(clients.getProfile())
+                    .mediaSince(MediaSince.of(Instant.now()))
+                    .build(),
+                () -> this.cacheCoherence != CacheCoherence.NONE,
+                (since, change) -> onChange(change, this.cacheCoherence)
+            );
+            log.info("Started {} for {}", cacheCoherenceSubscription, cacheCoherence);
+        }
+    }
+
+    /**
+     * Evicts or refreshes the cached object of the change. This is called by the subscription thread, so it must not block on the API.
+     */
+    void onChange(MediaChange change, CacheCoherence coherence) {
+        final String mid = change.getMid();
+        if (change.isTail() || mid == null) {
+            return;
+        }
+        // it may exist now
+        negativeCache.invalidate(mid);
+        final OffHeapCache<MediaObject> l2 = secondLevelCache;
+        if (l2 != null) {
+            l2.invalidate(mid);
+        }
+        final LoadingCache<String, Optional<? extends MediaObject>> c = cache;
+        // not via getIfPresent, which would count as a hit or miss
+        if (c.asMap().containsKey(mid)) {
+            cacheInvalidations.incrementAndGet();
+            if (coherence == CacheCoherence.REFRESH && !Boolean.TRUE.equals(change.isDeleted())) {
+                log.debug("Refreshing {}", mid);
+                refresh(c, mid);
+            } else {
+                log.debug("Evicting {}", mid);
+                c.invalidate(mid);
+            }
+        }
+    }
+
+    private void refresh(LoadingCache<String, Optional<? extends MediaObject>> c, String mid) {
+        if (asyncReloading) {
+            c.refresh(mid);
+            return;
+        }
+        // without refresh ahead, the loader would reload synchronously
+        try {
+            refreshExecutor.execute(() -> c.refresh(mid));
+        } catch (RejectedExecutionException ree) {
+            log.debug("Could not schedule refresh of {}, evicting it", mid);
+            c.invalidate(mid);
+        }
+    }
+
+    @Override
+    public long getCacheRefreshesRejected() {
+        return refreshesRejected.get();
+    }
+
+    /**
+     * Hit rate, load times etc. of the cache
+     */
+    public CacheStats getCacheStats() {
+        return cache.stats();
+    }
+
+    @Override
+    public long getCacheEntries() {
+        return cache.size();
+    }
+
+    @Override
+    public long getCacheWeight() {
+        final MediaObjectWeigher w = weigher;
+        return w == null ? -1 : w.getTotalWeight();
+    }
+
+    @Override
+    public double getCacheHitRate() {
+        return cache.stats().hitRate();
+    }
+
+    @Override
+    public long getCacheEvictions() {
+        return cache.stats().evictionCount();
+    }
+
+    @Override
+    public long getNegativeCacheEntries() {
+        return negativeCache.size();
+    }
+
+    @Override
+    public String getCacheStalenessString() {
+        return String.valueOf(getCacheStaleness());
+    }
+
+    /**
+     * Registers this as {@link NpoApiMediaUtilMXBean} on the platform MBean server
+     */
+    public void registerMBean() {
+        try {
+            final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            final ObjectName name = new ObjectName("nl.vpro.api.client:type=NpoApiMediaUtil,name=" + Integer.toHexString(System.identityHashCode(this)));
+            if (server.isRegistered(name)) {
+                server.unregisterMBean(name);
+            }
+            server.registerMBean(this, name);
+            log.info("Registered {}", name);
+        } catch (JMException e) {
+            log.error(e.getMessage(), e);
+        }
+    }
+
+    public CacheStats getNegativeCacheStats() {
+        return negativeCache.stats();
+    }
+
+    /**
+     * The number of cached objects that were evicted or refreshed, because they changed
+     */
+    @Override
+    public long getCacheInvalidations() {
+        return cacheInvalidations.get();
+    }
+
+    /**
+     * How long it took until the last change was seen by the cache. I.e. the maximal time the cache could have served an outdated version. {@code null} if cache coherence is not enabled (or no change was received yet).
+     */
+    public Duration getCacheStaleness() {
+        final ChangesSubscription subscription = cacheCoherenceSubscription;
+        return subscription == null ? null : subscription.getLag();
+    }
+
+    /**
+     * Enables request coalescing for cache misses. Concurrent misses are collected during the given window (or until {@link #getCoalescingMaxBatchSize()} mids are collected), and loaded with one call.
+     * @param window The duration to collect misses. {@code null} or zero disables coalescing.
+     */
+    @Named("npo-api-mediautil.coalescingWindow")
+    public void setCoalescingWindow(String window) {
+        setCoalescingWindow(TimeUtils.parseDuration(window).orElse(null));
+    }
+
+    public void setCoalescingWindow(Duration window) {
+        this.coalescingWindow = window;
+        this.coalescingLoader = buildCoalescingLoader();
+    }
+
+    @Named("npo-api-mediautil.unPageParallelism")
+    public void setUnPageParallelism(int unPageParallelism) {
+        this.unPageParallelism = unPageParallelism;
+    }
+
+    @Named("npo-api-mediautil.coalescingMaxBatchSize")
+    public void setCoalescingMaxBatchSize(int maxBatchSize) {
+        this.coalescingMaxBatchSize = maxBatchSize;
+        this.coalescingLoader = buildCoalescingLoader();
+    }
+
+    private CoalescingMediaLoader buildCoalescingLoader() {
+        if (coalescingLoader != null) {
+            coalescingLoader.close();
+        }
+        if (coalescingWindow == null || coalescingWindow.isZero() || coalescingWindow.isNegative()) {
+            return null;
+        }
+        return CoalescingMediaLoader.builder()
+            .window(coalescingWindow)
+            .maxBatchSize(coalescingMaxBatchSize)
+            .batchLoader(mids -> {
+                limiter.acquire(clients.getPriority());
+                final long start = System.nanoTime();
+                try {
+                    MediaObject[] result = MediaRestClientUtils.load(clients.getMediaService(), mids);
+                    limiter.upRate(Duration.ofNanos(System.nanoTime() - start));
+                    return result;
+                } catch (RuntimeException rte) {
+                    limiter.downRate(rte);
+                    throw rte;
+                }
+            })
+            .build();
+    }
+
+    private LoadingCache<String, Optional<? extends MediaObject>> buildCache() {
+        final CacheBuilder<Object, Object> builder = CacheBuilder.newBuilder()
+            .concurrencyLevel(4)
+            .expireAfterWrite(cacheTTL.toMillis(), TimeUnit.MILLISECONDS)
+            .recordStats();
+        final boolean refreshAhead = cacheRefreshAfter != null && cacheRefreshAfter.isPositive() && cacheRefreshAfter.compareTo(cacheTTL) < 0;
+        if (refreshAhead) {
+            builder.refreshAfterWrite(cacheRefreshAfter.toMillis(), TimeUnit.MILLISECONDS);
+        } else if (cacheRefreshAfter != null) {
+            log.warn("Cache refresh after {} is ignored, since it is not shorter than the expiry {}", cacheRefreshAfter, cacheTTL);
+        }
+        final CacheLoader<String, Optional<? extends MediaObject>> loader = new CacheLoader<>() {
+            @Override
+            public @NonNull Optional<MediaObject> load(@NonNull String mid) throws Exception {
+                final OffHeapCache<MediaObject> l2 = secondLevelCache;
+                if (l2 != null) {
+                    final Optional<MediaObject> fromSecondLevel = l2.get(mid);
+                    if (fromSecondLevel.isPresent()) {
+                        log.debug("Using {} from second level cache", mid);
+                        return fromSecondLevel;
+                    }
+                }
+                final Optional<MediaObject> result = loadFromApi(mid);
+                if (result.isEmpty() && isNegativeCacheEnabled()) {
+                    negativeCache.put(mid, Boolean.TRUE);
+                    throw NotFound.INSTANCE;
+                }
+                return result;
+            }
+
+            @Override
+            public @NonNull ListenableFuture<Optional<? extends MediaObject>> reload(@NonNull String mid, @NonNull Optional<? extends MediaObject> oldValue) throws Exception {
+                // the second level cache is probably not newer
+                if (!refreshAhead) {
+                    return Futures.immediateFuture(loadFromApi(mid));
+                }
+                // reloads happen in the background, the old value is served meanwhile (and kept if reloading fails)
+                final ListenableFutureTask<Optional<? extends MediaObject>> task = ListenableFutureTask.create(() -> loadFromApi(mid));
+                try {
+                    refreshExecutor.execute(task);
+                    return task;
+                } catch (RejectedExecutionException ree) {
+                    // Not failing the reload, since the cache would log that for every entry. The entry is refreshed on a later request.
+                    final long rejected = refreshesRejected.incrementAndGet();
+                    if (rejected % 1000 == 1) {
+                        log.info("Refresh executor is saturated, skipped {} refreshes (e.g. {})", rejected, mid);
+                    } else {
+                        log.debug("Skipped refresh of {}", mid);
+                    }
+                    return Futures.immediateFuture(oldValue);
+                }
+            }
+        };
+        asyncReloading = refreshAhead;
+        if (cacheMaxWeight > 0) {
+            final MediaObjectWeigher w = new MediaObjectWeigher();
+            weigher = w;
+            return builder
+                .maximumWeight(cacheMaxWeight)
+                .weigher(w)
+                .removalListener(w)
+                .build(loader);
+        } else {
+            weigher = null;
+            return builder
+                .maximumSize(cacheSize)
+                .build(loader);
+        }
+    }
+
+    private Cache<String, Boolean> buildNegativeCache() {
+        return CacheBuilder.newBuilder()
+            .concurrencyLevel(4)
+            .maximumSize(negativeCacheSize)
+            .expireAfterWrite(negativeCacheTTL.toMillis(), TimeUnit.MILLISECONDS)
+            .recordStats()
+            .build();
+    }
+
+    private boolean isNegativeCacheEnabled() {
+        return negativeCacheSize > 0;
+    }
+
+    /**
+     * Thrown by the loader of {@link #cache} if an object does not exist (and the {@link #negativeCache} is enabled), so that no entry for it is added to the cache, which could evict existing objects.
+     */
+    private static final class NotFound extends Exception {
+        private static final NotFound INSTANCE = new NotFound();
+
+        private NotFound() {
+            super("not found", null, false, false);
+        }
+    }
+
+    private Optional<MediaObject> loadFromApi(String mid) throws Exception {
+        final Optional<MediaObject> result = loadFromApiWithoutSecondLevel(mid);
+        final OffHeapCache<MediaObject> l2 = secondLevelCache;
+        if (l2 != null) {
+            if (result.isPresent()) {
+                l2.put(mid, result.get());
+            } else {
+                l2.invalidate(mid);
+            }
+        }
+        return result;
     }
 
-    private LoadingCache<String, Optional<? extends MediaObject>> buildCache() {
-        return CacheBuilder.newBuilder()
-            .concurrencyLevel(4)
-            .maximumSize(cacheSize)
-            .expireAfterWrite(cacheTTL.toMillis(), TimeUnit.MILLISECONDS)
-            .build(
-                new CacheLoader<String, Optional<? extends MediaObject>>() {
-                    @Override
-                    public @NonNull Optional<MediaObject> load(@NonNull String mid) {
-                        limiter.acquire();
-                        try {
-                            MediaObject object = MediaRestClientUtils.loadOrNull(clients.getMediaService(), mid);
-                            limiter.upRate();
-                            //return Optional.ofNullable(object);
-                            return Optional.ofNullable(object);
-                        } catch (RuntimeException se) {
-                            limiter.downRate();
-                            throw se;
-                        }
-                    }
-                });
+    private Optional<MediaObject> loadFromApiWithoutSecondLevel(String mid) throws Exception {
+        final CoalescingMediaLoader coalescing = coalescingLoader;
+        if (coalescing != null) {
+            try {
+                return coalescing.get(mid);
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof Exception exception) {
+                    throw exception;
+                }
+                throw e;
+            }
+        }
+        limiter.acquire(clients.getPriority());
+        final long start = System.nanoTime();
+        try {
+            MediaObject object = MediaRestClientUtils.loadOrNull(clients.getMediaService(), mid);
+            limiter.upRate(Duration.ofNanos(System.nanoTime() - start));
+            return Optional.ofNullable(object);
+        } catch (RuntimeException se) {
+            limiter.downRate(se);
+            throw se;
+        }
+    }
+
+    private static ThreadPoolExecutor createRefreshExecutor(int threads, int queueSize) {
+        final ThreadPoolExecutor result = new ThreadPoolExecutor(
+            threads, threads,
+            1, TimeUnit.MINUTES,
+            new ArrayBlockingQueue<>(queueSize),
+            new ThreadFactoryBuilder()
+                .setNameFormat("npo-api-mediautil-refresh-%d")
+                .setDaemon(true)
+                .build(),
+            // if the executor can't keep up, the refresh is skipped (see buildCache)
+            new ThreadPoolExecutor.AbortPolicy()
+        );
+        result.allowCoreThreadTimeOut(true);
+        return result;
     }
 
     @SuppressWarnings("unchecked")
     public <T extends MediaObject> T loadOrNull(String id) throws IOException{
+        if (negativeCache.getIfPresent(id) != null) {
+            log.debug("{} is known not to exist", id);
+            return null;
+        }
         try {
             return (T) cache.get(id).orElse(null);
         } catch (ExecutionException | UncheckedExecutionException e) {
+            if (e.getCause() instanceof NotFound) {
+                log.debug("{} does not exist", id);
+                return null;
+            }
             if (e.getCause() instanceof IOException ioException) {
                 throw ioException;
             }
@@ -158,16 +882,21 @@ public class NpoApiMediaUtil implements MediaProvider {
 
     public void invalidateCache() {
         cache.invalidateAll();
+        negativeCache.invalidateAll();
+        final OffHeapCache<MediaObject> l2 = secondLevelCache;
+        if (l2 != null) {
+            l2.invalidateAll();
+        }
     }
 
     public MediaResult listDescendants(String mid, Order order) {
-        limiter.acquire();
+        limiter.acquire(clients.getPriority());
         try {
             MediaResult result = clients.getMediaService().listDescendants(mid, null, null, order.toString(), 0L, 200);
             limiter.upRate();
             return result;
         } catch (Exception e) {
-            limiter.downRate();
+            limiter.downRate(e);
             throw e;
         }
     }
@@ -180,44 +909,8 @@ public class NpoApiMediaUtil implements MediaProvider {
         BiFunction<Integer, Long, MediaResult> supplier,
         Predicate<MediaObject> filter,
         int max) {
-        limiter.acquire();
-        if (filter == null) {
-            filter = mediaObject -> true;
-        }
-        try {
-            List<MediaObject> result = new ArrayList<>();
-            long offset = 0L;
-            int batch = 50;
-
-            long total;
-            long found = 0;
-            do {
-
-                MediaResult list = supplier.apply(batch, offset);
-                total = list.getTotal();
-                if (list.getSize() == 0) {
-                    break;
-                }
-                list.getItems().stream()
-                    .filter(filter).forEach(o -> {
-                    if (result.size() < max) {
-                        result.add(o);
-                    }
-                });
-                offset += batch;
-                found += list.getSize();
-                if (offset > maxWindow - batch) {
-                    log.info("Offset is getting to big. Breaking");
-                    break;
-                }
-            } while (found < total && result.size() < max);
-
-            limiter.upRate();
-            return new MediaResult(result, 0L, max, equalsTo(total));
-        } catch (Exception e) {
-            limiter.downRate();
-            throw e;
-        }
+        UnPaged<MediaObject> unPaged = unPageItems(supplier, filter, max);
+        return new MediaResult(unPaged.items(), 0L, max, equalsTo(unPaged.total()));
     }
 
     /**
@@ -225,45 +918,137 @@ public class NpoApiMediaUtil implements MediaProvider {
      * This method arranges that.
      */
     public ProgramResult unPageProgramResult(BiFunction<Integer, Long, ProgramResult> supplier, Predicate<MediaObject> filter, int max) {
-        limiter.acquire();
-        if (filter == null) {
-            filter = mediaObject -> true;
-        }
-        try {
-            List<Program> result = new ArrayList<>();
-            long offset = 0L;
-            int batch = 50;
+        UnPaged<Program> unPaged = unPageItems(supplier, filter, max);
+        return new ProgramResult(unPaged.items(), 0L, max, equalsTo(unPaged.total()));
+    }
 
-            long total;
-            long found = 0;
-            do {
+    private record UnPaged<T>(List<T> items, long total) {
+    }
 
-                ProgramResult list = supplier.apply(batch, offset);
-                total = list.getTotal();
-                if (list.getSize() == 0) {
-                    break;
-                }
-                list.getItems().stream().filter(filter).forEach(o -> {
-                    if (result.size() < max) {
-                        result.add(o);
-                    }
-                });
-                offset += batch;
-                found += list.getSize();
-                if (offset > maxWindow - batch) {
-                    log.info("Offset is getting to big. Breaking");
+    /**
+     * Implementation of {@link #unPage(BiFunction, Predicate, int)} and {@link #unPageProgramResult(BiFunction, Predicate, int)}.
+     * <p>
+     * The first page is requested alone. If {@link #getUnPageParallelism()} is bigger than one, the offsets of the other pages are known then, and they are requested concurrently, in waves of at most that many pages, and never more pages than still needed to reach the requested max. Every page acquires the rate limiter.
+     */
+    private <T extends MediaObject> UnPaged<T> unPageItems(
+        BiFunction<Integer, Long, ? extends nl.vpro.domain.api.Result<T>> supplier,
+        Predicate<MediaObject> filter,
+        int max) {
+        final Predicate<MediaObject> effectiveFilter = filter == null ? mediaObject -> true : filter;
+        final int batch = unPageBatchSize;
+        final List<T> result = new ArrayList<>();
+
+        nl.vpro.domain.api.Result<T> first = fetchPage(supplier, batch, 0L);
+        final long total = first.getTotal();
+        addFiltered(first, effectiveFilter, result, max);
+        long offset = batch;
+        long found = first.getSize();
+        if (first.getSize() == 0) {
+            return new UnPaged<>(result, total);
+        }
+        while (found < total && result.size() < max) {
+            if (offset > maxWindow - batch) {
+                log.info("Offset is getting to big. Breaking");
+                break;
+            }
+            // no more pages than needed if all remaining results pass the filter
+            final long remaining = Math.min(total - found, (long) max - result.size());
+            final long pagesNeeded = (remaining + batch - 1) / batch;
+            final long waveSize = Math.max(1, Math.min(Math.max(1, unPageParallelism), pagesNeeded));
+            final List<Long> wave = new ArrayList<>();
+            for (long o = offset; wave.size() < waveSize && o < total && o <= maxWindow - batch; o += batch) {
+                wave.add(o);
+            }
+            if (wave.isEmpty()) {
+                break;
+            }
+            final List<nl.vpro.domain.api.Result<T>> pages;
+            if (wave.size() == 1) {
+                pages = List.of(fetchPage(supplier, batch, wave.get(0)));
+            } else {
+                pages = fetchPages(supplier, batch, wave);
+            }
+            boolean empty = false;
+            for (nl.vpro.domain.api.Result<T> page : pages) {
+                if (page.getSize() == 0) {
+                    empty = true;
                     break;
                 }
-            } while (found < total && result.size() < max);
+                addFiltered(page, effectiveFilter, result, max);
+                found += page.getSize();
+            }
+            if (empty) {
+                break;
+            }
+            offset += (long) wave.size() * batch;
+        }
+        return new UnPaged<>(result, total);
+    }
 
-            limiter.upRate();
-            return new ProgramResult(result, 0L, max, equalsTo(total));
-        } catch (Exception e) {
-            limiter.downRate();
+    private <T extends MediaObject> nl.vpro.domain.api.Result<T> fetchPage(
+        BiFunction<Integer, Long, ? extends nl.vpro.domain.api.Result<T>> supplier,
+        int batch,
+        long offset) {
+        limiter.acquire(clients.getPriority());
+        final long start = System.nanoTime();
+        try {
+            nl.vpro.domain.api.Result<T> page = supplier.apply(batch, offset);
+            limiter.upRate(Duration.ofNanos(System.nanoTime() - start));
+            return page;
+        } catch (RuntimeException e) {
+            limiter.downRate(e);
             throw e;
         }
     }
 
+    private <T extends MediaObject> List<nl.vpro.domain.api.Result<T>> fetchPages(
+        BiFunction<Integer, Long, ? extends nl.vpro.domain.api.Result<T>> supplier,
+        int batch,
+        List<Long> offsets) {
+        // futures of the executor itself (rather than CompletableFuture), so that cancelling interrupts the requests still running
+        final CompletionService<nl.vpro.domain.api.Result<T>> completion = new ExecutorCompletionService<>(executor);
+        final List<Future<nl.vpro.domain.api.Result<T>>> futures = new ArrayList<>();
+        for (Long offset : offsets) {
+            final Supplier<nl.vpro.domain.api.Result<T>> page = clients.withCurrentSettings(() -> fetchPage(supplier, batch, offset));
+            futures.add(completion.submit(page::get));
+        }
+        final List<nl.vpro.domain.api.Result<T>> pages = new ArrayList<>();
+        try {
+            // in order of completion, so that a failure is noticed immediately
+            for (int i = 0; i < futures.size(); i++) {
+                completion.take().get();
+            }
+            for (Future<nl.vpro.domain.api.Result<T>> future : futures) {
+                pages.add(future.get());
+            }
+        } catch (ExecutionException ee) {
+            futures.forEach(f -> f.cancel(true));
+            if (ee.getCause() instanceof RuntimeException runtimeException) {
+                throw runtimeException;
+            }
+            throw new CompletionException(ee.getCause());
+        } catch (InterruptedException ie) {
+            futures.forEach(f -> f.cancel(true));
+            Thread.currentThread().interrupt();
+            throw new CancellationException("Interrupted while unpaging");
+        }
+        return pages;
+    }
+
+    private static <T extends MediaObject> void addFiltered(
+        nl.vpro.domain.api.Result<T> page,
+        Predicate<MediaObject> filter,
+        List<T> result,
+        int max) {
+        for (T o : page.getItems()) {
+            if (result.size() >= max) {
+                break;
+            }
+            if (filter.test(o)) {
+                result.add(o);
+            }
+        }
+    }
 
     /**
      * Wraps {@link nl.vpro.api.rs.v3.media.MediaRestService#listDescendants(String, String, String, String, Long, Integer)}, but with less arguments.
@@ -287,12 +1072,111 @@ public class NpoApiMediaUtil implements MediaProvider {
         return unPageProgramResult(members, filter, max);
     }
 
+    /**
+     * Lazy version of {@link #listDescendants(String, Order, Predicate, int)}. Pages are only requested when needed, so the first results are available as soon as the first page is received.
+     * <p>
+     * Beyond the maximal offset accepted by the API, the results are obtained via {@link nl.vpro.api.rs.v3.media.MediaRestService#iterate(MediaForm, String, String, Long, Integer)} with an equivalent form.
+     * @since 8.15
+     */
+    public CountedIterator<MediaObject> iterateDescendants(String mid, Order order, Predicate<MediaObject> filter, long max) {
+        return unPagingIterator(
+            (batch, offset) -> clients.getMediaService().listDescendants(mid, null, null, order.toString(), offset, batch),
+            filter,
+            max,
+            offset -> iterateFallback(MediaFormBuilder.form().descendantOf(mid), order, offset)
+        );
+    }
+
+    /**
+     * Lazy version of {@link #listMembers(String, Order, Predicate, int)}
+     * @since 8.15
+     */
+    public CountedIterator<MediaObject> iterateMembers(String mid, Order order, Predicate<MediaObject> filter, long max) {
+        return unPagingIterator(
+            (batch, offset) -> clients.getMediaService().listMembers(mid, null, null, order.toString(), offset, batch),
+            filter,
+            max,
+            offset -> iterateFallback(MediaFormBuilder.form().memberOf(mid), order, offset)
+        );
+    }
+
+    /**
+     * Lazy version of {@link #listEpisodes(String, Order, Predicate, int)}
+     * @since 8.15
+     */
+    @SuppressWarnings("unchecked")
+    public CountedIterator<Program> iterateEpisodes(String mid, Order order, Predicate<MediaObject> filter, long max) {
+        return unPagingIterator(
+            (batch, offset) -> clients.getMediaService().listEpisodes(mid, null, null, order.toString(), offset, batch),
+            filter,
+            max,
+            offset -> (CountedIterator<Program>) (CountedIterator<?>) iterateFallback(MediaFormBuilder.form().episodeOf(mid), order, offset)
+        );
+    }
+
+    private <T extends MediaObject> CountedIterator<T> unPagingIterator(
+        BiFunction<Integer, Long, ? extends nl.vpro.domain.api.Result<T>> supplier,
+        Predicate<MediaObject> filter,
+        long max,
+        LongFunction<? extends CloseableIterator<T>> fallback) {
+        return UnPagingIterator.<T>builder()
+            .supplier(clients.withCurrentSettings((Integer batch, Long offset) -> fetchPage(supplier, batch, offset)))
+            .filter(filter)
+            .max(max)
+            .batchSize(unPageBatchSize)
+            .maxWindow(maxWindow)
+            .prefetchExecutor(unPagePrefetch ? executor : null)
+            .fallback(fallback)
+            .build();
+    }
+
+    private CountedIterator<MediaObject> iterateFallback(MediaFormBuilder formBuilder, Order order, long offset) {
+        final MediaForm form = formBuilder.build();
+        form.addSortField(new MediaSortOrder(MediaSortField.sortDate, order));
+        return MediaRestClientUtils.iterate(
+            () -> {
+                // the request is only done when the iterator is used
+                limiter.acquire(clients.getPriority());
+                final long start = System.nanoTime();
+                try {
+                    final Response response = clients.getMediaServiceNoTimeout().iterate(form, null, null, offset, null);
+                    if (response.getStatusInfo().getFamily() == Response.Status.Family.SUCCESSFUL) {
+                        limiter.upRate(Duration.ofNanos(System.nanoTime() - start));
+                    } else {
+                        limiter.downRate();
+                    }
+                    return response;
+                } catch (RuntimeException e) {
+                    limiter.downRate(e);
+                    throw e;
+                }
+            },
+            iterateLogProgress,
+            "unpage-"
+        );
+    }
+
     @SuppressWarnings({"unchecked", "OptionalAssignedToNull"})
     public MediaObject[] load(String... id) throws IOException {
         Optional<? extends MediaObject>[] result = new Optional[id.length];
         Set<String> toRequest = new LinkedHashSet<>();
+        final OffHeapCache<MediaObject> l2 = secondLevelCache;
         for (int i = 0; i < id.length; i++) {
+            if (negativeCache.getIfPresent(id[i]) != null) {
+                log.debug("{} is known not to exist", id[i]);
+                result[i] = Optional.empty();
+                continue;
+            }
             result[i] = cache.getIfPresent(id[i]);
+            if (result[i] == null && l2 != null) {
+                final Optional<MediaObject> fromSecondLevel = l2.get(id[i]);
+                if (fromSecondLevel.isPresent()) {
+                    log.debug("Using {} from second level cache", id[i]);
+                    cache.put(id[i], fromSecondLevel);
+                    result[i] = fromSecondLevel;
+                    continue;
+                }
+            }
             if (result[i] == null) {
                 toRequest.add(id[i]);
             } else {
@@ -300,13 +1184,24 @@ public class NpoApiMediaUtil implements MediaProvider {
             }
         }
         if (!toRequest.isEmpty()) {
-            limiter.acquire();
+            limiter.acquire(clients.getPriority());
             try {
                 String[] array = toRequest.toArray(new String[0]);
                 MediaObject[] requested = MediaRestClientUtils.load(clients.getMediaService(), array);
                 for (int j = 0 ; j < array.length; j++) {
                     Optional<MediaObject> optional = Optional.ofNullable(requested[j]);
-                    cache.put(array[j], optional);
+                    if (optional.isEmpty() && isNegativeCacheEnabled()) {
+                        negativeCache.put(array[j], Boolean.TRUE);
+                    } else {
+                        cache.put(array[j], optional);
+                    }
+                    if (l2 != null) {
+                        if (optional.isPresent()) {
+                            l2.put(array[j], optional.get());
+                        } else {
+                            l2.invalidate(array[j]);
+                        }
+                    }
                     for (int i = 0; i < id.length; i++) {
                         if (id[i].equals(array[j])) {
                             result[i] = optional;
@@ -315,11 +1210,11 @@ public class NpoApiMediaUtil implements MediaProvider {
                 }
                 limiter.upRate();
             } catch (ProcessingException pe) {
-                limiter.downRate();
+                limiter.downRate(pe);
                 unwrapIO(pe);
                 throw pe;
             } catch (RuntimeException rte) {
-                limiter.downRate();
+                limiter.downRate(rte);
                 throw rte;
             }
         }
@@ -330,6 +1225,76 @@ public class NpoApiMediaUtil implements MediaProvider {
         return resultArray;
     }
 
+    /**
+     * Asynchronous version of {@link #load(String...)}. It shares the cache and the rate limiter with the blocking methods.
+     * @since 8.15
+     */
+    public CompletableFuture<MediaObject[]> loadAsync(String... mids) {
+        return async(() -> load(mids));
+    }
+
+    /**
+     * Asynchronous version of {@link #loadOrNull(String)}. The future completes with {@code null} if the object does not exist.
+     * @since 8.15
+     */
+    @SuppressWarnings("unchecked")
+    public <T extends MediaObject> CompletableFuture<T> loadOrNullAsync(String mid) {
+        if (negativeCache.getIfPresent(mid) != null) {
+            return CompletableFuture.completedFuture(null);
+        }
+        // not getIfPresent, since a miss would then be counted twice (here and in loadOrNull)
+        if (cache.asMap().containsKey(mid)) {
+            final Optional<? extends MediaObject> cached = cache.getIfPresent(mid);
+            if (cached != null) {
+                // no need to wait for a permit
+                return CompletableFuture.completedFuture((T) cached.orElse(null));
+            }
+        }
+        return async(() -> loadOrNull(mid));
+    }
+
+    /**
+     * Asynchronous version of {@link #listDescendants(String, Order)}
+     * @since 8.15
+     */
+    public CompletableFuture<MediaResult> listDescendantsAsync(String mid, Order order) {
+        return async(() -> listDescendants(mid, order));
+    }
+
+    /**
+     * Asynchronous version of {@link #listDescendants(String, Order, Predicate, int)}
+     * @since 8.15
+     */
+    public CompletableFuture<MediaResult> listDescendantsAsync(String mid, Order order, Predicate<MediaObject> filter, int max) {
+        return async(() -> listDescendants(mid, order, filter, max));
+    }
+
+    /**
+     * Asynchronous version of {@link #findByMid(String)}
+     * @since 8.15
+     */
+    public <T extends MediaObject> CompletableFuture<T> findByMidAsync(String mid) {
+        return async(() -> findByMid(mid));
+    }
+
+    /**
+     * Runs the given call in {@link #executor}, with the current settings of {@link NpoApiClients} (like the profile). Checked exceptions complete the future exceptionally with a {@link CompletionException}.
+     * <p>
+     * Permits of the rate limiter are acquired by the call itself, where it actually calls the API (possibly in a coalescing or parallel worker thread). So calls served from the cache need none, and waiting for a permit only parks a virtual thread (with the default executor).
+     */
+    private <T> CompletableFuture<T> async(Callable<T> callable) {
+        final Supplier<T> supplier = clients.withCurrentSettings(() -> {
+            try {
+                return callable.call();
+            } catch (RuntimeException rte) {
+                throw rte;
+            } catch (Exception e) {
+                throw new CompletionException(e);
+            }
+        });
+        return CompletableFuture.supplyAsync(supplier, executor);
+    }
+
     public CountedIterator<MediaChange> changes(String profile, Instant since, Order order, Integer max) {
         return changes(profile, since, null, order, max);
     }
@@ -374,10 +1339,44 @@ public class NpoApiMediaUtil implements MediaProvider {
         );
     }
 
+    /**
+     * The time a changes subscription waits after a poll that did not produce changes. This is doubled for every next empty poll, until {@link #getMaxWaitBetweenChangeListening()}
+     */
     @Getter
     @Setter
     private Duration  waitBetweenChangeListening = Duration.ofSeconds(2);
 
+    @Getter
+    @Setter
+    private Duration  maxWaitBetweenChangeListening = Duration.ofMinutes(1);
+
+    /**
+     * Runs the subscriptions of {@link #subscribe(ChangesFeedParameters, BooleanSupplier, BiConsumer)}. Defaults to one virtual thread per subscription.
+     */
+    @Getter
+    private ChangesSubscriptionScheduler subscriptionScheduler = new ChangesSubscriptionScheduler();
+
+    /**
+     * Whether {@link #subscriptionScheduler} was created by this instance, and hence should be closed by {@link #close()}
+     */
+    private boolean ownSubscriptionScheduler = true;
+
+    /**
+     * The subscriptions started by this instance, which are stopped on {@link #close()}
+     */
+    private final Set<ChangesSubscription> subscriptions = ConcurrentHashMap.newKeySet();
+
+    /**
+     * Sets the scheduler to run the subscriptions. A scheduler set like this may be shared, so it is not closed on {@link #close()}, only the subscriptions of this instance are stopped then.
+     */
+    public void setSubscriptionScheduler(ChangesSubscriptionScheduler subscriptionScheduler) {
+        if (ownSubscriptionScheduler) {
+            this.subscriptionScheduler.close();
+        }
+        this.subscriptionScheduler = subscriptionScheduler;
+        this.ownSubscriptionScheduler = false;
+    }
+
     public Future<Instant> subscribeToChanges(String profile, Instant since, BooleanSupplier doWhile, final Consumer<MediaChange> listener) {
         return subscribeToChanges(profile, since, Deletes.ID_ONLY, doWhile, listener);
     }
@@ -408,58 +1407,256 @@ public class NpoApiMediaUtil implements MediaProvider {
         final ChangesFeedParameters parameters,
         final BooleanSupplier doWhile,
         final BiConsumer<MediaSince, MediaChange> listener) {
-        if (doWhile.getAsBoolean()) {
-            return CompletableFuture.supplyAsync(() -> {
-                ChangesFeedParameters effectiveParameters = parameters;
-                MediaSince currentSince = parameters.getMediaSince();
-
-                while (doWhile.getAsBoolean() && !Thread.currentThread().isInterrupted()) {
-                    try (CountedIterator<MediaChange> changes = changes(effectiveParameters)) {
-                        while (changes.hasNext()) {
-                            if (Thread.currentThread().isInterrupted()) {
-                                log.info("Breaking with remaining changes because thread {} is marked interrupted", Thread.currentThread());
-                                break;
-                            }
-                            MediaChange change = changes.next();
-                            currentSince = change.asSince();
-                            listener.accept(currentSince, change);
-                            effectiveParameters = parameters.withMediaSince(currentSince);
+        return subscribe(parameters, doWhile, listener).getFuture();
+    }
 
+    /**
+     * Subscribes to the changes feed. The subscription is run by the {@link #getSubscriptionScheduler() subscription scheduler}, so multiple subscriptions can run concurrently.
+     * <p>
+     * After a poll that produced changes, the feed is polled again immediately. Otherwise, the subscription waits (see {@link ChangesPollInterval}) on the {@code listener}. So the listener can be notified to make it poll immediately. When the subscription ends, the listener is notified too.
+     *
+     * @param doWhile  The subscription continues as long as this is true
+     * @param listener Receives every change, together with its position in the feed
+     * @return A handle that can be used to inspect, pause, or stop the subscription
+     * @since 8.15
+     */
+    public ChangesSubscription subscribe(
+        final ChangesFeedParameters parameters,
+        final BooleanSupplier doWhile,
+        final BiConsumer<MediaSince, MediaChange> listener) {
+        return subscribe(parameters, doWhile, listener, null);
+    }
 
-                        }
-                    } catch (NullPointerException npe) {
-                        log.error(npe.getClass().getSimpleName(), npe);
-                    } catch (ConnectException ce) {
-                        if (loggedAboutConnect.isBefore(Instant.now().minus(Duration.ofMinutes(5)))) {
-                            log.info(ce.getClass() + ":" + ce.getMessage());
-                            loggedAboutConnect = Instant.now();
-                        } else {
-                            log.debug(ce.getClass() + ":" + ce.getMessage());
-                        }
+    /**
+     * Like {@link #subscribe(ChangesFeedParameters, BooleanSupplier, BiConsumer)}, but with checkpointing.
+     *
+     * @param checkpointer If not {@code null}, the subscription starts at the position stored in it (if there is one), and the position of handled changes are stored in it.
+     * @since 8.15
+     */
+    public ChangesSubscription subscribe(
+        final ChangesFeedParameters parameters,
+        final BooleanSupplier doWhile,
+        final BiConsumer<MediaSince, MediaChange> listener,
+        final @Nullable ChangesCheckpointer checkpointer) {
+        final ChangesSubscription subscription = new ChangesSubscription(
+            resume(parameters, checkpointer),
+            listener,
+            new ChangesPollInterval(waitBetweenChangeListening, maxWaitBetweenChangeListening)
+        );
+        if (!doWhile.getAsBoolean()) {
+            log.info("No started changes listening, because doWhile condition is already false");
+            subscription.getFuture().complete(subscription.getParameters().getMediaSince());
+            return subscription;
+        }
+        final BiConsumer<MediaSince, MediaChange> effectiveListener = checkpointer == null ? listener :
+            (since, change) -> {
+                listener.accept(since, change);
+                checkpointer.checkpoint(since);
+            };
+        return schedule(subscription, s -> {
+            try {
+                return listenForChanges(s, doWhile, effectiveListener);
+            } finally {
+                if (checkpointer != null) {
+                    checkpointer.flush();
+                }
+            }
+        });
+    }
+
+    /**
+     * Like {@link #subscribe(ChangesFeedParameters, BooleanSupplier, BiConsumer)}, but the changes are delivered in batches, by another thread than the one parsing the feed (see {@link BatchingChangesListener}).
+     * <p>
+     * If the listener fails, the batch is offered again. If it keeps failing, the subscription stops, and its future completes exceptionally. The position checkpointed, and the result of the subscription's future, is the position of the last delivered batch.
+     *
+     * @param batchSize The maximal size of the batches
+     * @param maxAge    A batch is delivered anyway if its first change was received this long ago
+     * @param listener  Receives the batches, together with the position of their last change
+     * @since 8.15
+     */
+    public ChangesSubscription subscribeInBatches(
+        final ChangesFeedParameters parameters,
+        final BooleanSupplier doWhile,
+        final int batchSize,
+        final Duration maxAge,
+        final BiConsumer<MediaSince, List<MediaChange>> listener) {
+        return subscribeInBatches(parameters, doWhile, batchSize, maxAge, listener, null);
+    }
+
+    /**
+     * Like {@link #subscribeInBatches(ChangesFeedParameters, BooleanSupplier, int, Duration, BiConsumer)}, but with checkpointing. The position of a batch is checkpointed after it was delivered.
+     * @since 8.15
+     */
+    public ChangesSubscription subscribeInBatches(
+        final ChangesFeedParameters parameters,
+        final BooleanSupplier doWhile,
+        final int batchSize,
+        final Duration maxAge,
+        final BiConsumer<MediaSince, List<MediaChange>> listener,
+        final @Nullable ChangesCheckpointer checkpointer) {
+        final BatchingChangesListener batching = BatchingChangesListener.builder()
+            .delegate(checkpointer == null ? listener :
+                (since, batch) -> {
+                    listener.accept(since, batch);
+                    checkpointer.checkpoint(since, batch.size());
+                })
+            .batchSize(batchSize)
+            .maxAge(maxAge)
+            .build();
+        final ChangesSubscription subscription = new ChangesSubscription(
+            resume(parameters, checkpointer),
+            batching,
+            new ChangesPollInterval(waitBetweenChangeListening, maxWaitBetweenChangeListening)
+        );
+        subscription.committedBy(batching::getDelivered);
+        return schedule(subscription, s -> {
+            try {
+                // stop if delivering fails, rather than skipping changes
+                listenForChanges(s, () -> doWhile.getAsBoolean() && batching.getFailure() == null, batching);
+            } finally {
+                try {
+                    batching.close();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                if (checkpointer != null) {
+                    checkpointer.flush();
+                }
+            }
+            if (batching.getFailure() != null) {
+                throw new IllegalStateException("Delivering changes failed after " + batching.getDelivered() + ": " + batching.getFailure().getMessage(), batching.getFailure());
+            }
+            return batching.getDelivered() == null ? s.getParameters().getMediaSince() : batching.getDelivered();
+        });
+    }
+
+    /**
+     * Like {@link #subscribe(ChangesFeedParameters, BooleanSupplier, BiConsumer, ChangesCheckpointer)}, but the changes are handled by {@code parallelism} worker threads (see {@link PartitionedChangesListener}). Changes for the same mid are handled in order by the same worker.
+     * <p>
+     * The position checkpointed, the result of the subscription's future, and {@link ChangesSubscription#getMediaSince()}, is the position up to which all changes were completely handled. If the listener keeps failing for a change, the subscription stops, and its future completes exceptionally.
+     *
+     * @since 8.15
+     */
+    public ChangesSubscription subscribeInParallel(
+        final ChangesFeedParameters parameters,
+        final BooleanSupplier doWhile,
+        final int parallelism,
+        final BiConsumer<MediaSince, MediaChange> listener,
+        final @Nullable ChangesCheckpointer checkpointer) {
+        final PartitionedChangesListener partitioned = PartitionedChangesListener.builder()
+            .delegate(listener)
+            .partitions(parallelism)
+            .checkpointer(checkpointer)
+            .build();
+        final ChangesSubscription subscription = new ChangesSubscription(
+            resume(parameters, checkpointer),
+            partitioned,
+            new ChangesPollInterval(waitBetweenChangeListening, maxWaitBetweenChangeListening)
+        );
+        subscription.committedBy(partitioned::getCommitted);
+        return schedule(subscription, s -> {
+            MediaSince result = s.getParameters().getMediaSince();
+            try {
+                // stop if handling fails, rather than skipping changes
+                listenForChanges(s, () -> doWhile.getAsBoolean() && partitioned.getFailure() == null, partitioned);
+            } finally {
+                try {
+                    partitioned.close();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                if (partitioned.getCommitted() != null) {
+                    result = partitioned.getCommitted();
+                }
+                if (checkpointer != null) {
+                    checkpointer.flush();
+                }
+            }
+            if (partitioned.getFailure() != null) {
+                throw new IllegalStateException("Handling changes failed after " + result + ": " + partitioned.getFailure().getMessage(), partitioned.getFailure());
+            }
+            return result;
+        });
+    }
+
+    private ChangesSubscription schedule(ChangesSubscription subscription, Function<ChangesSubscription, MediaSince> loop) {
+        subscriptions.add(subscription);
+        subscription.getFuture().whenComplete((since, t) -> subscriptions.remove(subscription));
+        return subscriptionScheduler.schedule(subscription, loop);
+    }
+
+    private ChangesFeedParameters resume(ChangesFeedParameters parameters, @Nullable ChangesCheckpointer checkpointer) {
+        if (checkpointer == null) {
+            return parameters;
+        }
+        return checkpointer.load()
+            .map(since -> {
+                log.info("Resuming from checkpoint {} (instead of {})", since, parameters.getMediaSince());
+                return parameters.withMediaSince(since);
+            })
+            .orElse(parameters);
+    }
+
+    private MediaSince listenForChanges(
+        final ChangesSubscription subscription,
+        final BooleanSupplier doWhile,
+        final BiConsumer<MediaSince, MediaChange> listener) {
+        final ChangesFeedParameters parameters = subscription.getParameters();
+        ChangesFeedParameters effectiveParameters = parameters;
+        MediaSince currentSince = parameters.getMediaSince();
 
-                    } catch (Exception e) {
-                        log.info(e.getClass() + ":" + e.getMessage());
+        while (subscription.shouldContinue(doWhile)) {
+            try {
+                subscription.awaitResumed();
+            } catch (InterruptedException iae) {
+                log.info("Interrupted");
+                Thread.currentThread().interrupt();
+                break;
+            }
+            Duration wait;
+            try (CountedIterator<MediaChange> changes = changes(effectiveParameters)) {
+                long count = 0;
+                while (changes.hasNext()) {
+                    if (subscription.shouldInterruptFeed()) {
+                        log.info("Breaking with remaining changes because {} (thread {})", subscription, Thread.currentThread());
+                        break;
                     }
-                    try {
-                        synchronized (listener) {
-                            listener.wait(waitBetweenChangeListening.toMillis());
-                        }
-                    } catch (InterruptedException iae) {
-                        log.info("Interrupted");
-                        Thread.currentThread().interrupt();
+                    MediaChange change = changes.next();
+                    currentSince = change.asSince();
+                    listener.accept(currentSince, change);
+                    subscription.handled(currentSince);
+                    effectiveParameters = parameters.withMediaSince(currentSince);
+                    if (!change.isTail()) {
+                        count++;
                     }
                 }
-                log.info("Ready listening for changes until: {}, interrupted: {}", doWhile.getAsBoolean(), Thread.currentThread().isInterrupted());
-                synchronized (listener) {
-                    listener.notifyAll();
+                wait = subscription.getPollInterval().afterPoll(count);
+            } catch (NullPointerException npe) {
+                log.error(npe.getClass().getSimpleName(), npe);
+                wait = subscription.getPollInterval().afterError();
+            } catch (ConnectException ce) {
+                if (loggedAboutConnect.isBefore(Instant.now().minus(Duration.ofMinutes(5)))) {
+                    log.info(ce.getClass() + ":" + ce.getMessage());
+                    loggedAboutConnect = Instant.now();
+                } else {
+                    log.debug(ce.getClass() + ":" + ce.getMessage());
                 }
-                return currentSince;
-            }, EXECUTOR_SERVICE);
-        } else {
-            log.info("No started changes listening, because doWhile condition is already false");
-            return CompletableFuture.completedFuture(parameters.getMediaSince());
+                wait = subscription.getPollInterval().afterError();
+            } catch (Exception e) {
+                log.info(e.getClass() + ":" + e.getMessage());
+                wait = subscription.getPollInterval().afterError();
+            }
+            try {
+                log.debug("{}: waiting {}", subscription, wait);
+                subscription.await(wait);
+            } catch (InterruptedException iae) {
+                log.info("Interrupted");
+                Thread.currentThread().interrupt();
+            }
         }
-
+        log.info("Ready listening for changes until: {}, interrupted: {}", doWhile.getAsBoolean(), Thread.currentThread().isInterrupted());
+        subscription.wakeUp();
+        return currentSince;
     }
 
 
@@ -476,7 +1673,7 @@ public class NpoApiMediaUtil implements MediaProvider {
 
 
     public JsonArrayIterator<MediaChange> changes(ChangesFeedParameters parameters)  {
-        limiter.acquire();
+        limiter.acquire(clients.getPriority());
         try {
             try {
                 JsonArrayIterator<MediaChange> result = MediaRestClientUtils.changes(clients.getMediaServiceNoTimeout(), parameters);
@@ -491,9 +1688,74 @@ public class NpoApiMediaUtil implements MediaProvider {
         }
     }
 
+    /**
+     * Adds the current media objects to the given changes. They are loaded from the API in batches of (at most) 240. Since they changed, they are not taken from the cache, but the cache is updated with them.
+     * @since 8.15
+     */
+    public EnrichingChangesIterator enrich(Iterator<MediaChange> changes) {
+        return EnrichingChangesIterator.builder()
+            .changes(changes)
+            .loader(this::loadChanged)
+            .build();
+    }
+
+    /**
+     * Loads the given mids from the API, bypassing the caches (which may contain outdated versions), and updates the caches with the results.
+     */
+    private MediaObject[] loadChanged(String... mids) {
+        limiter.acquire(clients.getPriority());
+        final long start = System.nanoTime();
+        final MediaObject[] result;
+        try {
+            result = MediaRestClientUtils.load(clients.getMediaService(), mids);
+            limiter.upRate(Duration.ofNanos(System.nanoTime() - start));
+        } catch (ProcessingException pe) {
+            limiter.downRate(pe);
+            try {
+                unwrapIO(pe);
+            } catch (IOException ioe) {
+                throw new UncheckedIOException(ioe);
+            }
+            throw pe;
+        } catch (RuntimeException rte) {
+            limiter.downRate(rte);
+            throw rte;
+        }
+        final OffHeapCache<MediaObject> l2 = secondLevelCache;
+        for (int i = 0; i < mids.length; i++) {
+            if (result[i] == null) {
+                if (isNegativeCacheEnabled()) {
+                    cache.invalidate(mids[i]);
+                    negativeCache.put(mids[i], Boolean.TRUE);
+                } else {
+                    cache.put(mids[i], Optional.empty());
+                }
+                if (l2 != null) {
+                    l2.invalidate(mids[i]);
+                }
+            } else {
+                negativeCache.invalidate(mids[i]);
+                cache.put(mids[i], Optional.of(result[i]));
+                if (l2 != null) {
+                    l2.put(mids[i], result[i]);
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * The changes feed, with the current media objects added to the changes.
+     * @see #enrich(Iterator)
+     * @since 8.15
+     */
+    public EnrichingChangesIterator changesWithMedia(ChangesFeedParameters parameters) {
+        return enrich(changes(parameters));
+    }
+
     @Deprecated
     public JsonArrayIterator<MediaChange> changes(String profile, Long since, Order order, Integer max) {
-        limiter.acquire();
+        limiter.acquire(clients.getPriority());
         try {
             JsonArrayIterator<MediaChange> result = MediaRestClientUtils.changes(clients.getMediaServiceNoTimeout(), profile, since, order, max);
             limiter.upRate();
@@ -508,14 +1770,14 @@ public class NpoApiMediaUtil implements MediaProvider {
      * Calls {@link nl.vpro.api.rs.v3.media.MediaRestService#iterate(MediaForm, String, String, Long, Integer)}, and wraps the resulting {@link java.io.InputStream} in an {@link Iterator} of {@link MediaObject}}
      */
     public CloseableIterator<MediaObject> iterate(MediaForm form, String profile)  {
-        limiter.acquire();
+        limiter.acquire(clients.getPriority());
         try {
             CloseableIterator<MediaObject> result = MediaRestClientUtils
                 .iterate(clients.getMediaServiceNoTimeout(), form, profile, iterateLogProgress);
             limiter.upRate();
             return result;
         } catch (Throwable e) {
-            limiter.downRate();
+            limiter.downRate(e);
             throw new RuntimeException(clients + ":" + e.getMessage(), e);
         }
     }
@@ -0,0 +1,42 @@
+package nl.vpro.api.client.utils;
+
+/**
+ * Exposes the state of the cache of {@link NpoApiMediaUtil} via JMX.
+ *
+ * @author Michiel Meeuwissen
+ * @since 8.15
+ */
+public interface NpoApiMediaUtilMXBean {
+
+    /**
+     * The number of entries in the cache
+     */
+    long getCacheEntries();
+
+    /**
+     * The estimated number of bytes occupied by the cache, or {@code -1} if the cache is bounded by number of entries.
+     */
+    long getCacheWeight();
+
+    /**
+     * The maximal number of bytes the cache may occupy, or {@code -1} if the cache is bounded by number of entries.
+     */
+    long getCacheMaxWeight();
+
+    double getCacheHitRate();
+
+    long getCacheEvictions();
+
+    long getCacheInvalidations();
+
+    /**
+     * The number of background refreshes that were skipped, because the refresh executor was saturated
+     */
+    long getCacheRefreshesRejected();
+
+    long getNegativeCacheEntries();
+
+    String getCacheStalenessString();
+
+    void clearCache();
+}
@@ -1,8 +1,10 @@
 package nl.vpro.api.client.utils;
 
 import lombok.EqualsAndHashCode;
+import lombok.Setter;
 
 import java.util.*;
+import java.util.concurrent.*;
 import java.util.function.Supplier;
 
 import jakarta.inject.Inject;
@@ -33,6 +35,12 @@ public class NpoApiPageUtil {
     final NpoApiRateLimiter limiter;
     private final Map<SupplyKey, PageSupplier> pageSupplier = new HashMap<>();
 
+    /**
+     * Executor used by the asynchronous methods (like {@link #loadAsync(String...)}). Defaults to virtual threads, so a request in flight does not occupy a platform thread.
+     */
+    @Setter
+    private ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+
     @Inject
     public NpoApiPageUtil(NpoApiClients clients, NpoApiRateLimiter limiter) {
         this.clients = clients;
@@ -61,7 +69,7 @@ public class NpoApiPageUtil {
                     if (offset >= end) {
                         return null;
                     }
-                    limiter.acquire();
+                    limiter.acquire(clients.getPriority());
                     MultiplePageResult pageResult = clients.getPageService().loadMultiple(idList.subList(offset.intValue(), end), null, null);
                     limiter.upRate();
                     return pageResult.iterator();
@@ -86,7 +94,7 @@ public class NpoApiPageUtil {
         String profile,
         Long offset,
         Integer max) {
-        limiter.acquire();
+        limiter.acquire(clients.getPriority());
         PageSearchResult result = clients.getPageService().find(form, profile, null, offset == null ? 0 : offset, max);
         limiter.upRate();
         return result;
@@ -122,14 +130,45 @@ public class NpoApiPageUtil {
         return result;
     }
 
+    /**
+     * Asynchronous version of {@link #load(String...)}. It shares the rate limiter with the blocking methods.
+     * @since 8.15
+     */
+    public CompletableFuture<Page[]> loadAsync(String... id) {
+        return async(() -> load(id));
+    }
+
+    /**
+     * Asynchronous version of {@link #find(PageForm, String, Long, Integer)}
+     * @since 8.15
+     */
+    public CompletableFuture<PageSearchResult> findAsync(PageForm form, String profile, Long offset, Integer max) {
+        return async(() -> find(form, profile, offset, max));
+    }
+
+    /**
+     * Asynchronous version of {@link #loadByMid(List, String, String...)}
+     * @since 8.15
+     */
+    public CompletableFuture<Page[]> loadByMidAsync(List<String> profiles, String props, String... mids) {
+        return async(() -> loadByMid(profiles, props, mids));
+    }
+
+    /**
+     * Runs the given call in {@link #executor}, with the current settings of {@link NpoApiClients} (like the profile). Permits of the rate limiter are acquired by the call itself, which with the default executor only parks a virtual thread.
+     */
+    private <T> CompletableFuture<T> async(Supplier<T> supplier) {
+        return CompletableFuture.supplyAsync(clients.withCurrentSettings(supplier), executor);
+    }
+
     public CloseableIterator<Page> iterate(PageForm form, String profile) {
-        limiter.acquire();
+        limiter.acquire(clients.getPriority());
         try {
             CloseableIterator<Page> result = PageRestClientUtils.iterate(clients.getPageServiceNoTimeout(), form, profile);
             limiter.upRate();
             return result;
         } catch (Throwable e) {
-            limiter.downRate();
+            limiter.downRate(e);
             throw new RuntimeException(clients + ":" + e.getMessage(), e);
         }
     }
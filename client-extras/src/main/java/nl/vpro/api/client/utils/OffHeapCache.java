@@ -0,0 +1,253 @@
+package nl.vpro.api.client.utils;
+
+import lombok.Getter;
+import lombok.Setter;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.checkerframework.checker.nullness.qual.NonNull;
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+
+import nl.vpro.jackson2.Jackson2Mapper;
+
+/**
+ * A cache which keeps its values serialized, outside the java heap. It is meant as a second level behind an on-heap cache (like the one of {@link NpoApiMediaUtil}), so that a much larger set of objects can be kept without putting pressure on the garbage collector. Values are only deserialized when they are requested.
+ * <p>
+ * The memory is managed as a slab: it is divided in blocks of {@link #BLOCK_SIZE} bytes, allocated as direct byte buffers of {@link #ARENA_BLOCKS} blocks at a time, up to the maximal size. A value occupies as many blocks as it needs, which are explicitly returned to a free list when the entry is removed, so no direct buffers are allocated per entry (those are only released by the garbage collector). The arenas themselves are released on {@link #close()}.
+ * <p>
+ * The cache is bounded by the number of blocks, and evicts the least recently used entries. Note that the JVM limits the amount of direct memory (see {@code -XX:MaxDirectMemorySize}).
+ *
+ * @author Michiel Meeuwissen
+ * @since 8.15
+ */
+@Slf4j
+public class OffHeapCache<V> implements AutoCloseable {
+
+    static final int BLOCK_SIZE = 4096;
+    static final int ARENA_BLOCKS = 4096;
+
+    private record Entry(int[] blocks, int length, long created) {
+    }
+
+    private final ObjectReader reader;
+    private final ObjectWriter writer;
+
+    @Getter
+    private final long maxBytes;
+    @Getter
+    @Setter
+    private volatile Duration ttl;
+
+    private final int maxBlocks;
+    private final List<ByteBuffer> arenas = new ArrayList<>();
+    /**
+     * Blocks that were used and are free again
+     */
+    private int[] freeBlocks = new int[0];
+    private int freeCount = 0;
+    /**
+     * Blocks beyond this were never used
+     */
+    private int unusedBlock = 0;
+
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long bytes = 0;
+
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong missCount = new AtomicLong();
+    private final AtomicLong evictionCount = new AtomicLong();
+
+    @lombok.Builder
+    private OffHeapCache(
+        @NonNull Class<V> type,
+        long maxBytes,
+        @Nullable Duration ttl) {
+        this.reader = Jackson2Mapper.getInstance().readerFor(type);
+        this.writer = Jackson2Mapper.getInstance().writerFor(type);
+        this.maxBytes = maxBytes;
+        this.maxBlocks = (int) Math.min(Integer.MAX_VALUE, (maxBytes + BLOCK_SIZE - 1) / BLOCK_SIZE);
+        this.ttl = ttl == null ? Duration.ofHours(1) : ttl;
+    }
+
+    public Optional<V> get(String key) {
+        final byte[] serialized;
+        synchronized (this) {
+            final Entry entry = entries.get(key);
+            if (entry == null) {
+                missCount.incrementAndGet();
+                return Optional.empty();
+            }
+            if (System.currentTimeMillis() - entry.created() > ttl.toMillis()) {
+                remove(key);
+                missCount.incrementAndGet();
+                return Optional.empty();
+            }
+            serialized = read(entry);
+        }
+        try {
+            final V value = reader.readValue(serialized);
+            hitCount.incrementAndGet();
+            return Optional.of(value);
+        } catch (IOException e) {
+            log.warn("Could not deserialize {}: {} {}", key, e.getClass().getName(), e.getMessage());
+            invalidate(key);
+            missCount.incrementAndGet();
+            return Optional.empty();
+        }
+    }
+
+    public void put(String key, V value) {
+        final byte[] serialized;
+        try {
+            serialized = writer.writeValueAsBytes(value);
+        } catch (IOException e) {
+            log.warn("Could not serialize {}: {} {}", key, e.getClass().getName(), e.getMessage());
+            return;
+        }
+        final int needed = Math.max(1, (serialized.length + BLOCK_SIZE - 1) / BLOCK_SIZE);
+        if (serialized.length > maxBytes || needed > maxBlocks) {
+            log.debug("{} is too big ({} bytes)", key, serialized.length);
+            invalidate(key);
+            return;
+        }
+        synchronized (this) {
+            remove(key);
+            final Iterator<Map.Entry<String, Entry>> i = entries.entrySet().iterator();
+            while ((available() < needed || bytes + serialized.length > maxBytes) && i.hasNext()) {
+                final Entry eldest = i.next().getValue();
+                i.remove();
+                free(eldest);
+                evictionCount.incrementAndGet();
+            }
+            final Entry entry = new Entry(allocate(needed), serialized.length, System.currentTimeMillis());
+            write(entry, serialized);
+            entries.put(key, entry);
+            bytes += serialized.length;
+        }
+    }
+
+    public synchronized void invalidate(String key) {
+        remove(key);
+    }
+
+    public synchronized void invalidateAll() {
+        entries.clear();
+        bytes = 0;
+        freeCount = 0;
+        unusedBlock = 0;
+    }
+
+    /**
+     * Removes all entries, and releases the off heap memory.
+     */
+    @Override
+    public synchronized void close() {
+        invalidateAll();
+        arenas.clear();
+        freeBlocks = new int[0];
+    }
+
+    /**
+     * The number of entries
+     */
+    public synchronized long size() {
+        return entries.size();
+    }
+
+    /**
+     * The total number of bytes of the stored values
+     */
+    public synchronized long getBytes() {
+        return bytes;
+    }
+
+    /**
+     * The number of bytes of off heap memory that is currently allocated
+     */
+    public synchronized long getAllocatedBytes() {
+        return (long) arenas.size() * ARENA_BLOCKS * BLOCK_SIZE;
+    }
+
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+    public long getMissCount() {
+        return missCount.get();
+    }
+
+    public long getEvictionCount() {
+        return evictionCount.get();
+    }
+
+    private void remove(String key) {
+        final Entry removed = entries.remove(key);
+        if (removed != null) {
+            free(removed);
+        }
+    }
+
+    private int available() {
+        return freeCount + (maxBlocks - unusedBlock);
+    }
+
+    private int[] allocate(int count) {
+        final int[] result = new int[count];
+        for (int j = 0; j < count; j++) {
+            result[j] = freeCount > 0 ? freeBlocks[--freeCount] : unusedBlock++;
+        }
+        return result;
+    }
+
+    private void free(Entry entry) {
+        bytes -= entry.length();
+        if (freeBlocks.length < freeCount + entry.blocks().length) {
+            freeBlocks = Arrays.copyOf(freeBlocks, Math.min(maxBlocks, Math.max(freeBlocks.length * 2, freeCount + entry.blocks().length)));
+        }
+        for (int block : entry.blocks()) {
+            freeBlocks[freeCount++] = block;
+        }
+    }
+
+    private void write(Entry entry, byte[] serialized) {
+        int offset = 0;
+        for (int block : entry.blocks()) {
+            final int length = Math.min(BLOCK_SIZE, serialized.length - offset);
+            arena(block).put((block % ARENA_BLOCKS) * BLOCK_SIZE, serialized, offset, length);
+            offset += length;
+        }
+    }
+
+    private byte[] read(Entry entry) {
+        final byte[] result = new byte[entry.length()];
+        int offset = 0;
+        for (int block : entry.blocks()) {
+            final int length = Math.min(BLOCK_SIZE, result.length - offset);
+            arena(block).get((block % ARENA_BLOCKS) * BLOCK_SIZE, result, offset, length);
+            offset += length;
+        }
+        return result;
+    }
+
+    private ByteBuffer arena(int block) {
+        final int index = block / ARENA_BLOCKS;
+        while (arenas.size() <= index) {
+            final int blocks = (int) Math.min(ARENA_BLOCKS, maxBlocks - (long) arenas.size() * ARENA_BLOCKS);
+            arenas.add(ByteBuffer.allocateDirect(blocks * BLOCK_SIZE));
+        }
+        return arenas.get(index);
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + " (" + size() + " entries, " + getBytes() + "/" + maxBytes + " bytes)";
+    }
+}
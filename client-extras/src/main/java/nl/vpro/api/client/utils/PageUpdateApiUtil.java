@@ -16,7 +16,9 @@ import java.io.StringWriter;
 import java.net.SocketException;
 import java.util.HashMap;
 import java.util.Optional;
+import java.util.concurrent.*;
 import java.util.function.Function;
+import java.util.function.Supplier;
 
 import org.apache.commons.lang3.exception.ExceptionUtils;
 import org.apache.http.impl.execchain.RequestAbortedException;
@@ -55,6 +57,12 @@ public class PageUpdateApiUtil {
     @Setter
     private boolean retryErrors = true;
 
+    /**
+     * Executor used by the asynchronous methods (like {@link #saveAsync(PageUpdate)}). Defaults to virtual threads.
+     */
+    @Setter
+    private ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+
     @Inject
     @lombok.Builder
     public PageUpdateApiUtil(
@@ -89,6 +97,26 @@ public class PageUpdateApiUtil {
     }
 
 
+    /**
+     * Asynchronous version of {@link #save(PageUpdate)}. The permit of the rate limiter is acquired in {@link #executor}, which with the default executor only parks a virtual thread.
+     * @since 8.15
+     */
+    public CompletableFuture<Result<Void>> saveAsync(@NotNull @Valid PageUpdate update) {
+        return async(() -> save(update, false));
+    }
+
+    /**
+     * Asynchronous version of {@link #delete(String)}
+     * @since 8.15
+     */
+    public CompletableFuture<DeleteResult> deleteAsync(@NotNull String id) {
+        return async(() -> delete(id));
+    }
+
+    private <T> CompletableFuture<T> async(Supplier<T> supplier) {
+        return CompletableFuture.supplyAsync(supplier, executor);
+    }
+
     public PageUpdate get(@NotNull String url) {
         limiter.acquire();
         PageIdMatch match = url.startsWith("crid:") ? PageIdMatch.CRID : PageIdMatch.URL;
@@ -0,0 +1,240 @@
+package nl.vpro.api.client.utils;
+
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.BiConsumer;
+
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+import nl.vpro.domain.api.MediaChange;
+import nl.vpro.domain.api.MediaSince;
+
+/**
+ * Distributes the changes it receives over a number of worker threads, which each call the delegate listener. Changes are partitioned by mid, so changes for the same media object are still handled in order, by the same worker.
+ * <p>
+ * Since the workers progress independently, the position up to which the feed is fully processed is the position just before the oldest change still being handled. That position is available as {@link #getCommitted()}, and is given to a {@link ChangesCheckpointer} if one is configured, so a restart never skips an unhandled change (but it may handle some changes again).
+ * <p>
+ * A change is only marked as handled if the delegate succeeded. If it fails, the change is offered again (after {@code retryDelay}, which doubles every attempt). After {@code maxAttempts} failures the listener gives up: the committed position stays before the failed change, {@link #getFailure()} is set, and {@link #accept(MediaSince, MediaChange)} throws an exception from then on.
+ *
+ * @author Michiel Meeuwissen
+ * @since 8.15
+ * @see NpoApiMediaUtil#subscribeInParallel(ChangesFeedParameters, java.util.function.BooleanSupplier, int, BiConsumer, ChangesCheckpointer)
+ */
+@Slf4j
+public class PartitionedChangesListener implements BiConsumer<MediaSince, MediaChange>, AutoCloseable {
+
+    private record Entry(long sequence, MediaSince since, MediaChange change) {
+    }
+
+    private static final Entry END = new Entry(-1, null, null);
+
+    private final BiConsumer<MediaSince, MediaChange> delegate;
+    @Getter
+    private final int partitions;
+    private final @Nullable ChangesCheckpointer checkpointer;
+    @Getter
+    private final int maxAttempts;
+    @Getter
+    private final Duration retryDelay;
+    private final List<BlockingQueue<Entry>> queues;
+    private final List<Thread> workers;
+
+    /**
+     * Sequence numbers of the changes which were received, but not yet completely handled
+     */
+    private final SortedSet<Long> inProgress = new TreeSet<>();
+    /**
+     * Changes which were handled, but can't be committed yet, because an older change is still in progress
+     */
+    private final SortedMap<Long, MediaSince> done = new TreeMap<>();
+
+    private long sequence = 0;
+    private volatile boolean closed = false;
+
+    /**
+     * Guards the writes to {@link #checkpointer}, which are done outside the lock on this, so that storing a checkpoint does not block the workers and the producer.
+     */
+    private final Object checkpointLock = new Object();
+    private long checkpointedSequence = -1;
+
+    @Getter
+    private volatile MediaSince committed;
+
+    /**
+     * If the delegate failed {@link #getMaxAttempts()} times for the same change, the last exception it threw. No changes are handled anymore then.
+     */
+    @Getter
+    private volatile Exception failure;
+
+    @lombok.Builder
+    private PartitionedChangesListener(
+        BiConsumer<MediaSince, MediaChange> delegate,
+        Integer partitions,
+        Integer queueCapacity,
+        @Nullable ChangesCheckpointer checkpointer,
+        Integer maxAttempts,
+        Duration retryDelay) {
+        this.delegate = delegate;
+        this.partitions = partitions == null ? Runtime.getRuntime().availableProcessors() : partitions;
+        if (this.partitions < 1) {
+            throw new IllegalArgumentException("partitions should be at least 1");
+        }
+        this.checkpointer = checkpointer;
+        this.maxAttempts = maxAttempts == null ? 5 : maxAttempts;
+        this.retryDelay = retryDelay == null ? Duration.ofSeconds(1) : retryDelay;
+        final int capacity = queueCapacity == null ? 1000 : queueCapacity;
+        final List<BlockingQueue<Entry>> q = new ArrayList<>(this.partitions);
+        final List<Thread> w = new ArrayList<>(this.partitions);
+        for (int i = 0; i < this.partitions; i++) {
+            final BlockingQueue<Entry> queue = new ArrayBlockingQueue<>(capacity);
+            q.add(queue);
+            w.add(Thread.ofVirtual()
+                .name("npo-api-changes-partition-" + i)
+                .start(() -> consume(queue)));
+        }
+        this.queues = Collections.unmodifiableList(q);
+        this.workers = Collections.unmodifiableList(w);
+    }
+
+    /**
+     * Hands the change to the worker of its partition. Blocks if that worker is too far behind.
+     */
+    @Override
+    public void accept(MediaSince since, MediaChange change) {
+        if (failure != null) {
+            throw new IllegalStateException(this + " failed: " + failure.getMessage(), failure);
+        }
+        if (closed) {
+            throw new IllegalStateException(this + " is closed");
+        }
+        final long seq;
+        synchronized (this) {
+            seq = sequence++;
+            inProgress.add(seq);
+        }
+        if (change.isTail() || change.getMid() == null) {
+            // nothing to handle, but it does move the position
+            completed(seq, since);
+            return;
+        }
+        try {
+            queues.get(partition(change.getMid())).put(new Entry(seq, since, change));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Waits until all received changes are handled, and stops the workers.
+     */
+    @Override
+    public void close() throws InterruptedException {
+        if (!closed) {
+            closed = true;
+            for (int i = 0; i < partitions; i++) {
+                // if the worker gave up, it does not take from its queue anymore
+                while (workers.get(i).isAlive() && !queues.get(i).offer(END, 100, TimeUnit.MILLISECONDS)) {
+                    log.debug("Waiting for room to close {}", this);
+                }
+            }
+        }
+        for (Thread worker : workers) {
+            worker.join();
+        }
+    }
+
+    /**
+     * The number of changes that were received, but are not yet handled
+     */
+    public synchronized int getInProgress() {
+        return inProgress.size();
+    }
+
+    int partition(String mid) {
+        return Math.floorMod(mid.hashCode(), partitions);
+    }
+
+    private void consume(BlockingQueue<Entry> queue) {
+        try {
+            while (failure == null) {
+                final Entry entry = queue.take();
+                if (entry == END) {
+                    break;
+                }
+                if (!handle(entry)) {
+                    // other workers stop too, and producers waiting for room are released
+                    queues.forEach(BlockingQueue::clear);
+                    break;
+                }
+                completed(entry.sequence(), entry.since());
+            }
+        } catch (InterruptedException e) {
+            log.info("Interrupted");
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Calls the delegate, retrying if it fails.
+     * @return Whether the change was handled. If not, {@link #failure} is set.
+     */
+    private boolean handle(Entry entry) throws InterruptedException {
+        Duration delay = retryDelay;
+        for (int attempt = 1; ; attempt++) {
+            try {
+                delegate.accept(entry.since(), entry.change());
+                return true;
+            } catch (Exception e) {
+                if (attempt >= maxAttempts) {
+                    log.error("Giving up handling {} after {} attempts: {} {}", entry.change(), attempt, e.getClass().getName(), e.getMessage(), e);
+                    failure = e;
+                    return false;
+                }
+                log.warn("Error handling {} (attempt {}), retrying after {}: {} {}", entry.change(), attempt, delay, e.getClass().getName(), e.getMessage());
+                Thread.sleep(delay.toMillis());
+                delay = delay.multipliedBy(2);
+            }
+        }
+    }
+
+    private void completed(long seq, MediaSince since) {
+        MediaSince newCommitted = null;
+        long newCommittedSequence = -1;
+        long count = 0;
+        synchronized (this) {
+            inProgress.remove(seq);
+            done.put(seq, since);
+            final long oldestInProgress = inProgress.isEmpty() ? Long.MAX_VALUE : inProgress.first();
+            while (!done.isEmpty() && done.firstKey() < oldestInProgress) {
+                newCommittedSequence = done.firstKey();
+                newCommitted = done.remove(newCommittedSequence);
+                count++;
+            }
+            if (newCommitted != null) {
+                committed = newCommitted;
+            }
+        }
+        if (newCommitted != null) {
+            log.debug("Committed {}", newCommitted);
+            if (checkpointer != null) {
+                synchronized (checkpointLock) {
+                    // another worker may have committed a later position meanwhile
+                    if (newCommittedSequence > checkpointedSequence) {
+                        checkpointedSequence = newCommittedSequence;
+                        checkpointer.checkpoint(newCommitted, count);
+                    }
+                }
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + " (partitions: " + partitions + ", committed: " + committed + ")";
+    }
+}
@@ -0,0 +1,175 @@
+package nl.vpro.api.client.utils;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.*;
+
+import org.checkerframework.checker.nullness.qual.NonNull;
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+import nl.vpro.domain.api.Result;
+import nl.vpro.domain.media.MediaObject;
+import nl.vpro.util.CloseableIterator;
+import nl.vpro.util.CountedIterator;
+
+/**
+ * Lazy version of {@link NpoApiMediaUtil#unPage(BiFunction, Predicate, int)}. Pages are only requested when the previous one is consumed. Optionally the next page is requested already while the current one is being consumed.
+ * <p>
+ * The API does not allow offsets beyond a certain window. If a {@code fallback} is configured, that is used to obtain the results beyond that (see e.g. {@link NpoApiMediaUtil#iterateDescendants(String, nl.vpro.domain.api.Order, Predicate, long)}). Otherwise, iteration just stops there.
+ *
+ * @author Michiel Meeuwissen
+ * @since 8.15
+ */
+@Slf4j
+public class UnPagingIterator<T extends MediaObject> implements CountedIterator<T> {
+
+    private final BiFunction<Integer, Long, ? extends Result<T>> supplier;
+    private final Predicate<? super T> filter;
+    private final long max;
+    private final int batchSize;
+    private final long maxWindow;
+    private final Executor prefetchExecutor;
+    private final LongFunction<? extends CloseableIterator<T>> fallback;
+
+    private Iterator<T> currentPage;
+    private CompletableFuture<? extends Result<T>> nextPage;
+    private CloseableIterator<T> fallbackIterator;
+    private long offset = 0;
+    private Long total;
+    private boolean exhausted = false;
+
+    private T next;
+    private long count = 0;
+
+    /**
+     * @param supplier         Function (max, offset) -&gt; page
+     * @param prefetchExecutor If not {@code null}, the next page will be requested in this executor as soon as the current one is received
+     * @param fallback         Function offset -&gt; iterator, to be used for offsets beyond {@code maxWindow}
+     */
+    @lombok.Builder
+    private UnPagingIterator(
+        @NonNull BiFunction<Integer, Long, ? extends Result<T>> supplier,
+        @Nullable Predicate<? super T> filter,
+        @Nullable Long max,
+        @Nullable Integer batchSize,
+        @Nullable Long maxWindow,
+        @Nullable Executor prefetchExecutor,
+        @Nullable LongFunction<? extends CloseableIterator<T>> fallback) {
+        this.supplier = supplier;
+        this.filter = filter == null ? t -> true : filter;
+        this.max = max == null ? Long.MAX_VALUE : max;
+        this.batchSize = batchSize == null ? 240 : batchSize;
+        this.maxWindow = maxWindow == null ? 10000 : maxWindow;
+        this.prefetchExecutor = prefetchExecutor;
+        this.fallback = fallback;
+    }
+
+    @Override
+    public boolean hasNext() {
+        return findNext();
+    }
+
+    @Override
+    public T next() {
+        if (!findNext()) {
+            throw new NoSuchElementException();
+        }
+        T result = next;
+        next = null;
+        count++;
+        return result;
+    }
+
+    @Override
+    public @NonNull Long getCount() {
+        return count;
+    }
+
+    /**
+     * The total number of results as reported by the API (so without taking into account the filter and max). Empty if no page was requested yet.
+     */
+    @Override
+    public Optional<Long> getTotalSize() {
+        return Optional.ofNullable(total);
+    }
+
+    @Override
+    public void close() throws Exception {
+        if (nextPage != null) {
+            nextPage.cancel(true);
+            nextPage = null;
+        }
+        if (fallbackIterator != null) {
+            fallbackIterator.close();
+        }
+        exhausted = true;
+    }
+
+    private boolean findNext() {
+        while (next == null) {
+            if (count >= max) {
+                return false;
+            }
+            final Iterator<T> source = fallbackIterator != null ? fallbackIterator : currentPage;
+            if (source != null && source.hasNext()) {
+                T candidate = source.next();
+                if (filter.test(candidate)) {
+                    next = candidate;
+                }
+                continue;
+            }
+            if (fallbackIterator != null || exhausted || (total != null && offset >= total)) {
+                return false;
+            }
+            if (offset > maxWindow - batchSize) {
+                if (fallback == null) {
+                    log.info("Offset {} is getting too big, and no fallback configured. Breaking", offset);
+                    exhausted = true;
+                    return false;
+                }
+                log.debug("Offset {} is getting too big. Using fallback", offset);
+                fallbackIterator = fallback.apply(offset);
+                continue;
+            }
+            nextPage();
+        }
+        return true;
+    }
+
+    private void nextPage() {
+        final Result<T> page;
+        if (nextPage != null) {
+            try {
+                page = nextPage.join();
+            } catch (CompletionException ce) {
+                if (ce.getCause() instanceof RuntimeException runtimeException) {
+                    throw runtimeException;
+                }
+                throw ce;
+            } finally {
+                nextPage = null;
+            }
+        } else {
+            page = supplier.apply(batchSize, offset);
+        }
+        total = page.getTotal();
+        if (page.getSize() == 0) {
+            exhausted = true;
+            currentPage = null;
+            return;
+        }
+        currentPage = page.getItems().iterator();
+        offset += batchSize;
+        if (prefetchExecutor != null && offset < total && offset <= maxWindow - batchSize) {
+            final long prefetchOffset = offset;
+            nextPage = CompletableFuture.supplyAsync(() -> supplier.apply(batchSize, prefetchOffset), prefetchExecutor);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "UnPagingIterator " + count + "/" + total;
+    }
+}
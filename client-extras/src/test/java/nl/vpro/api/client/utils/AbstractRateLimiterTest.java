@@ -0,0 +1,89 @@
+package nl.vpro.api.client.utils;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import jakarta.ws.rs.WebApplicationException;
+import jakarta.ws.rs.core.Response;
+
+import org.junit.jupiter.api.Test;
+
+import nl.vpro.api.client.frontend.CallPriority;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
+
+class AbstractRateLimiterTest {
+
+    private final AbstractRateLimiter limiter = new AbstractRateLimiter();
+
+    @Test
+    void acquire() {
+        limiter.setBaseRate(20);
+        limiter.acquire();
+        final long start = System.nanoTime();
+        for (int i = 0; i < 10; i++) {
+            limiter.acquire();
+        }
+        // 10 permits at 20/s
+        assertThat(System.nanoTime() - start).isGreaterThan(TimeUnit.MILLISECONDS.toNanos(400));
+    }
+
+    @Test
+    void backgroundGivesWay() throws Exception {
+        limiter.setBaseRate(10);
+        limiter.acquire();
+        final List<String> order = new CopyOnWriteArrayList<>();
+        final Thread background = Thread.startVirtualThread(() -> {
+            limiter.acquire(CallPriority.BACKGROUND);
+            order.add("background");
+        });
+        Thread.sleep(20);
+        limiter.acquire(CallPriority.INTERACTIVE);
+        order.add("interactive");
+        background.join(5000);
+        assertThat(order).containsExactly("interactive", "background");
+    }
+
+    @Test
+    void additiveIncreaseMultiplicativeDecrease() {
+        limiter.setBaseRate(100);
+        limiter.setMinRate(1);
+        limiter.setCurrentRateToMinRate();
+        assertThat(limiter.getRate()).isEqualTo(1);
+        limiter.upRate();
+        limiter.upRate();
+        // 2 * 5% of 100
+        assertThat(limiter.getRate()).isCloseTo(11, within(0.001));
+
+        // a single error has no effect
+        limiter.downRate();
+        assertThat(limiter.getRate()).isCloseTo(11, within(0.001));
+        limiter.downRate();
+        limiter.downRate();
+        assertThat(limiter.getRate()).isCloseTo(11 * 0.7, within(0.001));
+    }
+
+    @Test
+    void retryAfter() {
+        limiter.setBaseRate(100);
+        limiter.setMinRate(0.01);
+        limiter.downRate(new WebApplicationException(Response.status(429).header("Retry-After", "10").build()));
+        assertThat(limiter.getRate()).isCloseTo(0.1, within(0.001));
+        assertThat(AbstractRateLimiter.retryAfter("Wed, 21 Oct 2015 07:28:00 GMT")).isNull();
+    }
+
+    @Test
+    void latency() {
+        limiter.setBaseRate(100);
+        limiter.setLatencyThreshold(Duration.ofMillis(100));
+        for (int i = 0; i < 9; i++) {
+            limiter.upRate(Duration.ofMillis(500));
+        }
+        assertThat(limiter.getRate()).isEqualTo(100);
+        limiter.upRate(Duration.ofMillis(500));
+        assertThat(limiter.getRate()).isLessThan(100);
+    }
+}
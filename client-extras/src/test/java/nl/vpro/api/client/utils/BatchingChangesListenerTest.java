@@ -0,0 +1,150 @@
+package nl.vpro.api.client.utils;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.*;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
+
+import org.junit.jupiter.api.Test;
+
+import nl.vpro.domain.api.MediaChange;
+import nl.vpro.domain.api.MediaSince;
+
+import static nl.vpro.api.client.utils.ChangesSubscriptionTest.awaitUntil;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class BatchingChangesListenerTest {
+
+    private final List<List<MediaChange>> batches = new CopyOnWriteArrayList<>();
+    private final List<MediaSince> positions = new CopyOnWriteArrayList<>();
+
+    @Test
+    void flushesOnSize() throws Exception {
+        final List<MediaChange> changes = new ArrayList<>();
+        try (BatchingChangesListener listener = BatchingChangesListener.builder()
+            .delegate(this::receive)
+            .batchSize(3)
+            .maxAge(Duration.ofMinutes(1))
+            .build()) {
+            for (int i = 0; i < 7; i++) {
+                MediaChange change = change(false);
+                changes.add(change);
+                listener.accept(since(i), change);
+            }
+            awaitUntil(() -> batches.size() == 2);
+            assertThat(batches.get(0)).containsExactlyElementsOf(changes.subList(0, 3));
+            assertThat(batches.get(1)).containsExactlyElementsOf(changes.subList(3, 6));
+            assertThat(positions).containsExactly(since(2), since(5));
+            assertThat(listener.getDelivered()).isEqualTo(since(5));
+        }
+        // the remainder is delivered on close
+        assertThat(batches).hasSize(3);
+        assertThat(batches.get(2)).containsExactly(changes.get(6));
+        assertThat(positions).endsWith(since(6));
+    }
+
+    @Test
+    void flushesOnAge() throws Exception {
+        try (BatchingChangesListener listener = BatchingChangesListener.builder()
+            .delegate(this::receive)
+            .batchSize(100)
+            .maxAge(Duration.ofMillis(50))
+            .build()) {
+            listener.accept(since(0), change(false));
+            listener.accept(since(1), change(false));
+            awaitUntil(() -> batches.size() == 1);
+            assertThat(batches.get(0)).hasSize(2);
+            assertThat(positions).containsExactly(since(1));
+        }
+    }
+
+    @Test
+    void tailsAreNotDelivered() throws Exception {
+        try (BatchingChangesListener listener = BatchingChangesListener.builder()
+            .delegate(this::receive)
+            .batchSize(2)
+            .build()) {
+            listener.accept(since(0), change(true));
+            awaitUntil(() -> since(0).equals(listener.getDelivered()));
+        }
+        assertThat(batches).isEmpty();
+    }
+
+    @Test
+    void failedBatchIsRetried() throws Exception {
+        final AtomicInteger calls = new AtomicInteger();
+        try (BatchingChangesListener listener = BatchingChangesListener.builder()
+            .delegate((since, batch) -> {
+                if (calls.incrementAndGet() <= 2) {
+                    throw new IllegalStateException("failed");
+                }
+                receive(since, batch);
+            })
+            .batchSize(2)
+            .retryDelay(Duration.ofMillis(1))
+            .build()) {
+            for (int i = 0; i < 4; i++) {
+                listener.accept(since(i), change(false));
+            }
+            awaitUntil(() -> batches.size() == 2);
+            assertThat(listener.getFailure()).isNull();
+        }
+        // the first batch was not skipped, and the second one only delivered after it
+        assertThat(positions).containsExactly(since(1), since(3));
+        assertThat(calls.get()).isEqualTo(4);
+    }
+
+    @Test
+    void givesUpAfterMaxAttempts() throws Exception {
+        final AtomicInteger calls = new AtomicInteger();
+        final BatchingChangesListener listener = BatchingChangesListener.builder()
+            .delegate((since, batch) -> {
+                if (since.equals(since(3))) {
+                    calls.incrementAndGet();
+                    throw new IllegalStateException("failed");
+                }
+                receive(since, batch);
+            })
+            .batchSize(2)
+            .maxAttempts(3)
+            .retryDelay(Duration.ofMillis(1))
+            .build();
+        for (int i = 0; i < 4; i++) {
+            listener.accept(since(i), change(false));
+        }
+        awaitUntil(() -> listener.getFailure() != null);
+
+        assertThat(calls.get()).isEqualTo(3);
+        assertThat(listener.getFailure()).hasMessage("failed");
+        assertThat(listener.getDelivered()).isEqualTo(since(1));
+        assertThatThrownBy(() -> listener.accept(since(4), change(false)))
+            .isInstanceOf(IllegalStateException.class)
+            .hasCauseInstanceOf(IllegalStateException.class);
+        listener.close();
+        assertThat(positions).containsExactly(since(1));
+    }
+
+    private void receive(MediaSince since, List<MediaChange> batch) {
+        positions.add(since);
+        batches.add(batch);
+    }
+
+    private static final MediaSince[] SINCES = IntStream.range(0, 10)
+        .mapToObj(i -> MediaSince.of(Instant.EPOCH.plusSeconds(i)))
+        .toArray(MediaSince[]::new);
+
+    private static MediaSince since(int i) {
+        return SINCES[i];
+    }
+
+    private static MediaChange change(boolean tail) {
+        MediaChange change = mock(MediaChange.class);
+        when(change.isTail()).thenReturn(tail);
+        return change;
+    }
+}
@@ -0,0 +1,38 @@
+package nl.vpro.api.client.utils;
+
+import java.time.Duration;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ChangesPollIntervalTest {
+
+    private final ChangesPollInterval interval = new ChangesPollInterval(Duration.ofSeconds(2), Duration.ofSeconds(10));
+
+    @Test
+    void backoffWhenEmpty() {
+        assertThat(interval.afterPoll(0)).isEqualTo(Duration.ofSeconds(2));
+        assertThat(interval.afterPoll(0)).isEqualTo(Duration.ofSeconds(4));
+        assertThat(interval.afterPoll(0)).isEqualTo(Duration.ofSeconds(8));
+        assertThat(interval.afterPoll(0)).isEqualTo(Duration.ofSeconds(10));
+        assertThat(interval.afterPoll(0)).isEqualTo(Duration.ofSeconds(10));
+        assertThat(interval.getCurrent()).isEqualTo(Duration.ofSeconds(10));
+    }
+
+    @Test
+    void immediatelyWhenChanges() {
+        interval.afterPoll(0);
+        interval.afterPoll(0);
+        assertThat(interval.afterPoll(100)).isEqualTo(Duration.ZERO);
+        assertThat(interval.afterPoll(0)).isEqualTo(Duration.ofSeconds(2));
+    }
+
+    @Test
+    void jitteredAfterErrors() {
+        assertThat(interval.afterError()).isBetween(Duration.ofSeconds(1), Duration.ofSeconds(2));
+        assertThat(interval.afterError()).isBetween(Duration.ofSeconds(2), Duration.ofSeconds(4));
+        assertThat(interval.afterError()).isBetween(Duration.ofSeconds(4), Duration.ofSeconds(8));
+        assertThat(interval.afterError()).isBetween(Duration.ofSeconds(5), Duration.ofSeconds(10));
+    }
+}
@@ -0,0 +1,142 @@
+package nl.vpro.api.client.utils;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.concurrent.*;
+import java.util.function.BooleanSupplier;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import nl.vpro.domain.api.MediaSince;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ChangesSubscriptionTest {
+
+    private final ChangesSubscriptionScheduler scheduler = new ChangesSubscriptionScheduler();
+
+    @AfterEach
+    void close() {
+        scheduler.close();
+    }
+
+    @Test
+    void stop() throws Exception {
+        final ChangesSubscription subscription = subscription();
+        assertThat(subscription.getState()).isEqualTo(ChangesSubscription.State.SCHEDULED);
+        scheduler.schedule(subscription, this::loop);
+        awaitUntil(() -> subscription.getCount() > 0);
+        assertThat(subscription.getState()).isEqualTo(ChangesSubscription.State.RUNNING);
+        assertThat(scheduler.getSubscriptions()).containsExactly(subscription);
+
+        subscription.stop();
+
+        assertThat(subscription.getFuture().get(5, TimeUnit.SECONDS)).isEqualTo(subscription.getMediaSince());
+        assertThat(subscription.getState()).isEqualTo(ChangesSubscription.State.STOPPED);
+        assertThat(subscription.isStopped()).isTrue();
+        awaitUntil(() -> scheduler.getSubscriptions().isEmpty());
+    }
+
+    @Test
+    void pauseAndResume() throws Exception {
+        final ChangesSubscription subscription = subscription();
+        scheduler.schedule(subscription, this::loop);
+        awaitUntil(() -> subscription.getCount() > 0);
+
+        subscription.pause();
+        assertThat(subscription.getState()).isEqualTo(ChangesSubscription.State.PAUSED);
+        assertThat(subscription.isPaused()).isTrue();
+        // at most the change being handled when pausing
+        Thread.sleep(50);
+        final long countWhilePaused = subscription.getCount();
+        Thread.sleep(100);
+        assertThat(subscription.getCount()).isEqualTo(countWhilePaused);
+
+        subscription.resume();
+        awaitUntil(() -> subscription.getCount() > countWhilePaused);
+        assertThat(subscription.getState()).isEqualTo(ChangesSubscription.State.RUNNING);
+
+        // stopping a paused subscription works too
+        subscription.pause();
+        subscription.stop();
+        assertThat(subscription.getFuture().get(5, TimeUnit.SECONDS)).isNotNull();
+    }
+
+    @Test
+    void cancellingTheFutureStops() {
+        final ChangesSubscription subscription = subscription();
+        scheduler.schedule(subscription, this::loop);
+        awaitUntil(() -> subscription.getCount() > 0);
+
+        subscription.getFuture().cancel(true);
+
+        assertThat(subscription.getState()).isEqualTo(ChangesSubscription.State.STOPPED);
+        awaitUntil(() -> scheduler.getSubscriptions().isEmpty());
+    }
+
+    @Test
+    void subscriptionsRunConcurrently() {
+        final ChangesSubscription first = subscription();
+        final ChangesSubscription second = subscription();
+        scheduler.schedule(first, this::loop);
+        scheduler.schedule(second, this::loop);
+
+        awaitUntil(() -> first.getCount() > 0 && second.getCount() > 0);
+        assertThat(scheduler.getSubscriptions()).containsExactlyInAnyOrder(first, second);
+
+        scheduler.close();
+        awaitUntil(() -> first.isStopped() && second.isStopped());
+    }
+
+    @Test
+    void failingLoopCompletesExceptionally() {
+        final ChangesSubscription subscription = subscription();
+        scheduler.schedule(subscription, s -> {
+            throw new IllegalStateException("failed");
+        });
+        awaitUntil(subscription::isStopped);
+        assertThat(subscription.getFuture()).isCompletedExceptionally();
+    }
+
+    static void awaitUntil(BooleanSupplier condition) {
+        final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (!condition.getAsBoolean()) {
+            assertThat(System.nanoTime()).describedAs("condition not met in time").isLessThan(deadline);
+            try {
+                Thread.sleep(5);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+
+    private ChangesSubscription subscription() {
+        return new ChangesSubscription(
+            ChangesFeedParameters.changesParameters().mediaSince(MediaSince.of(Instant.now())).build(),
+            new Object(),
+            new ChangesPollInterval(Duration.ofMillis(10), Duration.ofMillis(10))
+        );
+    }
+
+    /**
+     * Like the loop of {@link NpoApiMediaUtil}, but 'receiving' one change per poll
+     */
+    private MediaSince loop(ChangesSubscription subscription) {
+        MediaSince since = subscription.getParameters().getMediaSince();
+        while (subscription.shouldContinue(() -> true)) {
+            try {
+                subscription.awaitResumed();
+                if (!subscription.shouldInterruptFeed()) {
+                    since = MediaSince.of(Instant.now());
+                    subscription.handled(since);
+                }
+                subscription.await(subscription.getPollInterval().afterPoll(0));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        return since;
+    }
+}
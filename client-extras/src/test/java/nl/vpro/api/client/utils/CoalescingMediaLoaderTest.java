@@ -0,0 +1,110 @@
+package nl.vpro.api.client.utils;
+
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.*;
+
+import org.junit.jupiter.api.Test;
+
+import nl.vpro.domain.media.MediaObject;
+import nl.vpro.domain.media.Program;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class CoalescingMediaLoaderTest {
+
+    private final List<List<String>> calls = new CopyOnWriteArrayList<>();
+    private final Map<String, MediaObject> objects = Map.of(
+        "a", new Program(),
+        "b", new Program()
+    );
+
+    private MediaObject[] load(String... mids) {
+        calls.add(Arrays.asList(mids));
+        return Arrays.stream(mids).map(objects::get).toArray(MediaObject[]::new);
+    }
+
+    @Test
+    void coalesce() throws Exception {
+        try (CoalescingMediaLoader loader = CoalescingMediaLoader.builder()
+            .batchLoader(this::load)
+            .window(Duration.ofMillis(100))
+            .build()) {
+            CompletableFuture<Optional<MediaObject>> a = loader.submit("a");
+            CompletableFuture<Optional<MediaObject>> b = loader.submit("b");
+            CompletableFuture<Optional<MediaObject>> c = loader.submit("c");
+            CompletableFuture<Optional<MediaObject>> a2 = loader.submit("a");
+
+            assertThat(a.get()).containsSame(objects.get("a"));
+            assertThat(b.get()).containsSame(objects.get("b"));
+            assertThat(c.get()).isEmpty();
+            assertThat(a2).isSameAs(a);
+
+            assertThat(calls).containsExactly(List.of("a", "b", "c"));
+            assertThat(loader.getBatchCount()).isEqualTo(1);
+            assertThat(loader.getDeduplicatedCount()).isEqualTo(1);
+        }
+    }
+
+    @Test
+    void maxBatchSize() throws Exception {
+        try (CoalescingMediaLoader loader = CoalescingMediaLoader.builder()
+            .batchLoader(this::load)
+            .window(Duration.ofHours(1))
+            .maxBatchSize(2)
+            .build()) {
+            CompletableFuture<Optional<MediaObject>> a = loader.submit("a");
+            CompletableFuture<Optional<MediaObject>> b = loader.submit("b");
+            assertThat(a.get(10, TimeUnit.SECONDS)).containsSame(objects.get("a"));
+            assertThat(b.get(10, TimeUnit.SECONDS)).containsSame(objects.get("b"));
+            assertThat(calls).containsExactly(List.of("a", "b"));
+        }
+    }
+
+    @Test
+    void exception() {
+        try (CoalescingMediaLoader loader = CoalescingMediaLoader.builder()
+            .batchLoader(mids -> {
+                throw new IllegalStateException("down");
+            })
+            .window(Duration.ofMillis(10))
+            .build()) {
+            assertThatThrownBy(() -> loader.get("a"))
+                .isInstanceOf(ExecutionException.class)
+                .hasCauseInstanceOf(IllegalStateException.class);
+        }
+    }
+
+    @Test
+    void closedLoaderLoadsDirectly() throws Exception {
+        CoalescingMediaLoader loader = CoalescingMediaLoader.builder()
+            .batchLoader(this::load)
+            .window(Duration.ofHours(1))
+            .build();
+        loader.close();
+
+        CompletableFuture<Optional<MediaObject>> a = loader.submit("a");
+        assertThat(a).isDone();
+        assertThat(a.get()).containsSame(objects.get("a"));
+        assertThat(calls).containsExactly(List.of("a"));
+    }
+
+    @Test
+    void rejectedBatchFails() {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        executor.shutdown();
+        try (CoalescingMediaLoader loader = CoalescingMediaLoader.builder()
+            .batchLoader(this::load)
+            .window(Duration.ofMillis(10))
+            .executor(executor)
+            .build()) {
+            CompletableFuture<Optional<MediaObject>> a = loader.submit("a");
+            assertThatThrownBy(() -> a.get(10, TimeUnit.SECONDS))
+                .isInstanceOf(ExecutionException.class)
+                .hasCauseInstanceOf(RejectedExecutionException.class);
+            // not joined with the failed request any more
+            assertThat(loader.submit("a")).isNotSameAs(a);
+        }
+    }
+}
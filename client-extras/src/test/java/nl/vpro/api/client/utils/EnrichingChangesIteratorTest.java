@@ -0,0 +1,58 @@
+package nl.vpro.api.client.utils;
+
+import java.util.*;
+
+import org.junit.jupiter.api.Test;
+
+import nl.vpro.domain.api.MediaChange;
+import nl.vpro.domain.media.MediaObject;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class EnrichingChangesIteratorTest {
+
+    @Test
+    void loadsInBatches() throws Exception {
+        final List<MediaChange> changes = new ArrayList<>();
+        for (int i = 0; i < 25; i++) {
+            changes.add(change("mid_" + (i % 20), i % 5 == 4));
+        }
+        final List<Integer> requested = new ArrayList<>();
+        final Map<String, MediaObject> objects = new HashMap<>();
+        try (EnrichingChangesIterator iterator = EnrichingChangesIterator.builder()
+            .changes(changes.iterator())
+            .batchSize(10)
+            .loader(mids -> {
+                requested.add(mids.length);
+                return Arrays.stream(mids)
+                    .map(mid -> objects.computeIfAbsent(mid, m -> mock(MediaObject.class)))
+                    .toArray(MediaObject[]::new);
+            })
+            .build()) {
+            int i = 0;
+            while (iterator.hasNext()) {
+                EnrichedMediaChange enriched = iterator.next();
+                assertThat(enriched.change()).isSameAs(changes.get(i));
+                if (i % 5 == 4) {
+                    assertThat(enriched.mediaObject()).isNull();
+                } else {
+                    assertThat(enriched.mediaObject()).isSameAs(objects.get(enriched.change().getMid()));
+                }
+                i++;
+            }
+            assertThat(i).isEqualTo(25);
+            assertThat(iterator.getCount()).isEqualTo(25);
+            assertThat(iterator.getBatches()).isEqualTo(3);
+        }
+        assertThat(requested).containsExactly(8, 8, 4);
+    }
+
+    private static MediaChange change(String mid, boolean deleted) {
+        MediaChange change = mock(MediaChange.class);
+        when(change.getMid()).thenReturn(mid);
+        when(change.isDeleted()).thenReturn(deleted);
+        return change;
+    }
+}
@@ -0,0 +1,69 @@
+package nl.vpro.api.client.utils;
+
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import nl.vpro.domain.api.MediaSince;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class FileChangesCheckpointStoreTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void storeAndLoad() {
+        FileChangesCheckpointStore store = new FileChangesCheckpointStore(dir.resolve("sub/checkpoint.properties"));
+        assertThat(store.load()).isEmpty();
+
+        MediaSince since = MediaSince.of(Instant.parse("2026-10-01T10:00:00Z"), "WO_VPRO_123");
+        store.store(since);
+        assertThat(store.load().map(MediaSince::getInstant)).contains(since.getInstant());
+        assertThat(store.load().map(MediaSince::getMid)).contains("WO_VPRO_123");
+
+        MediaSince next = MediaSince.of(Instant.parse("2026-10-01T11:00:00Z"), "WO_VPRO_456");
+        store.store(next);
+        assertThat(new FileChangesCheckpointStore(dir.resolve("sub/checkpoint.properties")).load().map(MediaSince::getMid)).contains("WO_VPRO_456");
+    }
+
+    @Test
+    void noTemporaryFileLeftIfStoringFails() throws Exception {
+        // a non-empty directory can't be replaced
+        final Path path = dir.resolve("checkpoint.properties");
+        Files.createDirectories(path.resolve("sub"));
+        FileChangesCheckpointStore store = new FileChangesCheckpointStore(path);
+
+        assertThatThrownBy(() -> store.store(MediaSince.of(Instant.parse("2026-10-01T10:00:00Z"), "a")))
+            .isInstanceOf(UncheckedIOException.class);
+        try (Stream<Path> files = Files.list(dir)) {
+            assertThat(files).containsExactly(path);
+        }
+    }
+
+    @Test
+    void checkpointerWritesEveryNChanges() {
+        FileChangesCheckpointStore store = new FileChangesCheckpointStore(dir.resolve("checkpoint.properties"));
+        try (ChangesCheckpointer checkpointer = ChangesCheckpointer.builder()
+            .store(store)
+            .everyChanges(3L)
+            .everyDuration(Duration.ofHours(1))
+            .build()) {
+            checkpointer.checkpoint(MediaSince.of(Instant.parse("2026-10-01T10:00:00Z"), "a"));
+            checkpointer.checkpoint(MediaSince.of(Instant.parse("2026-10-01T10:00:01Z"), "b"));
+            assertThat(store.load()).isEmpty();
+            checkpointer.checkpoint(MediaSince.of(Instant.parse("2026-10-01T10:00:02Z"), "c"));
+            assertThat(store.load().map(MediaSince::getMid)).contains("c");
+            checkpointer.checkpoint(MediaSince.of(Instant.parse("2026-10-01T10:00:03Z"), "d"));
+        }
+        assertThat(store.load().map(MediaSince::getMid)).contains("d");
+    }
+}
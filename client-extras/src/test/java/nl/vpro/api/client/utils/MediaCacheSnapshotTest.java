@@ -0,0 +1,56 @@
+package nl.vpro.api.client.utils;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import nl.vpro.domain.api.MediaSince;
+import nl.vpro.domain.media.*;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class MediaCacheSnapshotTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void writeAndRead() throws Exception {
+        Map<String, MediaObject> entries = new LinkedHashMap<>();
+        entries.put("WO_VPRO_1", MediaBuilder.program(ProgramType.CLIP).mid("WO_VPRO_1").mainTitle("with\nnew line").build());
+        entries.put("WO_VPRO_2", null);
+        Path file = dir.resolve("snapshot.gz");
+        new MediaCacheSnapshot(MediaSince.of(Instant.parse("2026-10-01T10:00:00Z"), "WO_VPRO_0"), entries).write(file);
+
+        MediaCacheSnapshot read = MediaCacheSnapshot.read(file).orElseThrow();
+        assertThat(read.since().getInstant()).isEqualTo(Instant.parse("2026-10-01T10:00:00Z"));
+        assertThat(read.since().getMid()).isEqualTo("WO_VPRO_0");
+        assertThat(read.entries()).containsOnlyKeys("WO_VPRO_1", "WO_VPRO_2");
+        assertThat(read.entries().get("WO_VPRO_1").getMainTitle()).isEqualTo("with\nnew line");
+        assertThat(read.entries().get("WO_VPRO_2")).isNull();
+
+        assertThat(MediaCacheSnapshot.read(dir.resolve("nonexisting"))).isEmpty();
+    }
+
+    @Test
+    void noTemporaryFileLeftIfWritingFails() throws Exception {
+        // a non-empty directory can't be replaced
+        Path file = dir.resolve("snapshot.gz");
+        Files.createDirectories(file.resolve("child"));
+
+        assertThatThrownBy(() -> new MediaCacheSnapshot(MediaSince.of(Instant.now()), Map.of()).write(file))
+            .isInstanceOf(IOException.class);
+
+        try (Stream<Path> files = Files.list(dir)) {
+            assertThat(files).containsExactly(file);
+        }
+    }
+}
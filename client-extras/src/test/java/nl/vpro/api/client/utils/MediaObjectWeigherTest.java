@@ -0,0 +1,84 @@
+package nl.vpro.api.client.utils;
+
+import java.util.Optional;
+
+import org.junit.jupiter.api.Test;
+
+import com.google.common.cache.*;
+
+import nl.vpro.domain.media.*;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class MediaObjectWeigherTest {
+
+    @Test
+    void tracksTotalWeight() {
+        MediaObjectWeigher weigher = new MediaObjectWeigher(1);
+        Cache<String, Optional<? extends MediaObject>> cache = cache(weigher);
+
+        Program small = MediaBuilder.program(ProgramType.CLIP).mid("small").mainTitle("a").build();
+        Program large = MediaBuilder.program(ProgramType.CLIP).mid("large").mainTitle("a".repeat(10000)).build();
+        assertThat(MediaObjectWeigher.estimate(large)).isGreaterThan(MediaObjectWeigher.estimate(small) + 10000);
+
+        cache.put("small", Optional.of(small));
+        cache.put("large", Optional.of(large));
+        cache.put("missing", Optional.empty());
+        assertThat(weigher.getTotalWeight()).isEqualTo(
+            MediaObjectWeigher.estimate(small) + MediaObjectWeigher.estimate(large) + MediaObjectWeigher.EMPTY_WEIGHT);
+
+        cache.put("large", Optional.of(small));
+        cache.invalidate("missing");
+        assertThat(weigher.getTotalWeight()).isEqualTo(2L * MediaObjectWeigher.estimate(small));
+
+        cache.invalidateAll();
+        assertThat(weigher.getTotalWeight()).isZero();
+    }
+
+    @Test
+    void tracksEqualValuesByKey() {
+        MediaObjectWeigher weigher = new MediaObjectWeigher(1);
+        Cache<String, Optional<? extends MediaObject>> cache = cache(weigher);
+        Program program = MediaBuilder.program(ProgramType.CLIP).mid("mid").mainTitle("a").build();
+        int weight = MediaObjectWeigher.estimate(program);
+
+        cache.put("a", Optional.of(program));
+        cache.put("b", Optional.of(program));
+        cache.put("a", Optional.of(program));
+        assertThat(weigher.getTotalWeight()).isEqualTo(2L * weight);
+
+        cache.invalidate("a");
+        assertThat(weigher.getTotalWeight()).isEqualTo(weight);
+        cache.put("a", Optional.empty());
+        cache.put("c", Optional.empty());
+        cache.invalidate("b");
+        assertThat(weigher.getTotalWeight()).isEqualTo(2L * MediaObjectWeigher.EMPTY_WEIGHT);
+    }
+
+    @Test
+    void samples() {
+        MediaObjectWeigher weigher = new MediaObjectWeigher(1000);
+        Cache<String, Optional<? extends MediaObject>> cache = cache(weigher);
+        Program small = MediaBuilder.program(ProgramType.CLIP).mid("small").mainTitle("a").build();
+        Program large = MediaBuilder.program(ProgramType.CLIP).mid("large").mainTitle("a".repeat(10000)).build();
+        for (int i = 0; i < MediaObjectWeigher.SAMPLE_WARMUP; i++) {
+            cache.put("small_" + i, Optional.of(small));
+        }
+        assertThat(weigher.getAverageWeight()).isEqualTo(MediaObjectWeigher.estimate(small));
+
+        // not measured, but weighed like the average
+        cache.put("large", Optional.of(large));
+        assertThat(weigher.getTotalWeight()).isEqualTo((MediaObjectWeigher.SAMPLE_WARMUP + 1L) * MediaObjectWeigher.estimate(small));
+
+        cache.invalidateAll();
+        assertThat(weigher.getTotalWeight()).isZero();
+    }
+
+    private static Cache<String, Optional<? extends MediaObject>> cache(MediaObjectWeigher weigher) {
+        return CacheBuilder.newBuilder()
+            .maximumWeight(100_000_000)
+            .weigher(weigher)
+            .removalListener(weigher)
+            .build();
+    }
+}
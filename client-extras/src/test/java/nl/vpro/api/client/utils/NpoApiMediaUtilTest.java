@@ -0,0 +1,521 @@
+package nl.vpro.api.client.utils;
+
+import jakarta.ws.rs.core.Response;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiFunction;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+import java.util.stream.LongStream;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import nl.vpro.api.client.frontend.NpoApiClients;
+import nl.vpro.api.rs.v3.media.MediaRestService;
+import nl.vpro.domain.api.*;
+import nl.vpro.domain.api.Order;
+import nl.vpro.domain.api.media.*;
+import nl.vpro.domain.api.media.MediaResult;
+import nl.vpro.domain.media.*;
+import nl.vpro.jackson2.Jackson2Mapper;
+import nl.vpro.jackson2.JsonArrayIterator;
+import nl.vpro.util.CountedIterator;
+
+import static nl.vpro.domain.api.Result.Total.equalsTo;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+@SuppressWarnings("unchecked")
+class NpoApiMediaUtilTest {
+
+    private final NpoApiClients clients = mock(NpoApiClients.class);
+    private final MediaRestService mediaService = mock(MediaRestService.class);
+
+    @BeforeEach
+    void setup() {
+        when(clients.getMediaService()).thenReturn(mediaService);
+        when(clients.getMediaServiceNoTimeout()).thenReturn(mediaService);
+        when(clients.withCurrentSettings(any(Supplier.class))).thenAnswer(i -> i.getArgument(0));
+        when(clients.withCurrentSettings(any(BiFunction.class))).thenAnswer(i -> i.getArgument(0));
+    }
+
+    @Test
+    void unPageRequestsNoMorePagesThanNeeded() {
+        final NpoApiMediaUtil util = NpoApiMediaUtil.builder()
+            .clients(clients)
+            .unPageBatchSize(10)
+            .unPageParallelism(4)
+            .build();
+        final List<Long> offsets = new CopyOnWriteArrayList<>();
+
+        MediaResult result = util.unPage((max, offset) -> {
+            offsets.add(offset);
+            return page(offset, max, 100);
+        }, null, 25);
+
+        assertThat(result.getItems()).hasSize(25);
+        assertThat(result.getItems().get(24).getMid()).isEqualTo("mid_24");
+        assertThat(offsets).containsExactlyInAnyOrder(0L, 10L, 20L);
+    }
+
+    @Test
+    void unPageFailureInterruptsOtherPages() throws InterruptedException {
+        final NpoApiMediaUtil util = NpoApiMediaUtil.builder()
+            .clients(clients)
+            .unPageBatchSize(10)
+            .unPageParallelism(2)
+            .build();
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch interrupted = new CountDownLatch(1);
+
+        assertThatThrownBy(() -> util.unPage((max, offset) -> {
+            if (offset == 10L) {
+                try {
+                    started.countDown();
+                    Thread.sleep(10_000);
+                } catch (InterruptedException e) {
+                    interrupted.countDown();
+                }
+                throw new IllegalStateException("interrupted");
+            }
+            if (offset == 20L) {
+                try {
+                    started.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                throw new IllegalStateException("page failed");
+            }
+            return page(offset, max, 100);
+        }, null, 100))
+            .isInstanceOf(IllegalStateException.class);
+
+        assertThat(interrupted.await(5, TimeUnit.SECONDS)).isTrue();
+    }
+
+    @Test
+    void iterateDescendantsFallsBackBeyondMaxWindow() throws Exception {
+        final NpoApiRateLimiter limiter = spy(new NpoApiRateLimiter());
+        final NpoApiMediaUtil util = NpoApiMediaUtil.builder()
+            .clients(clients)
+            .limiter(limiter)
+            .unPageBatchSize(1000)
+            .build();
+        when(mediaService.listDescendants(eq("parent"), isNull(), isNull(), any(), anyLong(), anyInt()))
+            .thenAnswer(i -> page(i.<Long>getArgument(4), i.<Integer>getArgument(5), 10002));
+        final Response response = mock(Response.class);
+        when(response.getStatusInfo()).thenReturn(Response.Status.OK);
+        when(response.getStatus()).thenReturn(200);
+        when(response.readEntity(InputStream.class)).thenReturn(json(program("fallback_1"), program("fallback_2")));
+        when(mediaService.iterate(any(), isNull(), isNull(), eq(10000L), isNull())).thenReturn(response);
+
+        final List<String> mids = new ArrayList<>();
+        try (CountedIterator<MediaObject> iterator = util.iterateDescendants("parent", Order.ASC, null, Long.MAX_VALUE)) {
+            iterator.forEachRemaining(o -> mids.add(o.getMid()));
+        }
+
+        assertThat(mids).hasSize(10002).endsWith("mid_9999", "fallback_1", "fallback_2");
+        verify(mediaService, times(10)).listDescendants(eq("parent"), isNull(), isNull(), any(), anyLong(), anyInt());
+        verify(mediaService).iterate(any(), isNull(), isNull(), eq(10000L), isNull());
+        // every page, and the fallback too
+        verify(limiter, times(11)).acquire(any());
+        verify(limiter, times(11)).upRate(any(Duration.class));
+    }
+
+    @Test
+    void enrichBypassesCaches() throws Exception {
+        final NpoApiMediaUtil util = NpoApiMediaUtil.builder()
+            .clients(clients)
+            .build();
+        final Program stale = program("mid_1");
+        final Program fresh = program("mid_1");
+        final Program created = program("mid_2");
+        util.cache.put("mid_1", Optional.of(stale));
+        util.negativeCache.put("mid_2", Boolean.TRUE);
+        when(mediaService.loadMultiple(any(), isNull(), isNull())).thenReturn(multiple(fresh, created));
+
+        try (EnrichingChangesIterator iterator = util.enrich(List.of(change("mid_1"), change("mid_2")).iterator())) {
+            assertThat(iterator.next().mediaObject()).isSameAs(fresh);
+            assertThat(iterator.next().mediaObject()).isSameAs(created);
+        }
+
+        assertThat(util.cache.getIfPresent("mid_1")).containsSame(fresh);
+        assertThat(util.cache.getIfPresent("mid_2")).containsSame(created);
+        assertThat(util.negativeCache.getIfPresent("mid_2")).isNull();
+    }
+
+    @Test
+    void onChangeEvictsWithoutAffectingStats() {
+        final NpoApiMediaUtil util = NpoApiMediaUtil.builder()
+            .clients(clients)
+            .build();
+        util.cache.put("mid_1", Optional.of(program("mid_1")));
+
+        util.onChange(change("mid_2"), CacheCoherence.EVICT);
+        assertThat(util.getCacheInvalidations()).isZero();
+        util.onChange(change("mid_1"), CacheCoherence.EVICT);
+
+        assertThat(util.cache.asMap()).isEmpty();
+        assertThat(util.getCacheInvalidations()).isEqualTo(1);
+        assertThat(util.getCacheStats().requestCount()).isZero();
+    }
+
+    @Test
+    void onChangeRefreshesInBackground() throws Exception {
+        final NpoApiMediaUtil util = NpoApiMediaUtil.builder()
+            .clients(clients)
+            .build();
+        final Program old = program("mid_1");
+        final Program updated = program("mid_1");
+        util.cache.put("mid_1", Optional.of(old));
+        final CountDownLatch release = new CountDownLatch(1);
+        when(mediaService.loadMultiple(any(), isNull(), isNull())).thenAnswer(i -> {
+            release.await();
+            return multiple(updated);
+        });
+
+        // does not wait for the API
+        CompletableFuture.runAsync(() -> util.onChange(change("mid_1"), CacheCoherence.REFRESH))
+            .get(1, TimeUnit.SECONDS);
+        assertThat(util.cache.asMap().get("mid_1")).containsSame(old);
+
+        release.countDown();
+        ChangesSubscriptionTest.awaitUntil(() -> util.cache.asMap().get("mid_1").orElseThrow() == updated);
+        assertThat(util.getCacheInvalidations()).isEqualTo(1);
+    }
+
+    @Test
+    void refreshAhead() throws Exception {
+        final NpoApiMediaUtil util = NpoApiMediaUtil.builder()
+            .clients(clients)
+            .cacheRefreshAfter(Duration.ofMillis(50))
+            .build();
+        final Program first = program("mid_1");
+        final Program second = program("mid_1");
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicInteger calls = new AtomicInteger();
+        when(mediaService.loadMultiple(any(), isNull(), isNull())).thenAnswer(i -> {
+            if (calls.incrementAndGet() == 1) {
+                return multiple(first);
+            }
+            release.await();
+            return multiple(second);
+        });
+        assertThat((Program) util.loadOrNull("mid_1")).isSameAs(first);
+
+        Thread.sleep(60);
+        // the old value is served while reloading
+        assertThat(CompletableFuture.supplyAsync(() -> util.<Program>findByMid("mid_1")).get(1, TimeUnit.SECONDS)).isSameAs(first);
+        assertThat((Program) util.loadOrNull("mid_1")).isSameAs(first);
+
+        release.countDown();
+        ChangesSubscriptionTest.awaitUntil(() -> util.cache.asMap().get("mid_1").orElseThrow() == second);
+        assertThat(util.getCacheRefreshesRejected()).isZero();
+    }
+
+    @Test
+    void refreshesAreSkippedIfExecutorIsSaturated() throws Exception {
+        final NpoApiMediaUtil util = NpoApiMediaUtil.builder()
+            .clients(clients)
+            .cacheSize(2000)
+            .cacheRefreshAfter(Duration.ofMillis(50))
+            .build();
+        util.setCacheRefreshThreads(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicBoolean block = new AtomicBoolean(false);
+        final Program object = program("mid");
+        final MultipleMediaResult result = multiple(object);
+        when(mediaService.loadMultiple(any(), isNull(), isNull())).thenAnswer(i -> {
+            if (block.get()) {
+                release.await();
+            }
+            return result;
+        });
+        // one refresh running, 1000 queued, and some more
+        final int count = 1010;
+        for (int i = 0; i < count; i++) {
+            util.loadOrNull("mid_" + i);
+        }
+        block.set(true);
+        Thread.sleep(60);
+
+        for (int i = 0; i < count; i++) {
+            assertThat((Program) util.loadOrNull("mid_" + i)).isSameAs(object);
+        }
+        assertThat(util.getCacheRefreshesRejected()).isPositive();
+        release.countDown();
+    }
+
+    @Test
+    void missDoesNotEvictCachedObjects() throws Exception {
+        final NpoApiMediaUtil util = NpoApiMediaUtil.builder()
+            .clients(clients)
+            .cacheSize(2)
+            .build();
+        util.cache.put("mid_1", Optional.of(program("mid_1")));
+        util.cache.put("mid_2", Optional.of(program("mid_2")));
+        when(mediaService.loadMultiple(any(), isNull(), isNull())).thenReturn(multiple((MediaObject) null));
+
+        assertThat((MediaObject) util.loadOrNull("missing")).isNull();
+        assertThat((MediaObject) util.loadOrNull("missing")).isNull();
+
+        assertThat(util.cache.asMap()).containsOnlyKeys("mid_1", "mid_2");
+        assertThat(util.negativeCache.getIfPresent("missing")).isTrue();
+        verify(mediaService, times(1)).loadMultiple(any(), isNull(), isNull());
+    }
+
+    @Test
+    void loadOrNullAsyncCountsOnce() throws Exception {
+        final NpoApiMediaUtil util = NpoApiMediaUtil.builder()
+            .clients(clients)
+            .build();
+        final Program cached = program("mid_1");
+        final Program loaded = program("mid_2");
+        util.cache.put("mid_1", Optional.of(cached));
+        when(mediaService.loadMultiple(any(), isNull(), isNull())).thenReturn(multiple(loaded));
+
+        assertThat(util.<Program>loadOrNullAsync("mid_1").get(5, TimeUnit.SECONDS)).isSameAs(cached);
+        assertThat(util.getCacheStats().hitCount()).isEqualTo(1);
+        assertThat(util.getCacheStats().missCount()).isZero();
+
+        assertThat(util.<Program>loadOrNullAsync("mid_2").get(5, TimeUnit.SECONDS)).isSameAs(loaded);
+        assertThat(util.getCacheStats().hitCount()).isEqualTo(1);
+        assertThat(util.getCacheStats().missCount()).isEqualTo(1);
+    }
+
+    @Test
+    void cacheExpiryAppliesToSecondLevelCache() {
+        final NpoApiMediaUtil util = NpoApiMediaUtil.builder()
+            .clients(clients)
+            .secondLevelCacheMaxBytes(1_000_000L)
+            .build();
+        util.setCacheExpiry("PT10M");
+        assertThat(util.getSecondLevelCache().getTtl()).isEqualTo(Duration.ofMinutes(10));
+
+        final OffHeapCache<MediaObject> previous = util.getSecondLevelCache();
+        previous.put("mid_1", program("mid_1"));
+        util.setSecondLevelCacheMegabytes(2);
+        assertThat(previous.size()).isZero();
+        assertThat(util.getSecondLevelCache().getTtl()).isEqualTo(Duration.ofMinutes(10));
+    }
+
+    @Test
+    void loadSnapshotSkipsChangedAndNewerValues(@TempDir Path dir) throws Exception {
+        final NpoApiMediaUtil util = spy(NpoApiMediaUtil.builder()
+            .clients(clients)
+            .build());
+        final Map<String, MediaObject> entries = new LinkedHashMap<>();
+        entries.put("mid_1", program("mid_1"));
+        entries.put("mid_2", program("mid_2"));
+        entries.put("mid_3", program("mid_3"));
+        final Path file = dir.resolve("snapshot.gz");
+        new MediaCacheSnapshot(MediaSince.of(Instant.now().minusSeconds(60)), entries).write(file);
+
+        final Program newer = program("mid_1");
+        final Program changed = program("mid_2");
+        util.cache.put("mid_1", Optional.of(newer));
+        final JsonArrayIterator<MediaChange> changes = mock(JsonArrayIterator.class);
+        final MediaChange change = change("mid_2");
+        when(change.asSince()).thenReturn(MediaSince.of(Instant.now()));
+        when(changes.hasNext()).thenReturn(true, false);
+        when(changes.next()).thenReturn(change);
+        final JsonArrayIterator<MediaChange> noChanges = mock(JsonArrayIterator.class);
+        doReturn(changes, noChanges).when(util).changes(any(ChangesFeedParameters.class));
+        when(mediaService.loadMultiple(any(), isNull(), isNull())).thenReturn(multiple(changed));
+
+        assertThat(util.loadSnapshot(file)).isEqualTo(3);
+
+        assertThat(util.cache.getIfPresent("mid_1")).containsSame(newer);
+        assertThat(util.cache.getIfPresent("mid_2")).containsSame(changed);
+        assertThat(util.cache.getIfPresent("mid_3").map(MediaObject::getMid)).contains("mid_3");
+    }
+
+    @Test
+    void loadAsync() throws Exception {
+        final NpoApiMediaUtil util = NpoApiMediaUtil.builder()
+            .clients(clients)
+            .build();
+        final Program cached = program("mid_1");
+        final Program loaded = program("mid_2");
+        util.cache.put("mid_1", Optional.of(cached));
+        final List<Thread> threads = new CopyOnWriteArrayList<>();
+        when(mediaService.loadMultiple(any(), isNull(), isNull())).thenAnswer(i -> {
+            threads.add(Thread.currentThread());
+            return multiple(loaded);
+        });
+
+        assertThat(util.loadAsync("mid_1", "mid_2").get(5, TimeUnit.SECONDS)).containsExactly(cached, loaded);
+        assertThat(threads).singleElement().satisfies(t -> assertThat(t.isVirtual()).isTrue());
+        verify(clients).withCurrentSettings(any(Supplier.class));
+        assertThat(util.cache.getIfPresent("mid_2")).containsSame(loaded);
+    }
+
+    @Test
+    void loadAsyncFailure() {
+        final NpoApiMediaUtil util = NpoApiMediaUtil.builder()
+            .clients(clients)
+            .build();
+        when(mediaService.loadMultiple(any(), isNull(), isNull())).thenThrow(new IllegalStateException("failed"));
+
+        assertThatThrownBy(() -> util.loadAsync("mid_1").get(5, TimeUnit.SECONDS))
+            .isInstanceOf(ExecutionException.class)
+            .hasRootCauseMessage("failed");
+    }
+
+    @Test
+    void closeShutsDownDefaultExecutorOnly() {
+        final ExecutorService injected = Executors.newSingleThreadExecutor();
+        try {
+            NpoApiMediaUtil.builder()
+                .clients(clients)
+                .executor(injected)
+                .build()
+                .close();
+            assertThat(injected.isShutdown()).isFalse();
+        } finally {
+            injected.shutdownNow();
+        }
+
+        final NpoApiMediaUtil util = NpoApiMediaUtil.builder()
+            .clients(clients)
+            .build();
+        util.close();
+        assertThatThrownBy(() -> util.loadAsync("mid_1"))
+            .isInstanceOf(RejectedExecutionException.class);
+    }
+
+    @Test
+    void loadOrNullAsync() throws Exception {
+        final NpoApiMediaUtil util = NpoApiMediaUtil.builder()
+            .clients(clients)
+            .build();
+        util.negativeCache.put("known_missing", Boolean.TRUE);
+        when(mediaService.loadMultiple(any(), isNull(), isNull())).thenReturn(multiple((MediaObject) null));
+
+        final CompletableFuture<MediaObject> known = util.loadOrNullAsync("known_missing");
+        assertThat(known).isCompletedWithValue(null);
+        verifyNoInteractions(mediaService);
+
+        assertThat(util.<MediaObject>loadOrNullAsync("missing").get(5, TimeUnit.SECONDS)).isNull();
+        assertThat(util.negativeCache.getIfPresent("missing")).isTrue();
+    }
+
+    @Test
+    void listDescendantsAsync() throws Exception {
+        final NpoApiMediaUtil util = NpoApiMediaUtil.builder()
+            .clients(clients)
+            .unPageBatchSize(10)
+            .build();
+        final MediaResult firstPage = page(0, 200, 5);
+        when(mediaService.listDescendants(eq("parent"), isNull(), isNull(), eq(Order.ASC.toString()), eq(0L), eq(200))).thenReturn(firstPage);
+
+        assertThat(util.listDescendantsAsync("parent", Order.ASC).get(5, TimeUnit.SECONDS)).isSameAs(firstPage);
+
+        when(mediaService.listDescendants(eq("parent"), isNull(), isNull(), eq(Order.ASC.toString()), anyLong(), anyInt()))
+            .thenAnswer(i -> page(i.<Long>getArgument(4), i.<Integer>getArgument(5), 30));
+        final MediaResult filtered = util.listDescendantsAsync("parent", Order.ASC, o -> o.getMid().endsWith("5"), 2).get(5, TimeUnit.SECONDS);
+        assertThat(filtered.getItems()).extracting(MediaObject::getMid).containsExactly("mid_5", "mid_15");
+    }
+
+    @Test
+    void findByMidAsync() throws Exception {
+        final NpoApiMediaUtil util = NpoApiMediaUtil.builder()
+            .clients(clients)
+            .build();
+        final Program object = program("mid_1");
+        when(mediaService.loadMultiple(any(), isNull(), isNull())).thenReturn(multiple(object));
+
+        assertThat(util.<Program>findByMidAsync("mid_1").get(5, TimeUnit.SECONDS)).isSameAs(object);
+        // from cache the second time
+        assertThat(util.<Program>findByMidAsync("mid_1").get(5, TimeUnit.SECONDS)).isSameAs(object);
+        verify(mediaService, times(1)).loadMultiple(any(), isNull(), isNull());
+    }
+
+    @Test
+    void loadAsyncFromCacheTakesNoPermit() throws Exception {
+        final NpoApiRateLimiter limiter = spy(new NpoApiRateLimiter());
+        final NpoApiMediaUtil util = NpoApiMediaUtil.builder()
+            .clients(clients)
+            .limiter(limiter)
+            .build();
+        final Program cached = program("mid_1");
+        util.cache.put("mid_1", Optional.of(cached));
+
+        assertThat(util.loadAsync("mid_1").get(5, TimeUnit.SECONDS)).containsExactly(cached);
+        verify(limiter, never()).acquire(any());
+        verifyNoInteractions(mediaService);
+    }
+
+    @Test
+    void asyncTakesOnePermitPerCall() throws Exception {
+        final NpoApiRateLimiter limiter = spy(new NpoApiRateLimiter());
+        final NpoApiMediaUtil util = NpoApiMediaUtil.builder()
+            .clients(clients)
+            .limiter(limiter)
+            .unPageBatchSize(10)
+            .unPageParallelism(3)
+            .build();
+        when(mediaService.listDescendants(eq("parent"), isNull(), isNull(), eq(Order.ASC.toString()), anyLong(), anyInt()))
+            .thenAnswer(i -> page(i.<Long>getArgument(4), i.<Integer>getArgument(5), 30));
+
+        // the pages are requested in parallel worker threads
+        assertThat(util.listDescendantsAsync("parent", Order.ASC, o -> true, 30).get(5, TimeUnit.SECONDS).getItems()).hasSize(30);
+        verify(mediaService, times(3)).listDescendants(eq("parent"), isNull(), isNull(), eq(Order.ASC.toString()), anyLong(), anyInt());
+        verify(limiter, times(3)).acquire(any());
+    }
+
+    static MultipleMediaResult multiple(MediaObject... objects) {
+        final List<MultipleEntry<MediaObject>> entries = new ArrayList<>();
+        for (MediaObject object : objects) {
+            final MultipleEntry<MediaObject> entry = mock(MultipleEntry.class);
+            when(entry.getResult()).thenReturn(object);
+            entries.add(entry);
+        }
+        final MultipleMediaResult result = mock(MultipleMediaResult.class);
+        doReturn(entries).when(result).getItems();
+        return result;
+    }
+
+    static MediaChange change(String mid) {
+        final MediaChange change = mock(MediaChange.class);
+        when(change.getMid()).thenReturn(mid);
+        return change;
+    }
+
+    static InputStream json(MediaObject... objects) throws Exception {
+        final String json = Arrays.stream(objects)
+            .map(o -> {
+                try {
+                    return Jackson2Mapper.getInstance().writeValueAsString(o);
+                } catch (Exception e) {
+                    throw new IllegalStateException(e);
+                }
+            })
+            .collect(Collectors.joining(",", "{\"items\": [", "]}"));
+        return new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8));
+    }
+
+    static MediaResult page(long offset, int max, long total) {
+        final List<MediaObject> items = LongStream.range(offset, Math.min(total, offset + max))
+            .mapToObj(i -> (MediaObject) program("mid_" + i))
+            .toList();
+        return new MediaResult(items, offset, max, equalsTo(total));
+    }
+
+    static Program program(String mid) {
+        return MediaBuilder.program(ProgramType.CLIP).mid(mid).mainTitle(mid).build();
+    }
+}
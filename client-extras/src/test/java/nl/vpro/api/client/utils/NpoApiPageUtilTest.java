@@ -1,98 +1,118 @@
 package nl.vpro.api.client.utils;
 
-import lombok.extern.slf4j.Slf4j;
-
-import java.io.*;
 import java.util.*;
-import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.*;
 import java.util.function.Supplier;
 
-import org.junit.jupiter.api.Disabled;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 
 import nl.vpro.api.client.frontend.NpoApiClients;
-import nl.vpro.domain.api.IdList;
-import nl.vpro.domain.api.MultipleEntry;
+import nl.vpro.api.rs.v3.page.PageRestService;
+import nl.vpro.domain.api.*;
+import nl.vpro.domain.api.page.*;
+import nl.vpro.domain.page.Embed;
 import nl.vpro.domain.page.Page;
-import nl.vpro.util.CloseableIterator;
-import nl.vpro.util.Env;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
 
-@Disabled("This is an integration test")
-@Slf4j
+@SuppressWarnings("unchecked")
 class NpoApiPageUtilTest {
 
-    private static final String[] TEST_MIDS = {"AVRO_1656037", "AVRO_1656037", "POMS_VPRO_487567", "BLOE_234", "WO_VPRO_4993480"};
+    private final NpoApiClients clients = mock(NpoApiClients.class);
+    private final PageRestService pageService = mock(PageRestService.class);
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(r -> new Thread(r, "async-test"));
+    private final List<String> threads = new CopyOnWriteArrayList<>();
+    private final NpoApiPageUtil util = new NpoApiPageUtil(clients);
+
+    @BeforeEach
+    void setup() {
+        when(clients.getPageService()).thenReturn(pageService);
+        when(clients.withCurrentSettings(any(Supplier.class))).thenAnswer(i -> i.getArgument(0));
+        util.setExecutor(executor);
+    }
 
-    private final NpoApiPageUtil util = new NpoApiPageUtil(
-        NpoApiClients.configured(Env.PROD).build(),
-        new NpoApiRateLimiter());
+    @AfterEach
+    void shutdown() {
+        executor.shutdownNow();
+    }
 
     @Test
-    void testLoadMultiple() {
-        Page[] result = util.loadByMid(Arrays.asList("vpro", null), null, TEST_MIDS);
-        System.out.println(Arrays.asList(result));
-        System.out.println(util.getClients().getCounts());
-        assertThat(util.getClients().getCount("PageRestService.find")).isEqualTo(2);
-
+    void loadAsync() throws Exception {
+        final Page first = mock(Page.class);
+        final Page second = mock(Page.class);
+        when(pageService.loadMultiple(any(), isNull(), isNull())).thenAnswer(i -> {
+            threads.add(Thread.currentThread().getName());
+            return multiple(first, second);
+        });
+
+        assertThat(util.loadAsync("a", "b").get(5, TimeUnit.SECONDS)).containsExactly(first, second);
+        assertThat(threads).containsExactly("async-test");
+        verify(clients).withCurrentSettings(any(Supplier.class));
     }
 
     @Test
-    void testSupplier() {
-        List<Supplier<Optional<Page>>> result = new ArrayList<>();
-        for (String m : TEST_MIDS) {
-            result.add(util.supplyByMid(Arrays.asList("vpro", null), null, m));
-        }
-
-        System.out.println(util.getClients().getCounts());
+    void findAsync() throws Exception {
+        final PageForm form = PageFormBuilder.form().build();
+        final PageSearchResult result = mock(PageSearchResult.class);
+        when(pageService.find(same(form), eq("vpro"), isNull(), eq(10L), eq(5))).thenAnswer(i -> {
+            threads.add(Thread.currentThread().getName());
+            return result;
+        });
+
+        assertThat(util.findAsync(form, "vpro", 10L, 5).get(5, TimeUnit.SECONDS)).isSameAs(result);
+        assertThat(threads).containsExactly("async-test");
+    }
 
-        for (Supplier<Optional<Page>> p : result) {
-            System.out.println(p.get().orElse(null));
-        }
-        System.out.println(util.getClients().getCounts());
-        assertThat(util.getClients().getCount("PageRestService.find")).isEqualTo(2);
+    @Test
+    void findAsyncFailure() {
+        when(pageService.find(any(), any(), any(), anyLong(), any())).thenThrow(new IllegalStateException("failed"));
 
+        assertThatThrownBy(() -> util.findAsync(PageFormBuilder.form().build(), null, null, null).get(5, TimeUnit.SECONDS))
+            .isInstanceOf(ExecutionException.class)
+            .hasCauseInstanceOf(IllegalStateException.class);
     }
 
-
     @Test
-    void iterate() throws IOException {
-        String profile = "vpro-predictions";
-        File out = new File("/tmp/" + profile);
-        final List<String> ids = new ArrayList<>();
-        try (BufferedWriter stream = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(out)))) {
-            AtomicLong count = new AtomicLong(0);
-            try (CloseableIterator<Page> i =  util.iterate(null, profile)) {
-                while(i.hasNext()) {
-                    Page p = i.next();
-                    if (count.incrementAndGet() % 1000 == 0) {
-                        log.info("{} {}", count.get(), p.getUrl());
-                    }
-                    ids.add(p.getUrl());
-                    if (count.get() >= 500) {
-                        log.info("Breaking");
-                        break;
-                    }
-                    try {
-                        stream.write(p.getUrl() + "\n");
-                    } catch (IOException e) {
-                        log.error(e.getMessage(), e);
-                    }
-                }
-            } catch (Exception e) {
-                log.error(e.getMessage(), e);
-            }
+    void loadByMidAsync() throws Exception {
+        final Page page = page("mid_1", "mid_2");
+        final PageSearchResult result = mock(PageSearchResult.class);
+        doReturn(List.of(page)).when(result).asList();
+        when(pageService.find(any(), eq("vpro"), isNull(), eq(0L), eq(240))).thenAnswer(i -> {
+            threads.add(Thread.currentThread().getName());
+            return result;
+        });
+
+        assertThat(util.loadByMidAsync(List.of("vpro"), null, "mid_2", "mid_3", "mid_1").get(5, TimeUnit.SECONDS))
+            .containsExactly(page, null, page);
+        assertThat(threads).containsExactly("async-test");
+    }
 
+    private static MultiplePageResult multiple(Page... pages) {
+        final List<MultipleEntry<Page>> entries = new ArrayList<>();
+        for (Page page : pages) {
+            final MultipleEntry<Page> entry = mock(MultipleEntry.class);
+            when(entry.getResult()).thenReturn(page);
+            entries.add(entry);
         }
-        List<MultipleEntry<Page>> multipleEntries = util.loadMultipleEntries(IdList.of(ids));
-        assertThat(multipleEntries).hasSameSizeAs(ids);
-        for (MultipleEntry<Page> p : multipleEntries) {
-            log.info("{}", p);
-            assertThat(p.isFound()).isTrue();
-        }
+        final MultiplePageResult result = mock(MultiplePageResult.class);
+        doReturn(entries.iterator()).when(result).iterator();
+        return result;
     }
 
-
-
+    private static Page page(String... mids) {
+        final List<Embed> embeds = new ArrayList<>();
+        for (String mid : mids) {
+            final Embed embed = mock(Embed.class, RETURNS_DEEP_STUBS);
+            when(embed.getMedia().getMid()).thenReturn(mid);
+            embeds.add(embed);
+        }
+        final Page page = mock(Page.class);
+        doReturn(embeds).when(page).getEmbeds();
+        return page;
+    }
 }
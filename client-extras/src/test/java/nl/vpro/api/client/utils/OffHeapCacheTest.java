@@ -0,0 +1,75 @@
+package nl.vpro.api.client.utils;
+
+import java.time.Duration;
+
+import org.junit.jupiter.api.Test;
+
+import nl.vpro.domain.media.*;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class OffHeapCacheTest {
+
+    @Test
+    void lru() {
+        OffHeapCache<MediaObject> cache = OffHeapCache.<MediaObject>builder()
+            .type(MediaObject.class)
+            .maxBytes(10_000)
+            .ttl(Duration.ofMinutes(1))
+            .build();
+        for (int i = 0; i < 100; i++) {
+            cache.put("mid_" + i, MediaBuilder.program(ProgramType.CLIP).mid("mid_" + i).mainTitle("title " + i).build());
+            // keep the first one used
+            assertThat(cache.get("mid_0")).isPresent();
+        }
+        assertThat(cache.getBytes()).isLessThanOrEqualTo(10_000);
+        assertThat(cache.getEvictionCount()).isPositive();
+        assertThat(cache.get("mid_1")).isEmpty();
+        assertThat(cache.get("mid_99").map(MediaObject::getMid)).contains("mid_99");
+        assertThat(cache.get("mid_0").map(MediaObject::getMainTitle)).contains("title 0");
+
+        cache.invalidate("mid_99");
+        assertThat(cache.get("mid_99")).isEmpty();
+        cache.invalidateAll();
+        assertThat(cache.size()).isZero();
+        assertThat(cache.getBytes()).isZero();
+    }
+
+    @Test
+    void blocksAreReused() {
+        OffHeapCache<MediaObject> cache = OffHeapCache.<MediaObject>builder()
+            .type(MediaObject.class)
+            .maxBytes(100L * OffHeapCache.BLOCK_SIZE * OffHeapCache.ARENA_BLOCKS)
+            .build();
+        String title = "a".repeat(3 * OffHeapCache.BLOCK_SIZE);
+        for (int i = 0; i < 10_000; i++) {
+            cache.put("mid", MediaBuilder.program(ProgramType.CLIP).mid("mid").mainTitle(title + i).build());
+        }
+        // spans several blocks
+        assertThat(cache.get("mid").map(MediaObject::getMainTitle)).contains(title + 9999);
+        assertThat(cache.size()).isEqualTo(1);
+        assertThat(cache.getEvictionCount()).isZero();
+        // only one arena was needed
+        assertThat(cache.getAllocatedBytes()).isEqualTo((long) OffHeapCache.BLOCK_SIZE * OffHeapCache.ARENA_BLOCKS);
+
+        cache.close();
+        assertThat(cache.getAllocatedBytes()).isZero();
+        assertThat(cache.get("mid")).isEmpty();
+    }
+
+    @Test
+    void ttl() throws InterruptedException {
+        OffHeapCache<MediaObject> cache = OffHeapCache.<MediaObject>builder()
+            .type(MediaObject.class)
+            .maxBytes(100_000)
+            .ttl(Duration.ofMinutes(1))
+            .build();
+        cache.put("mid", MediaBuilder.program(ProgramType.CLIP).mid("mid").build());
+        Thread.sleep(5);
+        assertThat(cache.get("mid")).isPresent();
+
+        cache.setTtl(Duration.ofMillis(1));
+        assertThat(cache.get("mid")).isEmpty();
+        assertThat(cache.getBytes()).isZero();
+    }
+}
@@ -0,0 +1,172 @@
+package nl.vpro.api.client.utils;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+
+import nl.vpro.domain.api.MediaChange;
+import nl.vpro.domain.api.MediaSince;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class PartitionedChangesListenerTest {
+
+    @Test
+    void orderPerMid() throws InterruptedException {
+        final Map<String, List<Integer>> handled = new ConcurrentHashMap<>();
+        final PartitionedChangesListener listener = PartitionedChangesListener.builder()
+            .partitions(4)
+            .delegate((since, change) ->
+                handled.computeIfAbsent(change.getMid(), m -> Collections.synchronizedList(new ArrayList<>()))
+                    .add(Integer.parseInt(since.getMid().split(":")[1])))
+            .build();
+        for (int i = 0; i < 1000; i++) {
+            String mid = "mid_" + (i % 17);
+            listener.accept(since(i, mid + ":" + i), change(mid));
+        }
+        listener.close();
+
+        assertThat(handled).hasSize(17);
+        handled.values().forEach(l -> assertThat(l).isSorted());
+        assertThat(listener.getInProgress()).isZero();
+        assertThat(listener.getCommitted().getMid()).isEqualTo("mid_" + (999 % 17) + ":999");
+    }
+
+    @Test
+    void committedWaitsForOldestInProgress() throws InterruptedException {
+        final CountDownLatch block = new CountDownLatch(1);
+        final PartitionedChangesListener listener = PartitionedChangesListener.builder()
+            .partitions(2)
+            .delegate((since, change) -> {
+                if (change.getMid().equals("slow")) {
+                    try {
+                        block.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            })
+            .build();
+        final String fast = listener.partition("slow") == listener.partition("a") ? "b" : "a";
+        assertThat(listener.partition(fast)).isNotEqualTo(listener.partition("slow"));
+
+        listener.accept(since(0, "first"), change(fast));
+        listener.accept(since(1, "slow"), change("slow"));
+        listener.accept(since(2, "third"), change(fast));
+        while (listener.getInProgress() > 1) {
+            Thread.sleep(5);
+        }
+        assertThat(listener.getCommitted().getMid()).isEqualTo("first");
+
+        block.countDown();
+        listener.close();
+        assertThat(listener.getCommitted().getMid()).isEqualTo("third");
+    }
+
+    @Test
+    void failedChangeIsRetried() throws InterruptedException {
+        final AtomicInteger attempts = new AtomicInteger();
+        final List<String> handled = new CopyOnWriteArrayList<>();
+        final PartitionedChangesListener listener = PartitionedChangesListener.builder()
+            .partitions(1)
+            .retryDelay(Duration.ofMillis(1))
+            .delegate((since, change) -> {
+                if (since.getMid().equals("second") && attempts.incrementAndGet() <= 2) {
+                    throw new IllegalStateException("failed");
+                }
+                handled.add(since.getMid());
+            })
+            .build();
+        listener.accept(since(0, "first"), change("a"));
+        listener.accept(since(1, "second"), change("a"));
+        listener.accept(since(2, "third"), change("a"));
+        listener.close();
+
+        assertThat(handled).containsExactly("first", "second", "third");
+        assertThat(listener.getFailure()).isNull();
+        assertThat(listener.getCommitted().getMid()).isEqualTo("third");
+    }
+
+    @Test
+    void failureHoldsCommittedPosition() throws InterruptedException {
+        final PartitionedChangesListener listener = PartitionedChangesListener.builder()
+            .partitions(1)
+            .maxAttempts(2)
+            .retryDelay(Duration.ofMillis(1))
+            .delegate((since, change) -> {
+                if (since.getMid().equals("second")) {
+                    throw new IllegalStateException("failed");
+                }
+            })
+            .build();
+        listener.accept(since(0, "first"), change("a"));
+        listener.accept(since(1, "second"), change("a"));
+        listener.accept(since(2, "third"), change("a"));
+        ChangesSubscriptionTest.awaitUntil(() -> listener.getFailure() != null);
+
+        assertThatThrownBy(() -> listener.accept(since(3, "fourth"), change("a")))
+            .isInstanceOf(IllegalStateException.class);
+        listener.close();
+        assertThat(listener.getFailure()).hasMessage("failed");
+        assertThat(listener.getCommitted().getMid()).isEqualTo("first");
+    }
+
+    @Test
+    void checkpointIsWrittenOutsideLock() throws Exception {
+        final CountDownLatch storing = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final List<String> stored = new CopyOnWriteArrayList<>();
+        final ChangesCheckpointStore store = new ChangesCheckpointStore() {
+            @Override
+            public Optional<MediaSince> load() {
+                return Optional.empty();
+            }
+
+            @Override
+            public void store(MediaSince since) {
+                storing.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                stored.add(since.getMid());
+            }
+        };
+        final PartitionedChangesListener listener = PartitionedChangesListener.builder()
+            .partitions(2)
+            .delegate((since, change) -> {})
+            .checkpointer(ChangesCheckpointer.builder().store(store).everyChanges(1L).build())
+            .build();
+        listener.accept(since(0, "first"), change("a"));
+        assertThat(storing.await(5, TimeUnit.SECONDS)).isTrue();
+
+        // while the checkpoint is being written, the listener is not blocked
+        final CompletableFuture<Integer> inProgress = CompletableFuture.supplyAsync(listener::getInProgress);
+        assertThat(inProgress.get(1, TimeUnit.SECONDS)).isZero();
+        listener.accept(since(1, "second"), change("b"));
+
+        release.countDown();
+        listener.close();
+        assertThat(stored).startsWith("first");
+        assertThat(listener.getCommitted().getMid()).isEqualTo("second");
+    }
+
+    private static MediaSince since(int i, String mid) {
+        return MediaSince.of(Instant.EPOCH.plusSeconds(i), mid);
+    }
+
+    private static MediaChange change(String mid) {
+        MediaChange change = mock(MediaChange.class);
+        when(change.getMid()).thenReturn(mid);
+        when(change.isTail()).thenReturn(false);
+        return change;
+    }
+}
@@ -0,0 +1,130 @@
+package nl.vpro.api.client.utils;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+import org.junit.jupiter.api.Test;
+
+import nl.vpro.domain.media.MediaObject;
+import nl.vpro.util.CloseableIterator;
+
+import static nl.vpro.api.client.utils.NpoApiMediaUtilTest.page;
+import static nl.vpro.api.client.utils.NpoApiMediaUtilTest.program;
+import static org.assertj.core.api.Assertions.assertThat;
+
+class UnPagingIteratorTest {
+
+    private final List<Long> offsets = new CopyOnWriteArrayList<>();
+
+    @Test
+    void pagesLazily() throws Exception {
+        try (UnPagingIterator<MediaObject> iterator = UnPagingIterator.<MediaObject>builder()
+            .supplier((max, offset) -> {
+                offsets.add(offset);
+                return page(offset, max, 25);
+            })
+            .batchSize(10)
+            .build()) {
+            assertThat(iterator.getTotalSize()).isEmpty();
+            assertThat(iterator.next().getMid()).isEqualTo("mid_0");
+            assertThat(offsets).containsExactly(0L);
+            assertThat(iterator.getTotalSize()).contains(25L);
+
+            final List<String> rest = new ArrayList<>();
+            iterator.forEachRemaining(o -> rest.add(o.getMid()));
+            assertThat(rest).hasSize(24).endsWith("mid_24");
+            assertThat(offsets).containsExactly(0L, 10L, 20L);
+            assertThat(iterator.getCount()).isEqualTo(25);
+        }
+    }
+
+    @Test
+    void filterAndMax() throws Exception {
+        try (UnPagingIterator<MediaObject> iterator = UnPagingIterator.<MediaObject>builder()
+            .supplier((max, offset) -> {
+                offsets.add(offset);
+                return page(offset, max, 100);
+            })
+            .batchSize(10)
+            .filter(o -> o.getMid().endsWith("0"))
+            .max(3L)
+            .build()) {
+            final List<String> mids = new ArrayList<>();
+            iterator.forEachRemaining(o -> mids.add(o.getMid()));
+            assertThat(mids).containsExactly("mid_0", "mid_10", "mid_20");
+            assertThat(offsets).containsExactly(0L, 10L, 20L);
+        }
+    }
+
+    @Test
+    void prefetch() throws Exception {
+        final ExecutorService executor = Executors.newSingleThreadExecutor();
+        try (UnPagingIterator<MediaObject> iterator = UnPagingIterator.<MediaObject>builder()
+            .supplier((max, offset) -> {
+                offsets.add(offset);
+                return page(offset, max, 25);
+            })
+            .batchSize(10)
+            .prefetchExecutor(executor)
+            .build()) {
+            iterator.next();
+            executor.submit(() -> null).get();
+            assertThat(offsets).containsExactly(0L, 10L);
+            assertThat(iterator).toIterable().hasSize(24);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    void fallbackBeyondMaxWindow() throws Exception {
+        final List<Long> fallbackOffsets = new ArrayList<>();
+        try (UnPagingIterator<MediaObject> iterator = UnPagingIterator.<MediaObject>builder()
+            .supplier((max, offset) -> {
+                offsets.add(offset);
+                return page(offset, max, 35);
+            })
+            .batchSize(10)
+            .maxWindow(30L)
+            .fallback(offset -> {
+                fallbackOffsets.add(offset);
+                return closeable(List.<MediaObject>of(program("fallback_" + offset)).iterator());
+            })
+            .build()) {
+            final List<String> mids = new ArrayList<>();
+            iterator.forEachRemaining(o -> mids.add(o.getMid()));
+            assertThat(mids).hasSize(31).startsWith("mid_0").endsWith("mid_29", "fallback_30");
+            assertThat(offsets).containsExactly(0L, 10L, 20L);
+            assertThat(fallbackOffsets).containsExactly(30L);
+        }
+    }
+
+    @Test
+    void stopsAtMaxWindowWithoutFallback() throws Exception {
+        try (UnPagingIterator<MediaObject> iterator = UnPagingIterator.<MediaObject>builder()
+            .supplier((max, offset) -> page(offset, max, 35))
+            .batchSize(10)
+            .maxWindow(30L)
+            .build()) {
+            assertThat(iterator).toIterable().hasSize(30);
+        }
+    }
+
+    static <T> CloseableIterator<T> closeable(Iterator<T> iterator) {
+        return new CloseableIterator<>() {
+            @Override
+            public boolean hasNext() {
+                return iterator.hasNext();
+            }
+
+            @Override
+            public T next() {
+                return iterator.next();
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+    }
+}
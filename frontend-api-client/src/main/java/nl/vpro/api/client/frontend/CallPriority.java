@@ -0,0 +1,19 @@
+package nl.vpro.api.client.frontend;
+
+/**
+ * The priority of calls to the API. Interactive calls go before background calls if they have to wait for the limits of the client (see {@link EndpointRateLimiter} and {@link ConcurrencyLimiter}).
+ *
+ * @author Michiel Meeuwissen
+ * @since 8.15
+ * @see NpoApiClients#setPriority(CallPriority)
+ */
+public enum CallPriority {
+    /**
+     * Calls on behalf of a user waiting for the result. This is the default.
+     */
+    INTERACTIVE,
+    /**
+     * Calls for batch processing, like reindexing
+     */
+    BACKGROUND
+}
@@ -0,0 +1,20 @@
+package nl.vpro.api.client.frontend;
+
+import lombok.Getter;
+
+/**
+ * Thrown if a call to the API is rejected by the client itself, because too many calls are in flight already (see {@link ConcurrencyLimiter}).
+ *
+ * @author Michiel Meeuwissen
+ * @since 8.15
+ */
+public class ConcurrencyLimitExceededException extends RuntimeException {
+
+    @Getter
+    private final transient ConcurrencyLimiter limiter;
+
+    public ConcurrencyLimitExceededException(ConcurrencyLimiter limiter) {
+        super("Too many calls in flight for " + limiter);
+        this.limiter = limiter;
+    }
+}
@@ -0,0 +1,310 @@
+package nl.vpro.api.client.frontend;
+
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Limits the number of calls in flight, and adapts that limit to the observed latency (in the style of the 'gradient' algorithm).
+ * <p>
+ * A long term average of the latency is compared to a short term average. If the short term average grows (the server gets slower, so requests are queueing somewhere) the limit is lowered proportionally. Otherwise, it grows with a few calls. Calls that fail (server errors, time outs) lower the limit too.
+ * <p>
+ * Calls which exceed the limit wait at most {@link #getMaxWait()} for a slot, after which they fail fast with a {@link ConcurrencyLimitExceededException}.
+ * <p>
+ * Calls with {@link CallPriority#BACKGROUND} may only use {@link #getBackgroundShare()} of the limit, and only start if no interactive calls are waiting.
+ * <p>
+ * Streaming responses hold their slot until they are consumed. If only those are in flight, one other call is always let through, so that the limit can recover after it was lowered to (nearly) the number of streams.
+ *
+ * @author Michiel Meeuwissen
+ * @since 8.15
+ */
+@Slf4j
+public class ConcurrencyLimiter {
+
+    /**
+     * The short term average may be this factor longer than the long term average before the limit is lowered
+     */
+    static final double TOLERANCE = 1.5;
+
+    @Getter
+    private final String name;
+    @Getter
+    private final int minLimit;
+    @Getter
+    private final int maxLimit;
+    @Getter
+    private final Duration maxWait;
+    private final double smoothing;
+    @Getter
+    private final double backgroundShare;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition available = lock.newCondition();
+
+    private double limit;
+    private int inFlight = 0;
+    private int streaming = 0;
+    private int waiting = 0;
+    private int interactiveWaiting = 0;
+    private double shortRtt = 0;
+    private double longRtt = 0;
+
+    private final AtomicLong successes = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+
+    @lombok.Builder
+    private ConcurrencyLimiter(
+        String name,
+        Integer initialLimit,
+        Integer minLimit,
+        Integer maxLimit,
+        Duration maxWait,
+        Double smoothing,
+        Double backgroundShare) {
+        this.name = name;
+        this.maxLimit = maxLimit == null ? 100 : maxLimit;
+        this.minLimit = minLimit == null ? 1 : minLimit;
+        this.limit = initialLimit == null ? Math.max(this.minLimit, this.maxLimit / 2d) : initialLimit;
+        this.maxWait = maxWait == null ? Duration.ofSeconds(1) : maxWait;
+        this.smoothing = smoothing == null ? 0.2 : smoothing;
+        this.backgroundShare = backgroundShare == null ? 0.75 : backgroundShare;
+    }
+
+    /**
+     * Obtains a slot. It must be released with {@link Permit#release(boolean)}.
+     * @throws ConcurrencyLimitExceededException If no slot became available within {@link #getMaxWait()}
+     */
+    public Permit acquire() {
+        return acquire(CallPriority.INTERACTIVE);
+    }
+
+    /**
+     * @see #acquire()
+     */
+    public Permit acquire(CallPriority priority) {
+        final boolean interactive = priority != CallPriority.BACKGROUND;
+        lock.lock();
+        try {
+            long nanos = maxWait.toNanos();
+            waiting++;
+            if (interactive) {
+                interactiveWaiting++;
+            }
+            try {
+                while (!mayStart(interactive)) {
+                    if (nanos <= 0) {
+                        rejected.incrementAndGet();
+                        throw new ConcurrencyLimitExceededException(this);
+                    }
+                    nanos = available.awaitNanos(nanos);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new ConcurrencyLimitExceededException(this);
+            } finally {
+                waiting--;
+                if (interactive) {
+                    interactiveWaiting--;
+                }
+            }
+            inFlight++;
+            return new Permit(System.nanoTime());
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private boolean mayStart(boolean interactive) {
+        if (inFlight == streaming && (interactive || interactiveWaiting == 0)) {
+            // the limit only changes when calls finish, which streams may not do soon
+            return true;
+        }
+        if (interactive) {
+            return inFlight < (int) limit;
+        }
+        return interactiveWaiting == 0 && inFlight < Math.max(1, (int) (limit * backgroundShare));
+    }
+
+    public double getLimit() {
+        lock.lock();
+        try {
+            return limit;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getInFlight() {
+        lock.lock();
+        try {
+            return inFlight;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * The number of calls in flight which are streaming responses that are still being consumed
+     */
+    public int getStreaming() {
+        lock.lock();
+        try {
+            return streaming;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * The number of calls currently waiting for a slot
+     */
+    public int getWaiting() {
+        lock.lock();
+        try {
+            return waiting;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * The short term average latency
+     */
+    public Duration getLatency() {
+        lock.lock();
+        try {
+            return Duration.ofNanos((long) shortRtt);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long getSuccesses() {
+        return successes.get();
+    }
+
+    public long getFailures() {
+        return failures.get();
+    }
+
+    /**
+     * The number of calls that were rejected, because no slot became available in time
+     */
+    public long getRejected() {
+        return rejected.get();
+    }
+
+    private void streaming() {
+        lock.lock();
+        try {
+            streaming++;
+            // waiting calls may start now
+            available.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void release(long rtt, boolean success, boolean streamed) {
+        lock.lock();
+        try {
+            if (streamed) {
+                streaming--;
+            }
+            final double before = limit;
+            if (success) {
+                successes.incrementAndGet();
+                update(rtt);
+            } else {
+                failures.incrementAndGet();
+                limit = Math.max(minLimit, limit * 0.9);
+            }
+            inFlight--;
+            if (limit != before) {
+                log.debug("{}: limit {} -> {}", name, before, limit);
+            }
+            available.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void update(long rtt) {
+        if (longRtt == 0) {
+            longRtt = rtt;
+            shortRtt = rtt;
+            return;
+        }
+        shortRtt = shortRtt * 0.9 + rtt * 0.1;
+        longRtt = longRtt * 0.99 + rtt * 0.01;
+        if (inFlight < limit / 2) {
+            // we're not using the limit anyway, so we can't learn anything about it
+            return;
+        }
+        final double gradient = Math.max(0.5, Math.min(1.0, TOLERANCE * longRtt / shortRtt));
+        final double queueSize = Math.sqrt(limit);
+        final double newLimit = limit * gradient + queueSize;
+        limit = Math.max(minLimit, Math.min(maxLimit, limit * (1 - smoothing) + newLimit * smoothing));
+        if (shortRtt > longRtt * 2) {
+            // the long term average is drifting upwards, let it recover more quickly
+            longRtt = longRtt * 0.95 + shortRtt * 0.05;
+        }
+    }
+
+    @Override
+    public String toString() {
+        lock.lock();
+        try {
+            return name + " (limit: " + String.format("%.1f", limit) + ", in flight: " + inFlight + ", waiting: " + waiting + ", latency: " + TimeUnit.NANOSECONDS.toMillis((long) shortRtt) + " ms)";
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * A slot obtained by {@link #acquire()}
+     */
+    public class Permit {
+        private final long start;
+        private volatile long responded = -1;
+        private final AtomicBoolean released = new AtomicBoolean(false);
+        private final AtomicBoolean streamed = new AtomicBoolean(false);
+
+        private Permit(long start) {
+            this.start = start;
+        }
+
+        /**
+         * Marks that the response started. For streaming responses, the slot is only released when the response is consumed, but the latency is measured until this.
+         */
+        public void responded() {
+            responded = System.nanoTime();
+        }
+
+        /**
+         * Marks that the result is streamed, and the slot is only released when it is consumed (see {@link ReleasingOnClose})
+         */
+        void streaming() {
+            if (!released.get() && streamed.compareAndSet(false, true)) {
+                ConcurrencyLimiter.this.streaming();
+            }
+        }
+
+        /**
+         * @param success Whether the call succeeded. Failures should only be reported if they indicate that the server is overloaded (time outs, 5xx)
+         */
+        public void release(boolean success) {
+            if (released.compareAndSet(false, true)) {
+                final long end = responded;
+                ConcurrencyLimiter.this.release((end < 0 ? System.nanoTime() : end) - start, success, streamed.get());
+            }
+        }
+    }
+}
@@ -0,0 +1,211 @@
+package nl.vpro.api.client.frontend;
+
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+
+import java.lang.reflect.Method;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Rate limits for specific endpoints, so that expensive calls (like {@code find} or {@code iterate}) can be limited separately from cheap ones (like {@code load}).
+ * <p>
+ * Buckets are configured by method name, optionally prefixed by the simple name of the service interface, e.g. {@code "find=5,MediaRestService.iterate=1"} (in requests per second). The bucket {@value #DEFAULT} applies to all methods for which no bucket is configured (e.g. {@code "*=50,find=5"}). Without it, such methods are not limited by this.
+ * <p>
+ * Callers wait in order of priority: a caller with {@link CallPriority#INTERACTIVE} goes before all callers with {@link CallPriority#BACKGROUND} that are waiting for the same bucket. Slots are only assigned when they are due, so queued background calls don't hold slots that interactive calls could use.
+ *
+ * @author Michiel Meeuwissen
+ * @since 8.15
+ */
+@Slf4j
+public class EndpointRateLimiter {
+
+    /**
+     * The name of the bucket for methods that have no bucket of their own
+     */
+    public static final String DEFAULT = "*";
+
+    private final Map<String, Bucket> buckets;
+    private final Map<Method, Optional<Bucket>> resolved = new ConcurrentHashMap<>();
+
+    public EndpointRateLimiter(Map<String, Double> rates) {
+        final Map<String, Bucket> b = new LinkedHashMap<>();
+        rates.forEach((name, rate) -> b.put(name, new Bucket(name, rate)));
+        this.buckets = Collections.unmodifiableMap(b);
+    }
+
+    /**
+     * @param config Comma separated list of {@code <[service.]method>=<rate per second>}
+     */
+    public static EndpointRateLimiter parse(String config) {
+        final Map<String, Double> rates = new LinkedHashMap<>();
+        if (config != null) {
+            for (String entry : config.split("\\s*,\\s*")) {
+                if (entry.isBlank()) {
+                    continue;
+                }
+                final String[] split = entry.split("\\s*=\\s*", 2);
+                if (split.length != 2) {
+                    throw new IllegalArgumentException("Could not parse '" + entry + "' (expected <method>=<rate>)");
+                }
+                rates.put(split[0].trim(), Double.parseDouble(split[1]));
+            }
+        }
+        return new EndpointRateLimiter(rates);
+    }
+
+    /**
+     * Waits until the call to the given method is allowed
+     */
+    public void acquire(Method method, CallPriority priority) {
+        bucket(method).ifPresent(b -> b.acquire(priority));
+    }
+
+    public Optional<Bucket> bucket(Method method) {
+        return resolved.computeIfAbsent(method, m -> {
+            Bucket bucket = buckets.get(m.getDeclaringClass().getSimpleName() + "." + m.getName());
+            if (bucket == null) {
+                bucket = buckets.get(m.getName());
+            }
+            if (bucket == null) {
+                bucket = buckets.get(DEFAULT);
+            }
+            return Optional.ofNullable(bucket);
+        });
+    }
+
+    public Collection<Bucket> getBuckets() {
+        return buckets.values();
+    }
+
+    public boolean isEmpty() {
+        return buckets.isEmpty();
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + " " + buckets.values();
+    }
+
+    public static class Bucket {
+        /**
+         * At most this much idle time is saved up for bursts (like guava's {@code RateLimiter})
+         */
+        private static final long MAX_BURST_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+        @Getter
+        private final String name;
+        private final ReentrantLock lock = new ReentrantLock();
+        private final Condition changed = lock.newCondition();
+        private final PriorityQueue<Waiter> waiters = new PriorityQueue<>();
+        private long sequence = 0;
+        private double rate;
+        private long intervalNanos;
+        private long nextFree = System.nanoTime();
+        private final Map<CallPriority, AtomicLong> counts = new EnumMap<>(CallPriority.class);
+
+        Bucket(String name, double rate) {
+            this.name = name;
+            setRate(rate);
+            for (CallPriority priority : CallPriority.values()) {
+                counts.put(priority, new AtomicLong());
+            }
+        }
+
+        /**
+         * Waits until this caller is the first in line (in order of priority, and then of arrival), and the next slot is due.
+         */
+        void acquire(CallPriority priority) {
+            lock.lock();
+            try {
+                final Waiter waiter = new Waiter(priority == null ? CallPriority.INTERACTIVE : priority, sequence++);
+                waiters.add(waiter);
+                // the current first in line may have to give way
+                changed.signalAll();
+                try {
+                    while (true) {
+                        if (waiters.peek() == waiter) {
+                            final long now = System.nanoTime();
+                            final long slot = Math.max(nextFree, now - MAX_BURST_NANOS);
+                            if (slot <= now) {
+                                nextFree = slot + intervalNanos;
+                                break;
+                            }
+                            changed.awaitNanos(slot - now);
+                        } else {
+                            changed.await();
+                        }
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IllegalStateException(e);
+                } finally {
+                    waiters.remove(waiter);
+                    changed.signalAll();
+                }
+            } finally {
+                lock.unlock();
+            }
+            counts.get(priority == null ? CallPriority.INTERACTIVE : priority).incrementAndGet();
+        }
+
+        public double getRate() {
+            lock.lock();
+            try {
+                return rate;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        public void setRate(double rate) {
+            if (rate <= 0) {
+                throw new IllegalArgumentException("Rate of " + name + " must be positive, but is " + rate);
+            }
+            lock.lock();
+            try {
+                this.rate = rate;
+                this.intervalNanos = (long) (TimeUnit.SECONDS.toNanos(1) / rate);
+                changed.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * The number of calls which passed this bucket with the given priority
+         */
+        public long getCount(CallPriority priority) {
+            return counts.get(priority).get();
+        }
+
+        /**
+         * The number of calls currently waiting for this bucket
+         */
+        public int getWaiting() {
+            lock.lock();
+            try {
+                return waiters.size();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        @Override
+        public String toString() {
+            return name + "=" + getRate() + "/s";
+        }
+
+        private record Waiter(CallPriority priority, long sequence) implements Comparable<Waiter> {
+            @Override
+            public int compareTo(Waiter o) {
+                final int result = priority.compareTo(o.priority);
+                return result != 0 ? result : Long.compare(sequence, o.sequence);
+            }
+        }
+    }
+}
@@ -8,7 +8,9 @@ import lombok.extern.slf4j.Slf4j;
 import java.lang.reflect.Method;
 import java.time.Duration;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
+import java.util.function.BiFunction;
 import java.util.function.Function;
 import java.util.function.Supplier;
 import java.util.stream.Collectors;
@@ -25,6 +27,7 @@ import org.meeuw.functional.TriFunction;
 import com.google.common.base.Suppliers;
 
 import nl.vpro.api.client.resteasy.AbstractApiClient;
+import nl.vpro.api.client.utils.CircuitBreaker;
 import nl.vpro.api.client.utils.Config;
 import nl.vpro.api.client.utils.Swagger;
 import nl.vpro.api.rs.subtitles.VTTSubtitlesReader;
@@ -59,7 +62,7 @@ import static org.meeuw.functional.Functions.ignoreArg1;
  * This is implemented by proxying the actual service interfaces used on the server. Most noticeably {@link MediaRestService} and {@link PageRestService}
  */
 @Description("Api clients for services on https://rs.poms.omroep.nl")
-public class NpoApiClients extends AbstractApiClient {
+public class NpoApiClients extends AbstractApiClient implements NpoApiClientsMXBean {
 
     public static final TriFunction<Method, Object[], String, Level> DEFAULT_HEADER_LEVEL =
         ignoreArg1(ignoreArg1((s) ->
@@ -95,6 +98,39 @@ public class NpoApiClients extends AbstractApiClient {
     @Getter
     private final TriFunction<Method, Object[], String, Level> headerLevel;
 
+    /**
+     * If set, the number of calls in flight per service is limited, adaptively, to at most this (see {@link ConcurrencyLimiter})
+     */
+    @Getter
+    private final Integer maxConcurrency;
+
+    private final Map<String, ConcurrencyLimiter> concurrencyLimiters = new ConcurrentHashMap<>();
+
+    /**
+     * Rate limits per endpoint (see {@link EndpointRateLimiter#parse(String)})
+     */
+    @Getter
+    private final EndpointRateLimiter endpointRateLimiter;
+
+    /**
+     * After this many consecutive failures calls to a service fail fast for {@link #getCircuitBreakerOpenDuration()} (see {@link CircuitBreaker}). If zero or negative (the default), no circuit breakers are used.
+     */
+    @Getter
+    private final int circuitBreakerThreshold;
+
+    @Getter
+    private final Duration circuitBreakerOpenDuration;
+
+    /**
+     * Calls which take longer than this are counted as failures by the circuit breakers. If {@code null}, only actual failures are.
+     */
+    @Getter
+    private final Duration slowCallThreshold;
+
+    private final Map<String, CircuitBreaker> circuitBreakers = new ConcurrentHashMap<>();
+
+    private final ThreadLocal<CallPriority> priorityThreadLocal = ThreadLocal.withInitial(() -> CallPriority.INTERACTIVE);
+
 
     @SuppressWarnings({"SpringAutowiredFieldsWarningInspection", "unused", "OptionalUsedAsFieldOrParameterType"})
     @Named
@@ -161,6 +197,26 @@ public class NpoApiClients extends AbstractApiClient {
         @Named("npo-api.bucketCount")
         Optional<Integer> bucketCount;
 
+        @Inject
+        @Named("npo-api.maxConcurrency")
+        Optional<Integer> maxConcurrency;
+
+        @Inject
+        @Named("npo-api.endpointRates")
+        Optional<String> endpointRates;
+
+        @Inject
+        @Named("npo-api.circuitBreakerThreshold")
+        Optional<Integer> circuitBreakerThreshold;
+
+        @Inject
+        @Named("npo-api.circuitBreakerOpenDuration")
+        Optional<String> circuitBreakerOpenDuration;
+
+        @Inject
+        @Named("npo-api.slowCallThreshold")
+        Optional<String> slowCallThreshold;
+
         private final ClassLoader classLoader = NpoApiClients.class.getClassLoader();
 
         public Builder builder = builder();
@@ -238,6 +294,11 @@ public class NpoApiClients extends AbstractApiClient {
         Boolean registerMBean,
         Function<NpoApiClients, String> toString,
         TriFunction<Method, Object[], String, Level> headerLevel,
+        Integer maxConcurrency,
+        String endpointRates,
+        Integer circuitBreakerThreshold,
+        Duration circuitBreakerOpenDuration,
+        Duration slowCallThreshold,
         boolean eager
     ) {
         super(withApiPostFix(baseUrl == null ? "https://rs.poms.omroep.nl/v1" : baseUrl),
@@ -286,6 +347,11 @@ public class NpoApiClients extends AbstractApiClient {
         }
         this.toString = toString;
         this.headerLevel = headerLevel == null ? DEFAULT_HEADER_LEVEL : headerLevel;
+        this.maxConcurrency = maxConcurrency;
+        this.endpointRateLimiter = EndpointRateLimiter.parse(endpointRates);
+        this.circuitBreakerThreshold = circuitBreakerThreshold == null ? 0 : circuitBreakerThreshold;
+        this.circuitBreakerOpenDuration = circuitBreakerOpenDuration == null ? Duration.ofSeconds(30) : circuitBreakerOpenDuration;
+        this.slowCallThreshold = slowCallThreshold;
     }
 
     @Override
@@ -391,6 +457,60 @@ public class NpoApiClients extends AbstractApiClient {
         this.maxThreadLocal.set(max);
     }
 
+    /**
+     * The priority of the calls done by the current thread
+     * @since 8.15
+     */
+    public CallPriority getPriority() {
+        return priorityThreadLocal.get();
+    }
+
+    /**
+     * Sets the priority of the calls done by the current thread. E.g. batch processes can set {@link CallPriority#BACKGROUND}, so that calls for users go first.
+     * @since 8.15
+     */
+    public void setPriority(CallPriority priority) {
+        priorityThreadLocal.set(priority == null ? CallPriority.INTERACTIVE : priority);
+    }
+
+    /**
+     * Profile, properties, max and priority are thread local. This wraps a supplier, so that if it is executed in another thread, it will use the values of the current one.
+     * @since 8.15
+     */
+    public <T> Supplier<T> withCurrentSettings(Supplier<T> supplier) {
+        final BiFunction<Void, Void, T> function = withCurrentSettings((Void a, Void b) -> supplier.get());
+        return () -> function.apply(null, null);
+    }
+
+    /**
+     * @see #withCurrentSettings(Supplier)
+     * @since 8.15
+     */
+    public <T, U, R> BiFunction<T, U, R> withCurrentSettings(BiFunction<T, U, R> function) {
+        final String currentProfile = getProfile();
+        final String currentProperties = getProperties();
+        final Integer currentMax = getMax();
+        final CallPriority currentPriority = getPriority();
+        return (t, u) -> {
+            final String prevProfile = getProfile();
+            final String prevProperties = getProperties();
+            final Integer prevMax = getMax();
+            final CallPriority prevPriority = getPriority();
+            setProfile(currentProfile);
+            setProperties(currentProperties);
+            setMax(currentMax);
+            setPriority(currentPriority);
+            try {
+                return function.apply(t, u);
+            } finally {
+                setProfile(prevProfile);
+                setProperties(prevProperties);
+                setMax(prevMax);
+                setPriority(prevPriority);
+            }
+        };
+    }
+
     /**
      * Creates a builder (see {@link #builder()}, and configures it the given config file (using {@link ConfigUtils#configured(Object, String...)}
      */
@@ -503,7 +623,81 @@ public class NpoApiClients extends AbstractApiClient {
 
 
     protected <T> T wrapClientAspect(T proxy, Class<T> service) {
-        return NpoApiClientsAspect.proxy(this, proxy, service);
+        return NpoApiClientsAspect.proxy(this, proxy, service,
+            getConcurrencyLimiter(service).orElse(null),
+            getCircuitBreaker(service).orElse(null)
+        );
+    }
+
+    /**
+     * The circuit breaker for calls to the given service, unless {@link #getCircuitBreakerThreshold()} is not positive.
+     * @since 8.15
+     */
+    public Optional<CircuitBreaker> getCircuitBreaker(Class<?> service) {
+        if (circuitBreakerThreshold <= 0) {
+            return Optional.empty();
+        }
+        return Optional.of(circuitBreakers.computeIfAbsent(service.getSimpleName(), name ->
+            CircuitBreaker.builder()
+                .name(name)
+                .failureThreshold(circuitBreakerThreshold)
+                .openDuration(circuitBreakerOpenDuration)
+                .slowCallThreshold(slowCallThreshold)
+                .build()
+        ));
+    }
+
+    /**
+     * The circuit breakers per service
+     * @since 8.15
+     */
+    public Map<String, CircuitBreaker> getCircuitBreakers() {
+        return Collections.unmodifiableMap(circuitBreakers);
+    }
+
+    @Override
+    public Map<String, String> getCircuitBreakerStates() {
+        return circuitBreakers.values().stream()
+            .collect(Collectors.toMap(CircuitBreaker::getName, b -> b.getState().name(), (a, b) -> a, TreeMap::new));
+    }
+
+    @Override
+    public long getCircuitBreakerRejectedCount() {
+        return circuitBreakers.values().stream().mapToLong(CircuitBreaker::getRejectedCount).sum();
+    }
+
+    @Override
+    public long getCircuitBreakerOpenedCount() {
+        return circuitBreakers.values().stream().mapToLong(CircuitBreaker::getOpenedCount).sum();
+    }
+
+    @Override
+    public void resetCircuitBreakers() {
+        circuitBreakers.values().forEach(CircuitBreaker::reset);
+    }
+
+    /**
+     * The concurrency limiter for calls to the given service, if {@link #getMaxConcurrency()} is set.
+     * @since 8.15
+     */
+    public Optional<ConcurrencyLimiter> getConcurrencyLimiter(Class<?> service) {
+        if (maxConcurrency == null || maxConcurrency <= 0) {
+            return Optional.empty();
+        }
+        return Optional.of(concurrencyLimiters.computeIfAbsent(service.getSimpleName(), name ->
+            ConcurrencyLimiter.builder()
+                .name(name)
+                .maxLimit(maxConcurrency)
+                .build()
+        ));
+    }
+
+    /**
+     * The concurrency limiters per service
+     * @since 8.15
+     */
+    public Map<String, ConcurrencyLimiter> getConcurrencyLimiters() {
+        return Collections.unmodifiableMap(concurrencyLimiters);
     }
 
     @Override
@@ -544,6 +738,7 @@ public class NpoApiClients extends AbstractApiClient {
         propertiesThreadLocal.remove();
         profileThreadLocal.remove();
         maxThreadLocal.remove();
+        priorityThreadLocal.remove();
     }
 
 
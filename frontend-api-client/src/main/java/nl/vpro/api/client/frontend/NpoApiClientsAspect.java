@@ -4,10 +4,13 @@ import lombok.extern.slf4j.Slf4j;
 
 import java.lang.annotation.Annotation;
 import java.lang.reflect.*;
+import java.time.Duration;
 
 import jakarta.ws.rs.QueryParam;
 import jakarta.ws.rs.WebApplicationException;
 
+import nl.vpro.api.client.utils.CircuitBreaker;
+
 import static nl.vpro.domain.api.Constants.*;
 
 /**
@@ -15,6 +18,9 @@ import static nl.vpro.domain.api.Constants.*;
  * - throttles all calls
  * - automaticly fills some common arguments (recognized by @QueryParam annotations)
  * - if the return type is Response, it also checks the status code
+ * - if a {@link ConcurrencyLimiter} is given, limits the number of calls in flight. Streaming responses are in flight until they are closed.
+ * - if a {@link CircuitBreaker} is given, fails fast with a {@link nl.vpro.api.client.utils.CircuitBreakerOpenException} if the service is failing or too slow
+ * - applies the {@link EndpointRateLimiter rate limits per endpoint}, taking into account the {@link CallPriority priority} of the current thread
  * @author Michiel Meeuwissen
  * @since 4.9
  */
@@ -23,32 +29,99 @@ class NpoApiClientsAspect<T> implements InvocationHandler {
 
     private final T proxied;
     private final NpoApiClients clients;
+    private final ConcurrencyLimiter concurrencyLimiter;
+    private final CircuitBreaker circuitBreaker;
 
 
-    NpoApiClientsAspect(NpoApiClients clients, T proxied) {
+    NpoApiClientsAspect(NpoApiClients clients, T proxied, ConcurrencyLimiter concurrencyLimiter, CircuitBreaker circuitBreaker) {
         this.proxied = proxied;
         this.clients = clients;
+        this.concurrencyLimiter = concurrencyLimiter;
+        this.circuitBreaker = circuitBreaker;
     }
 
     public static <T, S> T proxy(NpoApiClients clients, T proxied, Class<S> service) {
+        return proxy(clients, proxied, service, null, null);
+    }
+
+    public static <T, S> T proxy(NpoApiClients clients, T proxied, Class<S> service, ConcurrencyLimiter concurrencyLimiter, CircuitBreaker circuitBreaker) {
         return (T) Proxy.newProxyInstance(NpoApiClientsAspect.class.getClassLoader(),
-            new Class[]{service}, new NpoApiClientsAspect<T>(clients, proxied));
+            new Class[]{service}, new NpoApiClientsAspect<T>(clients, proxied, concurrencyLimiter, circuitBreaker));
     }
 
 
     @Override
     public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+        if (isObjectMethod(method)) {
+            return method.invoke(proxied, args);
+        }
+        if (circuitBreaker != null) {
+            circuitBreaker.acquire();
+        }
+        final CallPriority priority = clients.getPriority();
+        ConcurrencyLimiter.Permit permit;
+        try {
+            clients.getEndpointRateLimiter().acquire(method, priority);
+            permit = concurrencyLimiter == null ? null : concurrencyLimiter.acquire(priority);
+        } catch (RuntimeException e) {
+            // rejected by our own limiters, which says nothing about the service
+            if (circuitBreaker != null) {
+                circuitBreaker.onCancel();
+            }
+            throw e;
+        }
+        boolean success = false;
+        // waiting for the limiters doesn't count for the latency of the service
+        final long start = System.nanoTime();
         try {
             fillImplicitParameters(method, args);
             Object invoke = method.invoke(proxied, args);
             dealWithHeaders(method, args);
+            success = true;
+            if (permit != null) {
+                permit.responded();
+                final Object releasing = ReleasingOnClose.wrap(invoke, permit);
+                if (releasing != invoke) {
+                    // streaming response, the permit is released when it is closed
+                    permit = null;
+                }
+                return releasing;
+            }
             return invoke;
         } catch (InvocationTargetException itc) {
+            success = !indicatesOverload(itc.getCause());
             throw itc.getCause();
         } catch(WebApplicationException ise) {
+            success = !indicatesOverload(ise);
             log.error(ise.getResponse().getEntity().toString(), ise);
             throw ise;
+        } finally {
+            if (permit != null) {
+                permit.release(success);
+            }
+            if (circuitBreaker != null) {
+                if (success) {
+                    circuitBreaker.onSuccess(Duration.ofNanos(System.nanoTime() - start));
+                } else {
+                    circuitBreaker.onFailure();
+                }
+            }
+        }
+    }
+
+    private static boolean isObjectMethod(Method method) {
+        return method.getDeclaringClass() == Object.class;
+    }
+
+    /**
+     * Whether the exception indicates that the server is overloaded. Client errors (like 404) don't.
+     */
+    static boolean indicatesOverload(Throwable t) {
+        if (t instanceof WebApplicationException wae && wae.getResponse() != null) {
+            int status = wae.getResponse().getStatus();
+            return status == 429 || status >= 500;
         }
+        return true;
     }
 
     protected void fillImplicitParameters(Method method, Object[] args) {
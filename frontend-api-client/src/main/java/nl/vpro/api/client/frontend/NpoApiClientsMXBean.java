@@ -0,0 +1,32 @@
+package nl.vpro.api.client.frontend;
+
+import java.util.Map;
+
+import javax.management.MXBean;
+
+import nl.vpro.rs.client.AbstractApiClientMXBean;
+
+/**
+ * @author Michiel Meeuwissen
+ * @since 8.15
+ */
+@MXBean
+public interface NpoApiClientsMXBean extends AbstractApiClientMXBean {
+
+    /**
+     * The state of the circuit breaker per service
+     */
+    Map<String, String> getCircuitBreakerStates();
+
+    /**
+     * The total number of calls which failed fast, because the circuit breaker of their service was open
+     */
+    long getCircuitBreakerRejectedCount();
+
+    /**
+     * The total number of times a circuit breaker opened
+     */
+    long getCircuitBreakerOpenedCount();
+
+    void resetCircuitBreakers();
+}
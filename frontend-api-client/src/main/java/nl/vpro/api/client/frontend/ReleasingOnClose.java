@@ -0,0 +1,211 @@
+package nl.vpro.api.client.frontend;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.annotation.Annotation;
+import java.lang.ref.Cleaner;
+import java.net.URI;
+import java.util.*;
+
+import jakarta.ws.rs.core.*;
+
+/**
+ * Wraps the results of calls which are streamed (a {@link Response}, or an {@link InputStream}), so that the {@link ConcurrencyLimiter.Permit} of the call is only released when the result is closed, i.e. when it was consumed. Results which are never closed release their permit when they are garbage collected.
+ *
+ * @author Michiel Meeuwissen
+ * @since 8.15
+ */
+class ReleasingOnClose {
+
+    private static final Cleaner CLEANER = Cleaner.create();
+
+    private ReleasingOnClose() {
+    }
+
+    /**
+     * @return The wrapped result, or the result itself if it is not streamed (in which case the permit can be released right away)
+     */
+    static Object wrap(Object result, ConcurrencyLimiter.Permit permit) {
+        if (result instanceof Response response && response.getStatusInfo().getFamily() == Response.Status.Family.SUCCESSFUL) {
+            permit.streaming();
+            return new ReleasingResponse(response, permit);
+        }
+        if (result instanceof InputStream inputStream) {
+            permit.streaming();
+            return new ReleasingInputStream(inputStream, permit);
+        }
+        return result;
+    }
+
+    private static Cleaner.Cleanable register(Object object, ConcurrencyLimiter.Permit permit) {
+        return CLEANER.register(object, () -> permit.release(true));
+    }
+
+    static class ReleasingInputStream extends FilterInputStream {
+        private final Cleaner.Cleanable cleanable;
+
+        ReleasingInputStream(InputStream in, ConcurrencyLimiter.Permit permit) {
+            super(in);
+            this.cleanable = register(this, permit);
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                super.close();
+            } finally {
+                cleanable.clean();
+            }
+        }
+    }
+
+    static class ReleasingResponse extends Response {
+        private final Response response;
+        private final Cleaner.Cleanable cleanable;
+
+        ReleasingResponse(Response response, ConcurrencyLimiter.Permit permit) {
+            this.response = response;
+            this.cleanable = register(this, permit);
+        }
+
+        @Override
+        public void close() {
+            try {
+                response.close();
+            } finally {
+                cleanable.clean();
+            }
+        }
+
+        @Override
+        public int getStatus() {
+            return response.getStatus();
+        }
+
+        @Override
+        public StatusType getStatusInfo() {
+            return response.getStatusInfo();
+        }
+
+        @Override
+        public Object getEntity() {
+            return response.getEntity();
+        }
+
+        @Override
+        public <T> T readEntity(Class<T> entityType) {
+            return response.readEntity(entityType);
+        }
+
+        @Override
+        public <T> T readEntity(GenericType<T> entityType) {
+            return response.readEntity(entityType);
+        }
+
+        @Override
+        public <T> T readEntity(Class<T> entityType, Annotation[] annotations) {
+            return response.readEntity(entityType, annotations);
+        }
+
+        @Override
+        public <T> T readEntity(GenericType<T> entityType, Annotation[] annotations) {
+            return response.readEntity(entityType, annotations);
+        }
+
+        @Override
+        public boolean hasEntity() {
+            return response.hasEntity();
+        }
+
+        @Override
+        public boolean bufferEntity() {
+            return response.bufferEntity();
+        }
+
+        @Override
+        public MediaType getMediaType() {
+            return response.getMediaType();
+        }
+
+        @Override
+        public Locale getLanguage() {
+            return response.getLanguage();
+        }
+
+        @Override
+        public int getLength() {
+            return response.getLength();
+        }
+
+        @Override
+        public Set<String> getAllowedMethods() {
+            return response.getAllowedMethods();
+        }
+
+        @Override
+        public Map<String, NewCookie> getCookies() {
+            return response.getCookies();
+        }
+
+        @Override
+        public EntityTag getEntityTag() {
+            return response.getEntityTag();
+        }
+
+        @Override
+        public Date getDate() {
+            return response.getDate();
+        }
+
+        @Override
+        public Date getLastModified() {
+            return response.getLastModified();
+        }
+
+        @Override
+        public URI getLocation() {
+            return response.getLocation();
+        }
+
+        @Override
+        public Set<Link> getLinks() {
+            return response.getLinks();
+        }
+
+        @Override
+        public boolean hasLink(String relation) {
+            return response.hasLink(relation);
+        }
+
+        @Override
+        public Link getLink(String relation) {
+            return response.getLink(relation);
+        }
+
+        @Override
+        public Link.Builder getLinkBuilder(String relation) {
+            return response.getLinkBuilder(relation);
+        }
+
+        @Override
+        public MultivaluedMap<String, Object> getMetadata() {
+            return response.getMetadata();
+        }
+
+        @Override
+        public MultivaluedMap<String, String> getStringHeaders() {
+            return response.getStringHeaders();
+        }
+
+        @Override
+        public String getHeaderString(String name) {
+            return response.getHeaderString(name);
+        }
+
+        @Override
+        public String toString() {
+            return response.toString();
+        }
+    }
+}
@@ -0,0 +1,164 @@
+package nl.vpro.api.client.frontend;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.time.Duration;
+import java.util.Map;
+import java.util.function.Supplier;
+
+import jakarta.ws.rs.core.Response;
+
+import org.junit.jupiter.api.Test;
+
+import nl.vpro.api.client.utils.CircuitBreaker;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.Mockito.*;
+
+class ConcurrencyLimiterTest {
+
+    @Test
+    void rejectsWhenFull() {
+        ConcurrencyLimiter limiter = ConcurrencyLimiter.builder()
+            .name("test")
+            .initialLimit(2)
+            .maxLimit(10)
+            .maxWait(Duration.ofMillis(10))
+            .build();
+        ConcurrencyLimiter.Permit p1 = limiter.acquire();
+        limiter.acquire();
+        assertThat(limiter.getInFlight()).isEqualTo(2);
+        assertThatThrownBy(limiter::acquire).isInstanceOf(ConcurrencyLimitExceededException.class);
+        assertThat(limiter.getRejected()).isEqualTo(1);
+
+        p1.release(true);
+        p1.release(true);
+        assertThat(limiter.getInFlight()).isEqualTo(1);
+        limiter.acquire();
+    }
+
+    @Test
+    void failuresLowerTheLimit() {
+        ConcurrencyLimiter limiter = ConcurrencyLimiter.builder()
+            .name("test")
+            .initialLimit(10)
+            .build();
+        for (int i = 0; i < 5; i++) {
+            limiter.acquire().release(false);
+        }
+        assertThat(limiter.getLimit()).isLessThan(10);
+        assertThat(limiter.getFailures()).isEqualTo(5);
+    }
+
+    @Test
+    void growsWhileLatencyIsStable() {
+        ConcurrencyLimiter limiter = ConcurrencyLimiter.builder()
+            .name("test")
+            .initialLimit(4)
+            .maxLimit(20)
+            .build();
+        for (int round = 0; round < 50; round++) {
+            int limit = (int) limiter.getLimit();
+            ConcurrencyLimiter.Permit[] permits = new ConcurrencyLimiter.Permit[limit];
+            for (int i = 0; i < limit; i++) {
+                permits[i] = limiter.acquire();
+            }
+            for (ConcurrencyLimiter.Permit permit : permits) {
+                permit.release(true);
+            }
+        }
+        assertThat(limiter.getLimit()).isGreaterThan(4);
+        assertThat(limiter.getLimit()).isLessThanOrEqualTo(20);
+    }
+
+    @Test
+    void streamingResponseIsReleasedOnClose() throws Exception {
+        ConcurrencyLimiter limiter = ConcurrencyLimiter.builder()
+            .name("test")
+            .initialLimit(2)
+            .build();
+        ConcurrencyLimiter.Permit permit = limiter.acquire();
+        permit.responded();
+        Response response = (Response) ReleasingOnClose.wrap(Response.ok(new ByteArrayInputStream(new byte[10])).build(), permit);
+        assertThat(limiter.getInFlight()).isEqualTo(1);
+        assertThat(response.getStatus()).isEqualTo(200);
+
+        response.close();
+        assertThat(limiter.getInFlight()).isZero();
+        assertThat(limiter.getSuccesses()).isEqualTo(1);
+
+        ConcurrencyLimiter.Permit streamPermit = limiter.acquire();
+        try (InputStream inputStream = (InputStream) ReleasingOnClose.wrap(new ByteArrayInputStream(new byte[10]), streamPermit)) {
+            assertThat(inputStream.read()).isZero();
+            assertThat(limiter.getInFlight()).isEqualTo(1);
+        }
+        assertThat(limiter.getInFlight()).isZero();
+    }
+
+    @Test
+    void streamsDontBlockOtherCalls() throws Exception {
+        ConcurrencyLimiter limiter = ConcurrencyLimiter.builder()
+            .name("test")
+            .initialLimit(1)
+            .minLimit(1)
+            .maxWait(Duration.ofMillis(10))
+            .build();
+        ConcurrencyLimiter.Permit streamPermit = limiter.acquire();
+        streamPermit.responded();
+        try (InputStream inputStream = (InputStream) ReleasingOnClose.wrap(new ByteArrayInputStream(new byte[10]), streamPermit)) {
+            assertThat(limiter.getStreaming()).isEqualTo(1);
+
+            // the limit is reached, but only by the stream, so one other call may start
+            ConcurrencyLimiter.Permit permit = limiter.acquire();
+            assertThat(limiter.getInFlight()).isEqualTo(2);
+            assertThatThrownBy(limiter::acquire).isInstanceOf(ConcurrencyLimitExceededException.class);
+            permit.release(true);
+
+            limiter.acquire(CallPriority.BACKGROUND).release(true);
+            assertThat(limiter.getSuccesses()).isEqualTo(2);
+            assertThat(inputStream.read()).isZero();
+        }
+        assertThat(limiter.getStreaming()).isZero();
+        assertThat(limiter.getInFlight()).isZero();
+    }
+
+    @Test
+    void nonStreamingResultsAreNotWrapped() {
+        ConcurrencyLimiter limiter = ConcurrencyLimiter.builder()
+            .name("test")
+            .build();
+        ConcurrencyLimiter.Permit permit = limiter.acquire();
+        Response notFound = Response.status(404).build();
+        assertThat(ReleasingOnClose.wrap(notFound, permit)).isSameAs(notFound);
+        assertThat(ReleasingOnClose.wrap("result", permit)).isEqualTo("result");
+    }
+
+    @Test
+    void rejectionsAreNoFailuresOfTheService() {
+        ConcurrencyLimiter limiter = ConcurrencyLimiter.builder()
+            .name("test")
+            .initialLimit(1)
+            .maxWait(Duration.ofMillis(10))
+            .build();
+        CircuitBreaker breaker = CircuitBreaker.builder()
+            .failureThreshold(1)
+            .build();
+        NpoApiClients clients = mock(NpoApiClients.class);
+        when(clients.getPriority()).thenReturn(CallPriority.INTERACTIVE);
+        when(clients.getEndpointRateLimiter()).thenReturn(new EndpointRateLimiter(Map.of()));
+        @SuppressWarnings("unchecked")
+        Supplier<String> service = mock(Supplier.class);
+        when(service.get()).thenReturn("result");
+        Supplier<String> proxy = NpoApiClientsAspect.proxy(clients, service, Supplier.class, limiter, breaker);
+
+        ConcurrencyLimiter.Permit permit = limiter.acquire();
+        assertThatThrownBy(proxy::get).isInstanceOf(ConcurrencyLimitExceededException.class);
+        assertThat(breaker.getState()).isEqualTo(CircuitBreaker.State.CLOSED);
+        verifyNoInteractions(service);
+
+        permit.release(true);
+        assertThat(proxy.get()).isEqualTo("result");
+        assertThat(limiter.getInFlight()).isZero();
+    }
+}
@@ -0,0 +1,86 @@
+package nl.vpro.api.client.frontend;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class EndpointRateLimiterTest {
+
+    interface SomeService {
+        void find();
+        void iterate();
+        void load();
+    }
+
+    @Test
+    void parseAndResolve() throws NoSuchMethodException {
+        EndpointRateLimiter limiter = EndpointRateLimiter.parse("find=5, SomeService.iterate = 1, OtherService.load=2");
+        assertThat(limiter.getBuckets()).hasSize(3);
+
+        Method find = SomeService.class.getMethod("find");
+        Method iterate = SomeService.class.getMethod("iterate");
+        Method load = SomeService.class.getMethod("load");
+        assertThat(limiter.bucket(find).map(EndpointRateLimiter.Bucket::getName)).contains("find");
+        assertThat(limiter.bucket(iterate).map(EndpointRateLimiter.Bucket::getName)).contains("SomeService.iterate");
+        assertThat(limiter.bucket(load)).isEmpty();
+
+        limiter.acquire(find, CallPriority.BACKGROUND);
+        limiter.acquire(find, CallPriority.INTERACTIVE);
+        assertThat(limiter.bucket(find).orElseThrow().getCount(CallPriority.BACKGROUND)).isEqualTo(1);
+        assertThat(limiter.bucket(find).orElseThrow().getCount(CallPriority.INTERACTIVE)).isEqualTo(1);
+    }
+
+    @Test
+    void parseEmpty() {
+        assertThat(EndpointRateLimiter.parse(null).isEmpty()).isTrue();
+        assertThat(EndpointRateLimiter.parse("").isEmpty()).isTrue();
+        assertThatThrownBy(() -> EndpointRateLimiter.parse("find")).isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    void defaultBucket() throws NoSuchMethodException {
+        EndpointRateLimiter limiter = EndpointRateLimiter.parse("*=50,find=5");
+        assertThat(limiter.bucket(SomeService.class.getMethod("find")).map(EndpointRateLimiter.Bucket::getName)).contains("find");
+        assertThat(limiter.bucket(SomeService.class.getMethod("load")).map(EndpointRateLimiter.Bucket::getName)).contains(EndpointRateLimiter.DEFAULT);
+    }
+
+    @Test
+    void interactiveCallsOvertakeQueuedBackgroundCalls() throws Exception {
+        EndpointRateLimiter limiter = EndpointRateLimiter.parse("find=10");
+        Method find = SomeService.class.getMethod("find");
+        EndpointRateLimiter.Bucket bucket = limiter.bucket(find).orElseThrow();
+        limiter.acquire(find, CallPriority.INTERACTIVE);
+
+        List<String> order = new CopyOnWriteArrayList<>();
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            String name = "background_" + i;
+            threads.add(Thread.startVirtualThread(() -> {
+                limiter.acquire(find, CallPriority.BACKGROUND);
+                order.add(name);
+            }));
+        }
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (bucket.getWaiting() < 3 && System.nanoTime() < deadline) {
+            Thread.sleep(1);
+        }
+        assertThat(bucket.getWaiting()).isEqualTo(3);
+
+        limiter.acquire(find, CallPriority.INTERACTIVE);
+        order.add("interactive");
+        for (Thread thread : threads) {
+            thread.join(5000);
+        }
+
+        assertThat(order).hasSize(4);
+        assertThat(order.get(0)).isEqualTo("interactive");
+        assertThat(bucket.getCount(CallPriority.BACKGROUND)).isEqualTo(3);
+    }
+}
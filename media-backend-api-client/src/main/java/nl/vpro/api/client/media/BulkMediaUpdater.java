@@ -0,0 +1,125 @@
+package nl.vpro.api.client.media;
+
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.stream.Stream;
+
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+import nl.vpro.domain.media.update.MediaUpdate;
+
+/**
+ * Submits a (large) number of {@link MediaUpdate media updates} concurrently.
+ * <ul>
+ *     <li>At most {@code concurrency} updates are in progress at the same time. The source of the updates is only read further if there is room, so a stream of updates is never completely in memory.</li>
+ *     <li>Updates for the same mid are done one after the other, in the order in which they were offered. Updates without a mid (new objects) are not ordered.</li>
+ *     <li>The number of (successful and failed) updates, and the results of the failed ones are collected in a {@link MediaUpdateReport}. All results can be followed via a listener, so they never need to be in memory at the same time.</li>
+ * </ul>
+ *
+ * @author Michiel Meeuwissen
+ * @since 8.15
+ * @see MediaRestClient#setAll(Stream, int, double)
+ */
+@Slf4j
+public class BulkMediaUpdater {
+
+    private final Function<MediaUpdate<?>, MediaUpdateResult> updater;
+    @Getter
+    private final int concurrency;
+    private final @Nullable Consumer<MediaUpdateResult> listener;
+
+    @lombok.Builder
+    private BulkMediaUpdater(
+        Function<MediaUpdate<?>, MediaUpdateResult> updater,
+        Integer concurrency,
+        @Nullable Consumer<MediaUpdateResult> listener) {
+        this.updater = updater;
+        this.concurrency = concurrency == null ? 4 : concurrency;
+        if (this.concurrency < 1) {
+            throw new IllegalArgumentException("concurrency should be at least 1");
+        }
+        this.listener = listener;
+    }
+
+    public MediaUpdateReport run(Stream<? extends MediaUpdate<?>> updates) {
+        try (updates) {
+            return run(updates.iterator());
+        }
+    }
+
+    /**
+     * Performs all updates, and waits until they are finished.
+     */
+    public MediaUpdateReport run(Iterator<? extends MediaUpdate<?>> updates) {
+        final MediaUpdateReport report = new MediaUpdateReport();
+        final Semaphore window = new Semaphore(concurrency);
+        final Map<String, CompletableFuture<Void>> lanes = new ConcurrentHashMap<>();
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            while (updates.hasNext()) {
+                final MediaUpdate<?> update = updates.next();
+                window.acquire();
+                final String mid = update.getMid();
+                final CompletableFuture<Void> done = new CompletableFuture<>();
+                final Runnable task = () -> {
+                    try {
+                        handle(update, report);
+                    } finally {
+                        if (mid != null) {
+                            lanes.remove(mid, done);
+                        }
+                        done.complete(null);
+                        window.release();
+                    }
+                };
+                final CompletableFuture<Void> previous = mid == null ? null : lanes.put(mid, done);
+                if (previous == null) {
+                    executor.execute(task);
+                } else {
+                    log.debug("{} waits for previous update", mid);
+                    previous.whenComplete((v, t) -> executor.execute(task));
+                }
+            }
+            // wait for the updates still in progress
+            window.acquire(concurrency);
+            window.release(concurrency);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        } finally {
+            report.finish();
+        }
+        log.info("{}", report);
+        return report;
+    }
+
+    private void handle(MediaUpdate<?> update, MediaUpdateReport report) {
+        MediaUpdateResult result;
+        try {
+            result = updater.apply(update);
+        } catch (RuntimeException e) {
+            result = MediaUpdateResult.failed(update.getMid(), e, List.of(), Duration.ZERO);
+        }
+        if (!result.isSuccess()) {
+            log.warn("{}: {}", result.mid(), result.error());
+        }
+        report.add(result);
+        if (listener != null) {
+            try {
+                listener.accept(result);
+            } catch (Exception e) {
+                log.error("Error handling {}: {} {}", result, e.getClass().getName(), e.getMessage(), e);
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + " (concurrency: " + concurrency + ")";
+    }
+}
@@ -2,16 +2,20 @@ package nl.vpro.api.client.media;
 
 import jakarta.inject.Inject;
 import jakarta.inject.Named;
+import jakarta.ws.rs.InternalServerErrorException;
+import jakarta.ws.rs.ProcessingException;
 import jakarta.ws.rs.ServiceUnavailableException;
 import jakarta.ws.rs.client.*;
 import jakarta.ws.rs.core.Response;
 import lombok.*;
 
+import java.io.IOException;
 import java.lang.reflect.Method;
 import java.time.Duration;
 import java.util.*;
-import java.util.concurrent.Callable;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.*;
+import java.util.function.Consumer;
+import java.util.function.Function;
 import java.util.function.Supplier;
 import java.util.stream.Stream;
 
@@ -24,10 +28,14 @@ import org.meeuw.functional.TriFunction;
 
 import com.google.common.base.Suppliers;
 import com.google.common.util.concurrent.RateLimiter;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.google.errorprone.annotations.CanIgnoreReturnValue;
 
 import nl.vpro.api.client.resteasy.AbstractApiClient;
+import nl.vpro.api.client.utils.CircuitBreaker;
+import nl.vpro.api.client.utils.CircuitBreakerOpenException;
 import nl.vpro.api.client.utils.Config;
+import nl.vpro.api.client.utils.RetryPolicy;
 import nl.vpro.api.rs.subtitles.*;
 import nl.vpro.domain.media.*;
 import nl.vpro.domain.media.search.*;
@@ -87,6 +95,8 @@ import static nl.vpro.domain.media.search.Pager.Direction.ASC;
  * </pre>
  *
  * You can also configure it implicitly: MediaRestClient client = new MediaRestClient().configured();
+ * <p>
+ * If {@link #isWaitForRetry()}, calls which fail because of server problems are retried according to the {@link #getRetryPolicy() retry policy}. If a {@link #getCircuitBreaker() circuit breaker} is configured (there is none by default), it opens if the backend keeps failing, and calls then fail fast with a {@link CircuitBreakerOpenException}.
  *
  * @author Michiel Meeuwissen
  */
@@ -125,6 +135,46 @@ public class MediaRestClient extends AbstractApiClient implements MediaRestClien
     @Setter
     protected boolean waitForRetry = false;
 
+    /**
+     * Used by {@link #async(Function)} to schedule retries, rather than waiting for them
+     */
+    private static final ScheduledExecutorService RETRY_SCHEDULER = Executors.newSingleThreadScheduledExecutor(
+        new ThreadFactoryBuilder()
+            .setNameFormat("media-rest-client-retry-%d")
+            .setDaemon(true)
+            .build()
+    );
+
+    private static final ThreadLocal<Boolean> SCHEDULING_RETRIES = ThreadLocal.withInitial(() -> false);
+
+    /**
+     * If set, calls of the current thread are throttled by this (the rate of a {@link #setAll(Stream, int, double) bulk update}) too, besides by the throttle of the client
+     */
+    private static final ThreadLocal<RateLimiter> BULK_THROTTLE = new ThreadLocal<>();
+
+    /**
+     * If set, the validation warnings of calls of the current thread are collected in this list too
+     */
+    private static final ThreadLocal<List<String>> COLLECTED_WARNINGS = new ThreadLocal<>();
+
+    @Getter
+    @Setter
+    private RetryPolicy retryPolicy;
+
+    /**
+     * The circuit breaker for calls to the backend, or {@code null} if there is none.
+     */
+    @Getter
+    private final CircuitBreaker circuitBreaker;
+
+    private final ExecutorService defaultAsyncExecutor = Executors.newVirtualThreadPerTaskExecutor();
+
+    /**
+     * The executor for {@link #async(Function)}. Defaults to virtual threads, which are shut down on {@link #close()}. An executor which is set explicitly is not shut down.
+     */
+    @Setter
+    private Executor asyncExecutor = defaultAsyncExecutor;
+
     @Getter
     @Setter
     protected boolean lookupCrids = true;
@@ -263,6 +313,8 @@ public class MediaRestClient extends AbstractApiClient implements MediaRestClien
         boolean publishImmediately,
         Boolean deletes,
         TriFunction<Method, Object[], String, Level> headerLevel,
+        RetryPolicy retryPolicy,
+        CircuitBreaker circuitBreaker,
         boolean eager) {
         super(
             baseUrl,
@@ -324,6 +376,8 @@ public class MediaRestClient extends AbstractApiClient implements MediaRestClien
         this.publishImmediately = publishImmediately;
         this.deletes = deletes;
         this.headerLevel = headerLevel == null ? DEFAULT_HEADER_LEVEL : headerLevel;
+        this.retryPolicy = retryPolicy == null ? RetryPolicy.builder().build() : retryPolicy;
+        this.circuitBreaker = circuitBreaker;
     }
 
 
@@ -487,15 +541,9 @@ public class MediaRestClient extends AbstractApiClient implements MediaRestClien
     @SuppressWarnings("unchecked")
     @SneakyThrows
     protected <T extends MediaUpdate<?>> T get(final @NonNull Class<T> type, final @NonNull String id) {
-        int retryCountDown = 20;
-        while(true) {
-            try {
-                return (T) getBackendRestService()
-                    .getMedia(valueOf(type), id, followMerges, owner);
-            } catch (Exception noHttpResponseException) {
-                retryAfterWaitOrException(noHttpResponseException.getMessage(), retryCountDown--);
-            }
-        }
+        // failing calls are retried by the MediaRestClientAspect already
+        return (T) getBackendRestService()
+            .getMedia(valueOf(type), id, followMerges, owner);
     }
 
 
@@ -724,6 +772,68 @@ public class MediaRestClient extends AbstractApiClient implements MediaRestClien
         return set(EntityType.AllMedia.media, mediaUpdate, errors);
     }
 
+    /**
+     * Submits all given updates, with at most {@code concurrency} of them in progress at the same time. Updates for the same mid are done in order.
+     * <p>
+     * The updates are throttled at {@code rate}, but never faster than the throttle of the client allows, which stays the cap for all calls: the {@link #getThrottleRate() throttle rate} if {@link #isPublishImmediately() published immediately}, otherwise the {@link #setAsynchronousThrottleRate(double) asynchronous throttle rate}. The throughput is limited by both these rates and the concurrency (at most {@code concurrency} divided by the duration of one update).
+     * @param rate The maximal number of updates per second of this bulk update. This can only narrow the rate of the client.
+     * @return A report with the number of successful updates and the failed ones
+     * @see BulkMediaUpdater
+     * @since 8.15
+     */
+    public MediaUpdateReport setAll(Stream<? extends MediaUpdate<?>> updates, int concurrency, double rate) {
+        return bulkUpdater(concurrency, rate, null).run(updates);
+    }
+
+    /**
+     * @param listener If not {@code null}, called with the result of every update as soon as it is available. The report only keeps the failed ones.
+     * @see #setAll(Stream, int, double)
+     * @since 8.15
+     */
+    public MediaUpdateReport setAll(Iterator<? extends MediaUpdate<?>> updates, int concurrency, double rate, @Nullable Consumer<MediaUpdateResult> listener) {
+        return bulkUpdater(concurrency, rate, listener).run(updates);
+    }
+
+    private BulkMediaUpdater bulkUpdater(int concurrency, double rate, @Nullable Consumer<MediaUpdateResult> listener) {
+        final RateLimiter bulkThrottle = RateLimiter.create(rate);
+        return BulkMediaUpdater.builder()
+            .updater(update -> setForReport(update, bulkThrottle))
+            .concurrency(concurrency)
+            .listener(listener)
+            .build();
+    }
+
+    /**
+     * Sets the update, and returns the result (including the warnings for it), rather than throwing an exception if it fails
+     * @param bulkThrottle The throttle of the bulk update, which is acquired besides the one of the client
+     * @since 8.15
+     */
+    MediaUpdateResult setForReport(MediaUpdate<?> update, RateLimiter bulkThrottle) {
+        final long start = System.nanoTime();
+        final List<String> collected = new ArrayList<>();
+        COLLECTED_WARNINGS.set(collected);
+        BULK_THROTTLE.set(bulkThrottle);
+        try {
+            final String response = set(update);
+            return MediaUpdateResult.success(update.getMid(), response, collected, Duration.ofNanos(System.nanoTime() - start));
+        } catch (Exception e) {
+            return MediaUpdateResult.failed(update.getMid(), e, collected, Duration.ofNanos(System.nanoTime() - start));
+        } finally {
+            COLLECTED_WARNINGS.remove();
+            BULK_THROTTLE.remove();
+        }
+    }
+
+    void addWarning(String warning) {
+        synchronized (warnings) {
+            warnings.add(warning);
+        }
+        final List<String> collected = COLLECTED_WARNINGS.get();
+        if (collected != null) {
+            collected.add(warning);
+        }
+    }
+
     public Iterator<MemberUpdate> getAllMembers(String mid) {
         return BatchedReceiver.<MemberUpdate>builder()
             .batchSize(240)
@@ -808,33 +918,131 @@ public class MediaRestClient extends AbstractApiClient implements MediaRestClien
         proxy = null;
     }
 
+    @Override
+    public synchronized void close() {
+        super.close();
+        defaultAsyncExecutor.shutdown();
+    }
+
     @Override
     public String toString() {
         return userName + "@" + baseUrl;
     }
 
-    void retryAfterWaitOrException(String action, RuntimeException e) {
-        if (!waitForRetry) {
-            throw e;
-        }
-        retryAfterWaitOrException(action + ":" + e.getMessage(), 1);
+    /**
+     * Performs a call using this client in another thread, and returns its result as a future. Failed calls are retried according to the {@link #getRetryPolicy() retry policy}, but the retries are scheduled, so no thread is blocked while waiting for them. This is also the case if {@link #isWaitForRetry()} is {@code false}.
+     * <p>
+     * E.g. {@code client.async(c -> c.get(mid))}
+     * @since 8.15
+     */
+    public <T> CompletableFuture<T> async(Function<MediaRestClient, T> call) {
+        return retryPolicy.executeAsync(
+            () -> CompletableFuture.supplyAsync(() -> {
+                SCHEDULING_RETRIES.set(true);
+                try {
+                    return call.apply(this);
+                } finally {
+                    SCHEDULING_RETRIES.remove();
+                }
+            }, asyncExecutor),
+            MediaRestClient::isRetryable,
+            RETRY_SCHEDULER
+        );
+    }
+
+    /**
+     * Whether the call should be retried after this exception
+     * @since 8.15
+     */
+    static boolean isRetryable(Throwable t) {
+        return t instanceof ServiceUnavailableException ||
+            t instanceof InternalServerErrorException ||
+            t instanceof CircuitBreakerOpenException ||
+            (t instanceof ProcessingException pe && isTransportFailure(pe));
+    }
+
+    /**
+     * Whether the call failed on the connection rather than in the server, e.g. because of a {@link java.net.SocketException}, a {@code NoHttpResponseException} or a {@code ConnectTimeoutException}. These are all {@link IOException}s.
+     * @since 8.15
+     */
+    static boolean isTransportFailure(ProcessingException pe) {
+        return pe.getCause() instanceof IOException;
+    }
+
+    /**
+     * Whether retries are scheduled by {@link #async(Function)}. The aspect must then not wait for them itself
+     */
+    boolean isSchedulingRetries() {
+        return SCHEDULING_RETRIES.get();
     }
 
-    void retryAfterWaitOrException(String cause, int retryCount) {
-        if (!waitForRetry || retryCount <= 0) {
-            throw new RuntimeException(cause);
+    /**
+     * Waits before a call is retried. If {@link #isWaitForRetry()} is false, or the {@link #getRetryPolicy() retry policy} doesn't allow another retry, the exception is thrown.
+     * @param attempt The number of the retry (1 for the first retry)
+     */
+    void retryAfterWaitOrException(String action, RuntimeException e, int attempt) {
+        if (!waitForRetry || isSchedulingRetries()) {
+            throw e;
+        }
+        final Duration delay = retryPolicy.nextDelay(attempt, e).orElse(null);
+        if (delay == null) {
+            log.warn("{}@{} {}, not retrying (attempt {}, {})", userName, baseUrl, action, attempt, retryPolicy);
+            throw e;
         }
         try {
-            log.warn("{}@{} {}, retrying after 30 s", userName, baseUrl, cause);
-            Thread.sleep(30000);
-        } catch (InterruptedException e) {
+            log.warn("{}@{} {}, retry {} after {}", userName, baseUrl, action, attempt, delay);
+            Thread.sleep(delay.toMillis());
+        } catch (InterruptedException ie) {
             Thread.currentThread().interrupt();
-            throw new RuntimeException(e);
+            throw new RuntimeException(ie);
+        }
+    }
+
+    @Override
+    public long getRetries() {
+        return retryPolicy.getRetries();
+    }
+
+    @Override
+    public long getRetriesRefused() {
+        return retryPolicy.getBudgetExhausted() + retryPolicy.getGivenUp();
+    }
+
+    @Override
+    public String getCircuitBreakerState() {
+        return circuitBreaker == null ? null : circuitBreaker.getState().name();
+    }
+
+    @Override
+    public long getCircuitBreakerOpenedCount() {
+        return circuitBreaker == null ? 0 : circuitBreaker.getOpenedCount();
+    }
+
+    @Override
+    public long getCircuitBreakerRejectedCount() {
+        return circuitBreaker == null ? 0 : circuitBreaker.getRejectedCount();
+    }
+
+    @Override
+    public void resetCircuitBreaker() {
+        if (circuitBreaker != null) {
+            circuitBreaker.reset();
         }
     }
 
     void throttle() {
-        throttle.acquire();
+        final RateLimiter bulkThrottle = BULK_THROTTLE.get();
+        if (bulkThrottle == null) {
+            throttle.acquire();
+            return;
+        }
+        // the rate of a bulk update can only narrow the rate of the client
+        bulkThrottle.acquire();
+        if (publishImmediately) {
+            throttle.acquire();
+        } else {
+            throttleAsynchronous();
+        }
     }
 
     private void throttleAsynchronous() {
@@ -6,14 +6,17 @@ import lombok.extern.slf4j.Slf4j;
 
 import java.lang.annotation.Annotation;
 import java.lang.reflect.*;
-import java.net.SocketException;
+import java.time.Duration;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
 import org.meeuw.functional.TriFunction;
 
 import nl.vpro.api.client.Utils;
+import nl.vpro.api.client.utils.CircuitBreaker;
+import nl.vpro.api.client.utils.RetryPolicy;
 import nl.vpro.domain.Roles;
 import nl.vpro.domain.media.EntityType;
 import nl.vpro.logging.simple.Level;
@@ -24,6 +27,7 @@ import nl.vpro.rs.media.MediaBackendRestService;
 /**
  * This Proxy:
  * - throttles all calls
+ * - retries calls which failed because of server problems, according to the {@link nl.vpro.api.client.utils.RetryPolicy} of the client, and fails fast if its {@link CircuitBreaker} (if it has one) is open
  * - automatically fills some common arguments (recognized by @QueryParam annotations)
  * - if the return type is Response, it also checks the status code
  * - NotFoundException is wrapped to <code>null</code>
@@ -53,9 +57,20 @@ class MediaRestClientAspect<T> implements InvocationHandler {
 
     @Override
     public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+        final CircuitBreaker breaker = client.getCircuitBreaker();
+        if (!client.isSchedulingRetries()) {
+            client.getRetryPolicy().onCall();
+        }
+        int attempt = 0;
         while (true) {
             log.debug("Throttling {} (rate: {})", method, client.getThrottleRate());
             client.throttle();
+            if (breaker != null) {
+                breaker.acquire();
+            }
+            boolean failed = true;
+            final RuntimeException retryable;
+            final String reason;
             try {
                 try {
                     fillParametersIfEmpty(method, args);
@@ -63,19 +78,19 @@ class MediaRestClientAspect<T> implements InvocationHandler {
                     dealWithHeaders(method, args);
                     log.debug("RESULT {}", result);
                     if (result instanceof Response){
-                        if (dealWithResponse((Response) result, method)) {
-                            continue;
-                        }
+                        dealWithResponse((Response) result, method);
                     }
+                    failed = false;
                     return result;
                 } catch (InvocationTargetException itc) {
                     throw itc.getCause();
                 }
             } catch (NotFoundException nfe) {
+                failed = false;
                 return null;
             } catch (ServiceUnavailableException sue) {
-                client.retryAfterWaitOrException(method.getName() + ": Service unavailable:" + sue.getMessage(), sue);
-                // retry
+                retryable = sue;
+                reason = ": Service unavailable:" + sue.getMessage();
             } catch (InternalServerErrorException isee) {
                 // odd, should not happen.
 /*
@@ -88,89 +103,179 @@ class MediaRestClientAspect<T> implements InvocationHandler {
 misconfiguration and was unable to complete
 your request.</p>
 */
-                client.retryAfterWaitOrException(method.getName() + ": Internal Server error: " + isee.getMessage(), isee);
+                retryable = isee;
+                reason = ": Internal Server error: " + isee.getMessage();
                 // lets retry retry
 
             } catch (jakarta.ws.rs.ProcessingException pe) {
-                Throwable t = pe.getCause();
-                if (t instanceof SocketException) {
-                    client.retryAfterWaitOrException(method.getName() + ": SocketException: " + t.getMessage(), pe);// retry
+                if (MediaRestClient.isTransportFailure(pe)) {
+                    retryable = pe;
+                    reason = ": " + pe.getCause().getClass().getSimpleName() + ": " + pe.getCause().getMessage();
                 } else {
                     throw pe;
                 }
-            } catch (RuntimeException re) {
+            } catch (RuntimeException | Error re) {
+                failed = isServerFailure(re);
                 throw re;
-            } catch (Exception e) {
+            } catch (Throwable e) {
                 throw new RuntimeException(e);
             } finally {
                 cleanAfter();
+                if (breaker != null) {
+                    if (failed) {
+                        breaker.onFailure();
+                    } else {
+                        breaker.onSuccess();
+                    }
+                }
             }
-            // exception not rethrown, next iteration will try again
+            // exception not rethrown, try again, if the retry policy allows that
+            client.retryAfterWaitOrException(method.getName() + reason, retryable, ++attempt);
+        }
+    }
+
+    /**
+     * Whether the exception indicates that the server is failing (rather than e.g. that the request was not correct)
+     */
+    static boolean isServerFailure(Throwable t) {
+        if (t instanceof WebApplicationException wae && wae.getResponse() != null) {
+            return wae.getResponse().getStatus() >= 500;
+        }
+        if (t instanceof ResponseError responseError) {
+            return responseError.getStatus() >= 500;
         }
+        return false;
     }
 
     protected void fillParametersIfEmpty(Method method, Object[] args) {
-        Annotation[][] annotations = method.getParameterAnnotations();
         if (args != null) {
-            for (int i = 0; i < args.length; i++) {
-                for (int j = 0; j < annotations[i].length; j++) {
-                    if (annotations[i][j] instanceof QueryParam queryParam && args[i] == null) {
-                        if (MediaBackendRestService.ERRORS.equals(queryParam.value())) {
-                            log.debug("Implicitly set errors parameter to {}", client.errors);
-                            args[i] = client.errors;
-                        } else if (MediaBackendRestService.FOLLOW.equals(queryParam.value())) {
-                            log.debug("Implicitly set followMerges to {}", client.isFollowMerges());
-                            args[i] = client.isFollowMerges();
-                        } else if (MediaBackendRestService.VALIDATE_INPUT.equals(queryParam.value())) {
-                            log.debug("Implicitly set validateInput to {}", client.isValidateInput());
-                            args[i] = client.isValidateInput();
-                        } else if (MediaBackendRestService.OWNER.equals(queryParam.value())) {
-                            if (client.getOwner() != null) {
-                                log.debug("Implicitly set owner to {}", client.getOwner());
-
-                                args[i] = client.getOwner();
-                            }
-                        } else if (MediaBackendRestService.PUBLISH.equals(queryParam.value())) {
-                            if (client.isPublishImmediately()) {
-                                log.debug("Implicitly set publish to {}", client.isPublishImmediately());
-                                args[i] = client.isPublishImmediately();
-                            }
-                        } else if (MediaBackendRestService.DELETES.equals(queryParam.value())) {
-                            if (client.getDeletes() != null) {
-                                log.debug("Implicitly set deletes to {}", client.getDeletes());
-                                args[i] = client.getDeletes();
-                            }
-                        }
+            for (ParameterFiller filler : fillPlan(method)) {
+                filler.fill(client, args);
+            }
+        }
+    }
+
+    /**
+     * Fills (or inspects) one argument of a call. Which arguments need this, only depends on the {@link Method}, so this is determined only once per method (see {@link #fillPlan(Method)}), and then applied on every call using the current settings of the client.
+     * @since 8.15
+     */
+    @FunctionalInterface
+    interface ParameterFiller {
+        void fill(MediaRestClient client, Object[] args);
+    }
+
+    private static final ParameterFiller[] EMPTY_PLAN = new ParameterFiller[0];
+
+    /**
+     * The plans per method, stored with the class declaring them, so they don't keep that class (and its class loader) reachable
+     */
+    private static final ClassValue<Map<Method, ParameterFiller[]>> FILL_PLANS = new ClassValue<>() {
+        @Override
+        protected Map<Method, ParameterFiller[]> computeValue(Class<?> type) {
+            return new ConcurrentHashMap<>();
+        }
+    };
+
+    static ParameterFiller[] fillPlan(Method method) {
+        return FILL_PLANS.get(method.getDeclaringClass()).computeIfAbsent(method, MediaRestClientAspect::compileFillPlan);
+    }
+
+    private static ParameterFiller[] compileFillPlan(Method method) {
+        final Annotation[][] annotations = method.getParameterAnnotations();
+        final Class<?>[] parameterTypes = method.getParameterTypes();
+        final List<ParameterFiller> plan = new ArrayList<>();
+        for (int i = 0; i < annotations.length; i++) {
+            for (Annotation annotation : annotations[i]) {
+                final ParameterFiller filler = compileFiller(i, parameterTypes[i], annotation);
+                if (filler != null) {
+                    plan.add(filler);
+                }
+            }
+        }
+        log.debug("Fill plan for {}: {} fillers", method, plan.size());
+        return plan.isEmpty() ? EMPTY_PLAN : plan.toArray(EMPTY_PLAN);
+    }
+
+    private static ParameterFiller compileFiller(final int i, Class<?> parameterType, Annotation annotation) {
+        if (annotation instanceof QueryParam queryParam) {
+            final String name = queryParam.value();
+            if (MediaBackendRestService.ERRORS.equals(name)) {
+                return (client, args) -> {
+                    if (args[i] == null) {
+                        log.debug("Implicitly set errors parameter to {}", client.errors);
+                        args[i] = client.errors;
                     }
-                    if (annotations[i][j] instanceof PathParam pathParam && args[i] == null) {
-                        if ("entity".equals(pathParam.value())) {
-                            if (CharSequence.class.isAssignableFrom(method.getParameterTypes()[i])) {
-                                args[i] = "media";
-                            } else if (EntityType.class.isAssignableFrom(method.getParameterTypes()[i])) {
-                                try {
-                                    args[i] = method.getParameterTypes()[i].getDeclaredField("media").get(null);
-                                } catch (Exception e) {
-                                    log.error(e.getMessage());
-                                }
-                            }
-                            log.debug("Implicitly set entity to {}", args[i]);
-                        }
+                };
+            } else if (MediaBackendRestService.FOLLOW.equals(name)) {
+                return (client, args) -> {
+                    if (args[i] == null) {
+                        log.debug("Implicitly set followMerges to {}", client.isFollowMerges());
+                        args[i] = client.isFollowMerges();
                     }
-
-                    // This puts the actual value of a header param into thread local of interceptor
-                    // This is because this interceptor is used to have a default value
-                    // for the content type request header (normally application/xml)
-                    // Some call do have an explicit Content type parameter though.
-                    // By putting their value in the thread local, the interceptor will effectively be disabled.
-                    if (annotations[i][j] instanceof HeaderParam headerParam) {
-                        if (HttpHeaders.CONTENT_TYPE.equals(headerParam.value())) {
-                            ContentTypeInterceptor.CONTENT_TYPE.set((String) args[i]);
-                        }
+                };
+            } else if (MediaBackendRestService.VALIDATE_INPUT.equals(name)) {
+                return (client, args) -> {
+                    if (args[i] == null) {
+                        log.debug("Implicitly set validateInput to {}", client.isValidateInput());
+                        args[i] = client.isValidateInput();
+                    }
+                };
+            } else if (MediaBackendRestService.OWNER.equals(name)) {
+                return (client, args) -> {
+                    if (args[i] == null && client.getOwner() != null) {
+                        log.debug("Implicitly set owner to {}", client.getOwner());
+                        args[i] = client.getOwner();
+                    }
+                };
+            } else if (MediaBackendRestService.PUBLISH.equals(name)) {
+                return (client, args) -> {
+                    if (args[i] == null && client.isPublishImmediately()) {
+                        log.debug("Implicitly set publish to {}", client.isPublishImmediately());
+                        args[i] = client.isPublishImmediately();
                     }
+                };
+            } else if (MediaBackendRestService.DELETES.equals(name)) {
+                return (client, args) -> {
+                    if (args[i] == null && client.getDeletes() != null) {
+                        log.debug("Implicitly set deletes to {}", client.getDeletes());
+                        args[i] = client.getDeletes();
+                    }
+                };
+            }
+            return null;
+        }
+        if (annotation instanceof PathParam pathParam && "entity".equals(pathParam.value())) {
+            final Object entity;
+            if (CharSequence.class.isAssignableFrom(parameterType)) {
+                entity = "media";
+            } else if (EntityType.class.isAssignableFrom(parameterType)) {
+                Object value = null;
+                try {
+                    value = parameterType.getDeclaredField("media").get(null);
+                } catch (Exception e) {
+                    log.error(e.getMessage());
                 }
-
+                entity = value;
+            } else {
+                entity = null;
             }
+            return (client, args) -> {
+                if (args[i] == null) {
+                    args[i] = entity;
+                    log.debug("Implicitly set entity to {}", entity);
+                }
+            };
+        }
+
+        // This puts the actual value of a header param into thread local of interceptor
+        // This is because this interceptor is used to have a default value
+        // for the content type request header (normally application/xml)
+        // Some call do have an explicit Content type parameter though.
+        // By putting their value in the thread local, the interceptor will effectively be disabled.
+        if (annotation instanceof HeaderParam headerParam && HttpHeaders.CONTENT_TYPE.equals(headerParam.value())) {
+            return (client, args) -> ContentTypeInterceptor.CONTENT_TYPE.set((String) args[i]);
         }
+        return null;
     }
 
     protected static void cleanAfter() {
@@ -188,7 +293,7 @@ your request.</p>
                 for (Object w : warnings) {
                     String asString = w + " (" + methodString + ")";
                     log.warn(asString);
-                    client.getWarnings().add(asString);
+                    client.addWarning(asString);
                 }
             }
 
@@ -213,15 +318,15 @@ your request.</p>
     }
 
 
-    protected boolean dealWithResponse(Response response, Method method) {
+    protected void dealWithResponse(Response response, Method method) {
         log.debug("Dealing with {}", response);
         try {
             if (response.getStatusInfo() == Response.Status.SERVICE_UNAVAILABLE) {
                 String message = response.readEntity(String.class);
-                // retry
-                client.retryAfterWaitOrException(method.getName() + " " + message, new ServiceUnavailableException(message));
+                Duration retryAfter = RetryPolicy.retryAfter(response.getHeaderString(HttpHeaders.RETRY_AFTER));
                 response.close();
-                return  true;
+                // will be retried
+                throw new ServiceUnavailableException(message, retryAfter == null ? null : retryAfter.toSeconds());
             }
             if (response.getStatusInfo().getFamily() != Response.Status.Family.SUCCESSFUL) {
 
@@ -238,6 +343,5 @@ your request.</p>
         } finally {
             log.debug("dealt with response");
         }
-        return false;
     }
 }
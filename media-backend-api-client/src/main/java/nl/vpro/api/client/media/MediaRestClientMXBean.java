@@ -19,4 +19,36 @@ public interface MediaRestClientMXBean extends AbstractApiClientMXBean {
 
     String getPassword();
     void setPassword(String password);
+
+    /**
+     * The number of retries done since startup
+     * @since 8.15
+     */
+    long getRetries();
+
+    /**
+     * The number of failed calls which were not retried anymore, because the maximum number of attempts was reached or the retry budget was exhausted
+     * @since 8.15
+     */
+    long getRetriesRefused();
+
+    /**
+     * @since 8.15
+     */
+    String getCircuitBreakerState();
+
+    /**
+     * @since 8.15
+     */
+    long getCircuitBreakerOpenedCount();
+
+    /**
+     * @since 8.15
+     */
+    long getCircuitBreakerRejectedCount();
+
+    /**
+     * @since 8.15
+     */
+    void resetCircuitBreaker();
 }
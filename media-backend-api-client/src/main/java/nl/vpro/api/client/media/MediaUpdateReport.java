@@ -0,0 +1,80 @@
+package nl.vpro.api.client.media;
+
+import lombok.Getter;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Collects the {@link MediaUpdateResult results} of a {@link BulkMediaUpdater bulk update}. Only the failed results are kept, of the others only the number is. To follow all results, give the {@link BulkMediaUpdater} a listener.
+ *
+ * @author Michiel Meeuwissen
+ * @since 8.15
+ */
+public class MediaUpdateReport {
+
+    @Getter
+    private final Instant start = Instant.now();
+    private Instant end;
+    private final List<MediaUpdateResult> failed = new ArrayList<>();
+    private long successes = 0;
+    private long failures = 0;
+    private long warnings = 0;
+
+    synchronized void add(MediaUpdateResult result) {
+        if (result.isSuccess()) {
+            successes++;
+        } else {
+            failures++;
+            failed.add(result);
+        }
+        if (!result.warnings().isEmpty()) {
+            warnings++;
+        }
+    }
+
+    synchronized void finish() {
+        end = Instant.now();
+    }
+
+    /**
+     * The results of the failed updates, in the order they were finished
+     */
+    public synchronized List<MediaUpdateResult> getFailed() {
+        return Collections.unmodifiableList(new ArrayList<>(failed));
+    }
+
+    /**
+     * The number of updates which were done
+     */
+    public synchronized long getCount() {
+        return successes + failures;
+    }
+
+    public synchronized long getSuccesses() {
+        return successes;
+    }
+
+    public synchronized long getFailures() {
+        return failures;
+    }
+
+    /**
+     * The number of updates which had validation warnings
+     */
+    public synchronized long getWithWarnings() {
+        return warnings;
+    }
+
+    public synchronized Duration getDuration() {
+        return Duration.between(start, end == null ? Instant.now() : end);
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "%d updates in %s (%d failed, %d with warnings)".formatted(successes + failures, getDuration(), failures, warnings);
+    }
+}
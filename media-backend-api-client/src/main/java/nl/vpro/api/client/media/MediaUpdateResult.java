@@ -0,0 +1,42 @@
+package nl.vpro.api.client.media;
+
+import java.time.Duration;
+import java.util.List;
+
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+/**
+ * The result of one update in a {@link BulkMediaUpdater bulk update}.
+ *
+ * @param mid      The mid of the update, or if the update had none, the mid the backend returned
+ * @param response The response of the backend (normally the mid), if successful
+ * @param warnings The validation warnings the backend returned for this update
+ * @param error    A description of the error, if not successful
+ * @author Michiel Meeuwissen
+ * @since 8.15
+ */
+public record MediaUpdateResult(
+    @Nullable String mid,
+    Status status,
+    @Nullable String response,
+    List<String> warnings,
+    @Nullable String error,
+    Duration duration) {
+
+    public enum Status {
+        SUCCESS,
+        FAILED
+    }
+
+    public static MediaUpdateResult success(@Nullable String mid, String response, List<String> warnings, Duration duration) {
+        return new MediaUpdateResult(mid == null ? response : mid, Status.SUCCESS, response, List.copyOf(warnings), null, duration);
+    }
+
+    public static MediaUpdateResult failed(@Nullable String mid, Throwable error, List<String> warnings, Duration duration) {
+        return new MediaUpdateResult(mid, Status.FAILED, null, List.copyOf(warnings), error.getClass().getSimpleName() + ": " + error.getMessage(), duration);
+    }
+
+    public boolean isSuccess() {
+        return status == Status.SUCCESS;
+    }
+}
@@ -0,0 +1,91 @@
+package nl.vpro.api.client.media;
+
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
+
+import org.junit.jupiter.api.Test;
+
+import nl.vpro.domain.media.update.MediaUpdate;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class BulkMediaUpdaterTest {
+
+    @Test
+    void concurrentButOrderedPerMid() {
+        final AtomicInteger inProgress = new AtomicInteger();
+        final AtomicInteger maxInProgress = new AtomicInteger();
+        final Map<String, List<Integer>> handled = new ConcurrentHashMap<>();
+        final Map<MediaUpdate<?>, Integer> sequence = new IdentityHashMap<>();
+        final List<MediaUpdate<?>> updates = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            MediaUpdate<?> update = update("mid_" + (i % 7));
+            sequence.put(update, i);
+            updates.add(update);
+        }
+
+        MediaUpdateReport report = BulkMediaUpdater.builder()
+            .concurrency(5)
+            .updater(u -> {
+                maxInProgress.accumulateAndGet(inProgress.incrementAndGet(), Math::max);
+                try {
+                    Thread.sleep(1);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                handled.computeIfAbsent(u.getMid(), m -> Collections.synchronizedList(new ArrayList<>())).add(sequence.get(u));
+                inProgress.decrementAndGet();
+                return MediaUpdateResult.success(u.getMid(), u.getMid(), List.of(), Duration.ZERO);
+            })
+            .build()
+            .run(updates.iterator());
+
+        assertThat(report.getCount()).isEqualTo(200);
+        assertThat(report.getSuccesses()).isEqualTo(200);
+        assertThat(report.getFailures()).isZero();
+        assertThat(report.getFailed()).isEmpty();
+        assertThat(maxInProgress.get()).isLessThanOrEqualTo(5);
+        assertThat(handled).hasSize(7);
+        handled.values().forEach(l -> assertThat(l).isSorted());
+    }
+
+    @Test
+    void failuresAreReported() {
+        final List<MediaUpdateResult> listened = Collections.synchronizedList(new ArrayList<>());
+        MediaUpdateReport report = BulkMediaUpdater.builder()
+            .concurrency(2)
+            .updater(u -> {
+                if (u.getMid().equals("mid_3")) {
+                    throw new IllegalStateException("failed");
+                }
+                return MediaUpdateResult.success(u.getMid(), u.getMid(), List.of("warning for " + u.getMid()), Duration.ZERO);
+            })
+            .listener(listened::add)
+            .build()
+            .run(IntStream.range(0, 5).mapToObj(i -> update("mid_" + i)));
+
+        assertThat(report.getSuccesses()).isEqualTo(4);
+        assertThat(report.getFailures()).isEqualTo(1);
+        assertThat(report.getWithWarnings()).isEqualTo(4);
+        assertThat(report.getFailed()).singleElement()
+            .satisfies(r -> {
+                assertThat(r.mid()).isEqualTo("mid_3");
+                assertThat(r.error()).isEqualTo("IllegalStateException: failed");
+            });
+        // all results are streamed to the listener, the report only keeps the failures
+        assertThat(listened).extracting(MediaUpdateResult::mid)
+            .containsExactlyInAnyOrder("mid_0", "mid_1", "mid_2", "mid_3", "mid_4");
+        assertThat(report.getCount()).isEqualTo(5);
+    }
+
+    private static MediaUpdate<?> update(String mid) {
+        MediaUpdate<?> update = mock(MediaUpdate.class);
+        when(update.getMid()).thenReturn(mid);
+        return update;
+    }
+}
@@ -0,0 +1,329 @@
+package nl.vpro.api.client.media;
+
+import jakarta.ws.rs.*;
+import jakarta.ws.rs.core.HttpHeaders;
+
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Method;
+import java.time.Duration;
+import java.util.Arrays;
+
+import org.apache.http.NoHttpResponseException;
+import org.apache.http.conn.ConnectTimeoutException;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import nl.vpro.api.client.utils.*;
+import nl.vpro.domain.media.EntityType;
+import nl.vpro.domain.media.support.OwnerType;
+
+import static nl.vpro.rs.media.MediaBackendRestService.*;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * Checks the retries and the circuit breaker of {@link MediaRestClientAspect}, and that its precompiled fill plans fill the arguments like it did before they were introduced (see {@link #legacyFill(MediaRestClient, Method, Object[])}).
+ */
+class MediaRestClientAspectTest {
+
+    interface Service {
+        void queryParams(
+            @QueryParam(ERRORS) String errors,
+            @QueryParam(FOLLOW) Boolean follow,
+            @QueryParam(VALIDATE_INPUT) Boolean validateInput,
+            @QueryParam(OWNER) OwnerType owner,
+            @QueryParam(PUBLISH) Boolean publish,
+            @QueryParam(DELETES) Boolean deletes,
+            @QueryParam("other") String other);
+
+        void entityAsString(@PathParam("entity") String entity, @PathParam("id") String id);
+
+        void entityAsType(@PathParam("entity") EntityType.AllMedia entity);
+
+        void entityOfOtherType(@PathParam("entity") Integer entity);
+
+        void contentType(@HeaderParam(HttpHeaders.CONTENT_TYPE) String contentType, @QueryParam(ERRORS) String errors);
+
+        void noParameters();
+    }
+
+    interface Backend {
+        String call();
+    }
+
+    private final Backend backend = mock(Backend.class);
+
+    @Test
+    void retriesServerFailures() {
+        final MediaRestClient client = retryingClient(null, 3);
+        when(backend.call())
+            .thenThrow(new ServiceUnavailableException())
+            .thenThrow(new InternalServerErrorException())
+            .thenReturn("ok");
+
+        assertThat(proxy(client).call()).isEqualTo("ok");
+        verify(backend, times(3)).call();
+        verify(client).retryAfterWaitOrException(anyString(), any(ServiceUnavailableException.class), eq(1));
+        verify(client).retryAfterWaitOrException(anyString(), any(InternalServerErrorException.class), eq(2));
+    }
+
+    @Test
+    void retriesTransportFailures() {
+        final MediaRestClient client = retryingClient(null, 3);
+        final ProcessingException noHttpResponse = new ProcessingException(new NoHttpResponseException("backend failed to respond"));
+        final ProcessingException connectTimeout = new ProcessingException(new ConnectTimeoutException("connect timed out"));
+        when(backend.call())
+            .thenThrow(noHttpResponse)
+            .thenThrow(connectTimeout)
+            .thenReturn("ok");
+
+        assertThat(proxy(client).call()).isEqualTo("ok");
+        verify(backend, times(3)).call();
+        verify(client).retryAfterWaitOrException(contains("NoHttpResponseException"), same(noHttpResponse), eq(1));
+        verify(client).retryAfterWaitOrException(contains("ConnectTimeoutException"), same(connectTimeout), eq(2));
+        assertThat(MediaRestClient.isRetryable(noHttpResponse)).isTrue();
+        assertThat(MediaRestClient.isRetryable(connectTimeout)).isTrue();
+    }
+
+    @Test
+    void otherProcessingExceptionsAreNotRetried() {
+        final MediaRestClient client = retryingClient(null, 3);
+        final ProcessingException unreadable = new ProcessingException(new IllegalStateException("could not unmarshal"));
+        when(backend.call()).thenThrow(unreadable);
+
+        assertThatThrownBy(() -> proxy(client).call()).isSameAs(unreadable);
+        verify(backend, times(1)).call();
+        verify(client, never()).retryAfterWaitOrException(anyString(), any(), anyInt());
+        assertThat(MediaRestClient.isRetryable(unreadable)).isFalse();
+    }
+
+    @Test
+    void givesUpAfterMaxAttempts() {
+        final MediaRestClient client = retryingClient(null, 3);
+        when(backend.call()).thenThrow(new ServiceUnavailableException());
+
+        assertThatThrownBy(() -> proxy(client).call()).isInstanceOf(ServiceUnavailableException.class);
+        verify(backend, times(3)).call();
+    }
+
+    @Test
+    void clientErrorsAreNotRetried() {
+        final CircuitBreaker breaker = CircuitBreaker.builder().failureThreshold(1).build();
+        final MediaRestClient client = retryingClient(breaker, 3);
+        when(backend.call()).thenThrow(new BadRequestException());
+
+        assertThatThrownBy(() -> proxy(client).call()).isInstanceOf(BadRequestException.class);
+        verify(backend, times(1)).call();
+        verify(client, never()).retryAfterWaitOrException(anyString(), any(), anyInt());
+        assertThat(breaker.getState()).isEqualTo(CircuitBreaker.State.CLOSED);
+    }
+
+    @Test
+    void notFoundIsNull() {
+        final CircuitBreaker breaker = CircuitBreaker.builder().failureThreshold(1).build();
+        final MediaRestClient client = retryingClient(breaker, 3);
+        when(backend.call()).thenThrow(new NotFoundException());
+
+        assertThat(proxy(client).call()).isNull();
+        assertThat(breaker.getState()).isEqualTo(CircuitBreaker.State.CLOSED);
+    }
+
+    @Test
+    void openBreakerFailsFast() {
+        final CircuitBreaker breaker = CircuitBreaker.builder()
+            .failureThreshold(2)
+            .openDuration(Duration.ofMinutes(5))
+            .build();
+        final MediaRestClient client = retryingClient(breaker, 10);
+        when(backend.call()).thenThrow(new ServiceUnavailableException());
+
+        assertThatThrownBy(() -> proxy(client).call()).isInstanceOf(CircuitBreakerOpenException.class);
+        // the retry after the second failure is refused by the breaker
+        verify(backend, times(2)).call();
+        assertThat(breaker.getState()).isEqualTo(CircuitBreaker.State.OPEN);
+
+        assertThatThrownBy(() -> proxy(client).call()).isInstanceOf(CircuitBreakerOpenException.class);
+        verify(backend, times(2)).call();
+        assertThat(breaker.getRejectedCount()).isEqualTo(2);
+
+        breaker.reset();
+        reset(backend);
+        when(backend.call()).thenReturn("ok");
+        assertThat(proxy(client).call()).isEqualTo("ok");
+    }
+
+    private Backend proxy(MediaRestClient client) {
+        return MediaRestClientAspect.proxy(client, backend, Backend.class);
+    }
+
+    /**
+     * A client which retries right away, until the given number of attempts is reached
+     */
+    private static MediaRestClient retryingClient(CircuitBreaker breaker, int maxAttempts) {
+        final MediaRestClient client = mock(MediaRestClient.class);
+        when(client.getRetryPolicy()).thenReturn(mock(RetryPolicy.class));
+        when(client.getCircuitBreaker()).thenReturn(breaker);
+        doAnswer(invocation -> {
+            if (invocation.<Integer>getArgument(2) >= maxAttempts) {
+                throw invocation.<RuntimeException>getArgument(1);
+            }
+            return null;
+        }).when(client).retryAfterWaitOrException(anyString(), any(), anyInt());
+        return client;
+    }
+
+    @AfterEach
+    void cleanUp() {
+        MediaRestClientAspect.cleanAfter();
+    }
+
+    @Test
+    void queryParams() throws Exception {
+        for (boolean configured : new boolean[] {true, false}) {
+            queryParams(configured);
+        }
+    }
+
+    private void queryParams(boolean configured) throws Exception {
+        final MediaRestClient client = client(configured);
+        final Method method = Service.class.getMethod("queryParams", String.class, Boolean.class, Boolean.class, OwnerType.class, Boolean.class, Boolean.class, String.class);
+
+        final Object[] filled = assertFilledAsBefore(client, method, new Object[7]);
+        if (configured) {
+            assertThat(filled).containsExactly("errors@example.org", true, true, OwnerType.NPO, true, true, null);
+        } else {
+            assertThat(filled).containsExactly(null, false, false, null, null, null, null);
+        }
+
+        // already set arguments are kept
+        final Object[] set = {"other@example.org", false, false, OwnerType.BROADCASTER, false, false, "x"};
+        assertThat(assertFilledAsBefore(client, method, set.clone())).containsExactly(set);
+
+        // partially set
+        assertFilledAsBefore(client, method, new Object[]{null, true, null, OwnerType.BROADCASTER, null, false, null});
+    }
+
+    @Test
+    void entity() throws Exception {
+        for (boolean configured : new boolean[] {true, false}) {
+            entity(configured);
+        }
+    }
+
+    private void entity(boolean configured) throws Exception {
+        final MediaRestClient client = client(configured);
+
+        final Method asString = Service.class.getMethod("entityAsString", String.class, String.class);
+        assertThat(assertFilledAsBefore(client, asString, new Object[2])).containsExactly("media", null);
+        assertThat(assertFilledAsBefore(client, asString, new Object[]{"program", "id"})).containsExactly("program", "id");
+
+        final Method asType = Service.class.getMethod("entityAsType", EntityType.AllMedia.class);
+        assertThat(assertFilledAsBefore(client, asType, new Object[1])).containsExactly(EntityType.AllMedia.media);
+        assertThat(assertFilledAsBefore(client, asType, new Object[]{EntityType.AllMedia.program})).containsExactly(EntityType.AllMedia.program);
+
+        final Method ofOtherType = Service.class.getMethod("entityOfOtherType", Integer.class);
+        assertThat(assertFilledAsBefore(client, ofOtherType, new Object[1])).containsExactly((Object) null);
+        assertThat(assertFilledAsBefore(client, ofOtherType, new Object[]{1})).containsExactly(1);
+    }
+
+    @Test
+    void contentType() throws Exception {
+        for (boolean configured : new boolean[] {true, false}) {
+            contentType(configured);
+        }
+    }
+
+    private void contentType(boolean configured) throws Exception {
+        final MediaRestClient client = client(configured);
+        final Method method = Service.class.getMethod("contentType", String.class, String.class);
+
+        assertFilledAsBefore(client, method, new Object[]{"application/json", null});
+        assertThat(ContentTypeInterceptor.CONTENT_TYPE.get()).isEqualTo("application/json");
+    }
+
+    @Test
+    void noParameters() throws Exception {
+        for (boolean configured : new boolean[] {true, false}) {
+            noParameters(configured);
+        }
+    }
+
+    private void noParameters(boolean configured) throws Exception {
+        final Method method = Service.class.getMethod("noParameters");
+        assertThat(MediaRestClientAspect.fillPlan(method)).isEmpty();
+        assertThat(assertFilledAsBefore(client(configured), method, new Object[0])).isEmpty();
+    }
+
+    private static Object[] assertFilledAsBefore(MediaRestClient client, Method method, Object[] args) {
+        final Object[] expected = args.clone();
+        legacyFill(client, method, expected);
+
+        for (MediaRestClientAspect.ParameterFiller filler : MediaRestClientAspect.fillPlan(method)) {
+            filler.fill(client, args);
+        }
+        assertThat(args).describedAs("%s %s", method.getName(), Arrays.toString(expected)).containsExactly(expected);
+        // the plan is compiled only once
+        assertThat(MediaRestClientAspect.fillPlan(method)).isSameAs(MediaRestClientAspect.fillPlan(method));
+        return args;
+    }
+
+    private static MediaRestClient client(boolean configured) {
+        final MediaRestClient client = mock(MediaRestClient.class);
+        if (configured) {
+            client.errors = "errors@example.org";
+            when(client.isFollowMerges()).thenReturn(true);
+            when(client.isValidateInput()).thenReturn(true);
+            when(client.getOwner()).thenReturn(OwnerType.NPO);
+            when(client.isPublishImmediately()).thenReturn(true);
+            when(client.getDeletes()).thenReturn(true);
+        }
+        return client;
+    }
+
+    /**
+     * How the arguments were filled before 8.15, on every call.
+     */
+    private static void legacyFill(MediaRestClient client, Method method, Object[] args) {
+        final Annotation[][] annotations = method.getParameterAnnotations();
+        for (int i = 0; i < args.length; i++) {
+            for (int j = 0; j < annotations[i].length; j++) {
+                if (annotations[i][j] instanceof QueryParam queryParam && args[i] == null) {
+                    if (ERRORS.equals(queryParam.value())) {
+                        args[i] = client.errors;
+                    } else if (FOLLOW.equals(queryParam.value())) {
+                        args[i] = client.isFollowMerges();
+                    } else if (VALIDATE_INPUT.equals(queryParam.value())) {
+                        args[i] = client.isValidateInput();
+                    } else if (OWNER.equals(queryParam.value())) {
+                        if (client.getOwner() != null) {
+                            args[i] = client.getOwner();
+                        }
+                    } else if (PUBLISH.equals(queryParam.value())) {
+                        if (client.isPublishImmediately()) {
+                            args[i] = client.isPublishImmediately();
+                        }
+                    } else if (DELETES.equals(queryParam.value())) {
+                        if (client.getDeletes() != null) {
+                            args[i] = client.getDeletes();
+                        }
+                    }
+                }
+                if (annotations[i][j] instanceof PathParam pathParam && args[i] == null) {
+                    if ("entity".equals(pathParam.value())) {
+                        if (CharSequence.class.isAssignableFrom(method.getParameterTypes()[i])) {
+                            args[i] = "media";
+                        } else if (EntityType.class.isAssignableFrom(method.getParameterTypes()[i])) {
+                            try {
+                                args[i] = method.getParameterTypes()[i].getDeclaredField("media").get(null);
+                            } catch (Exception e) {
+                                throw new IllegalStateException(e);
+                            }
+                        }
+                    }
+                }
+            }
+        }
+    }
+}